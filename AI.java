@@ -5,6 +5,8 @@ import java.util.*;
  */
 public class AI
 {
+    private static final int KILL_TIER = 400; // the most the chance of a kill adds to a score
+    
     /**
      * Returns the enemy unit that the AI has decided to target using the specified parent unit, and ArrayList of enemy sides.
      * Highest score is the most optimal unit.
@@ -12,31 +14,149 @@ public class AI
      */
     public static Unit getTarget(Unit parentUnit, ArrayList<ArrayList<Unit>> enemies)
     {
-        Unit myUnit = parentUnit; // initialize parent unit
+        return getTarget(parentUnit, enemies, null);
+    }
+    
+    /**
+     * Returns the enemy unit that the AI has decided to target using the specified parent unit, and ArrayList of enemy sides.
+     * Ties between the highest scores are broken with the specified source of random numbers
+     * (or in favour of the first unit if it is null).
+     * Returns null if the target with the greatest score is not in the unit's movement range.
+     */
+    public static Unit getTarget(Unit parentUnit, ArrayList<ArrayList<Unit>> enemies, RandomSource rand)
+    {
+        return getTarget(parentUnit, enemies, rand, null);
+    }
+    
+    /**
+     * Returns the enemy unit that the AI has decided to target using the specified parent unit, and ArrayList of enemy sides.
+     * Ties between the highest scores are broken with the specified source of random numbers
+     * (or in favour of the first unit if it is null).
+     * Whether each enemy can be reached this turn is read from the specified threat map
+     * (or worked out from the parent unit's range if it is null).
+     * Returns null if the target with the greatest score is not in the unit's movement range.
+     */
+    public static Unit getTarget(Unit parentUnit, ArrayList<ArrayList<Unit>> enemies, RandomSource rand, ThreatMap threats)
+    {
+        ArrayList<Unit> myEnemy = allEnemies(enemies);
+        int index = chooseTarget(myEnemy, scoreReach(parentUnit, myEnemy, threats), rand);
         
+        if (index == -1)
+            return null;
+        else
+            return myEnemy.get(index);
+    }
+    
+    /**
+     * Returns the units of all the specified sides in a single list, side by side.
+     */
+    public static ArrayList<Unit> allEnemies(ArrayList<ArrayList<Unit>> enemies)
+    {
         ArrayList<Unit> myEnemy = new ArrayList<Unit>(); // initialize enemies, regardless of sides
         for (int i = 0; i < enemies.size(); i++)
             for (int j = 0; j < enemies.get(i).size(); j++)
                 myEnemy.add(enemies.get(i).get(j));
-                
+        return myEnemy;
+    }
+    
+    /**
+     * Returns the part of each enemy's score that depends only on where it stands and what it wields:
+     * whether the parent unit can reach it this turn and whether it could counter attack.
+     * These stay the same while other units fight, unless the parent unit's movement range changes.
+     * Reachability is read from the specified threat map, or worked out from the parent unit's range if it is null
+     * (which only reads the battle, so several units can be scored at once on different threads).
+     */
+    public static int[] scoreReach(Unit parentUnit, ArrayList<Unit> myEnemy, ThreatMap threats)
+    {
+        Unit myUnit = parentUnit; // initialize parent unit
+        
         int[] myScore = new int[myEnemy.size()]; // the score assigned to each enemy unit based on the success rate of the parent unit over each
                                                  // initialized to zero (by default)
             
-        myScore = evaluateForDistance(myUnit, myEnemy, myScore); // evaluate for distance
+        myScore = evaluateForDistance(myUnit, myEnemy, myScore, threats); // evaluate for distance
         myScore = evaluateForCounter(myUnit, myEnemy, myScore); // evaluate for ability to counter
+        return myScore;
+    }
+    
+    /**
+     * Returns the part of each enemy's score from scoreReach that depends on whether the parent unit can reach it this turn.
+     */
+    public static int[] scoreDistance(Unit parentUnit, ArrayList<Unit> myEnemy, ThreatMap threats)
+    {
+        return evaluateForDistance(parentUnit, myEnemy, new int[myEnemy.size()], threats);
+    }
+    
+    /**
+     * Returns the part of each enemy's score from scoreReach that depends on whether it could counter attack,
+     * which only changes when either unit changes weapons.
+     */
+    public static int[] scoreCounter(Unit parentUnit, ArrayList<Unit> myEnemy)
+    {
+        return evaluateForCounter(parentUnit, myEnemy, new int[myEnemy.size()]);
+    }
+    
+    /**
+     * Finishes the specified scores from scoreReach (which are changed) and returns the index of the enemy to target.
+     * Ties between the highest scores are broken with the specified source of random numbers
+     * (or in favour of the first unit if it is null).
+     * Returns -1 if the target with the greatest score is not in the unit's movement range.
+     */
+    public static int chooseTarget(ArrayList<Unit> myEnemy, int[] myScore, RandomSource rand)
+    {
         myScore = evaluateForHP(myEnemy, myScore); // evaluate for hp remaining
         myScore = evaluateForAlive(myEnemy, myScore); // evaluate for still being alive
         
         // find index of unit with highest score
         int greatestScoreIndex = 0; // assume greatest score to be that of first unit
+        int ties = 1; // the number of units found with the greatest score
         for (int i = 1; i < myScore.length; i++) // for all scores
+        {
             if (myScore[i] > myScore[greatestScoreIndex]) // if score of new value is greater than old record
+            {
                 greatestScoreIndex = i;
+                ties = 1;
+            }
+            else if (myScore[i] == myScore[greatestScoreIndex] && rand != null) // each tied unit is equally likely to be kept
+            {
+                ties++;
+                if (rand.nextInt(ties) == 0)
+                    greatestScoreIndex = i;
+            }
+        }
                 
         if (myScore[greatestScoreIndex] < 1000) // target not in movement range
-            return null;
+            return -1;
         else
-            return myEnemy.get(greatestScoreIndex); // return the target with highest score
+            return greatestScoreIndex; // return the target with highest score
+    }
+    
+    /**
+     * Adds to the best of the specified scores from scoreReach how likely the planned unit is to kill each enemy
+     * in one exchange without being killed by its counter attack, as forecast by the specified battle,
+     * striking from the distance and with the weapon in the specified plan.
+     * Only live enemies the unit can reach that tie for the best score are forecast,
+     * so the chance of a kill decides between the enemies that are otherwise equally good targets.
+     */
+    public static int[] scoreKill(AIPlan plan, ArrayList<Unit> myEnemy, int[] myScore, BattleEngine battle)
+    {
+        int best = 1000; // only enemies scoring at least this much can be targets
+        for (int i = 0; i < myEnemy.size(); i++)
+            if (myEnemy.get(i).isAlive())
+                best = Math.max(best, myScore[i]);
+        
+        for (int i = 0; i < myEnemy.size(); i++) // for every enemy unit
+        {
+            if (myScore[i] != best || !myEnemy.get(i).isAlive()) // not among the best targets
+                continue;
+            
+            int dist = plan.getAtkDist(i);
+            if (dist < 0) // no optimal distance
+                dist = 1;
+            CombatForecast forecast = battle.forecast(plan.getUnit(), Math.max(plan.getWpnIndex(i), 0), dist, myEnemy.get(i));
+            int odds = forecast.getKillChance() + CombatForecast.CERTAIN - forecast.getCounterKillChance(); // 0 to 2*CERTAIN
+            myScore[i] += odds*KILL_TIER/(2*CombatForecast.CERTAIN);
+        }
+        return myScore;
     }
     
     /**
@@ -75,13 +195,23 @@ public class AI
     
     /**
      * Evaluates the possible targets based on their distance from the parent unit.
-     * Should only be called by getTarget, after the parent unit, enemies, and scores have been (re)set.
+     * Should only be called by scoreReach, after the parent unit, enemies, and scores have been (re)set.
      * Returns the updated scores.
      */
-    private static int[] evaluateForDistance(Unit myUnit, ArrayList<Unit> myEnemy, int[] myScore)
+    private static int[] evaluateForDistance(Unit myUnit, ArrayList<Unit> myEnemy, int[] myScore, ThreatMap threats)
     {
+        if (threats != null)
+        {
+            boolean[] threatened = threats.threatensEach(myUnit, myEnemy, ThreatMap.PRIMARY); // primary weapon alone, as getEnemiesInThreatRange
+            for (int i = 0; i < myScore.length; i++) // split scores into seperate tiers based on whether they are in the parent unit's attack range or not.
+                if (threatened[i]) // the unit is can be attacked this turn
+                    myScore[i] += 1000; // split into seperate tier
+            return myScore;
+        }
+        
+        ArrayList<Unit> threatened = myUnit.getEnemiesInThreatRange(); // found from the grids around the unit, not by checking every enemy
         for (int i = 0; i < myScore.length; i++) // split scores into seperate tiers based on whether they are in the parent unit's attack range or not.
-            if (myUnit.isInThreatRange(myEnemy.get(i).getLoc())) // the unit is can be attacked this turn
+            if (threatened.contains(myEnemy.get(i))) // the unit is can be attacked this turn
                 myScore[i] += 1000; // split into seperate tier
                 
         return myScore; // return updated scores
@@ -89,28 +219,36 @@ public class AI
     
     /**
      * Evaluates the possible targets based on whether or not they can counter attack the parent unit.
-     * Should only be called by getTarget, after the parent unit, enemies, and scores have been (re)set.
+     * Should only be called by scoreReach, after the parent unit, enemies, and scores have been (re)set.
      * Returns the updated scores.
      */
     private static int[] evaluateForCounter(Unit myUnit, ArrayList<Unit> myEnemy, int[] myScore)
     {
-        for (int i = 0; i < Unit.WPN_SLOTS; i++) // for every weapon the unit has
+        HashMap<NumberSet, Integer> bonuses = new HashMap<NumberSet, Integer>(); // bonus for each enemy weapon range seen so far (enemies with the same weapon share a range)
+        for (int j = 0; j < myEnemy.size(); j++) // for every enemy unit
         {
-            NumberSet myWpnRng = myUnit.getWpnAt(i).getAtkRng();
-            for (int j = 0; j < myEnemy.size(); j++) // for every enemy unit
+            NumberSet enemyWpnRng = myEnemy.get(j).getWpnAt(0).getAtkRng(); // attack range of enemy's primary weapon
+            Integer bonus = bonuses.get(enemyWpnRng);
+            if (bonus == null)
             {
-                NumberSet enemyWpnRng = myEnemy.get(j).getWpnAt(0).getAtkRng(); // attack range of enemy's primary weapon
-                for (int a = 0; a < myWpnRng.size(); a++) // check if range of own weapon is same as enemy's
-                    if (!enemyWpnRng.contains(myWpnRng.get(a))) // ranges do NOT overlap
-                        myScore[j] += 500; // split into seperate tier
+                bonus = 0;
+                for (int i = 0; i < Unit.WPN_SLOTS; i++) // for every weapon the unit has
+                {
+                    NumberSet myWpnRng = myUnit.getWpnAt(i).getAtkRng();
+                    for (int a = 0; a < myWpnRng.size(); a++) // check if range of own weapon is same as enemy's
+                        if (!enemyWpnRng.contains(myWpnRng.get(a))) // ranges do NOT overlap
+                            bonus += 500; // split into seperate tier
+                }
+                bonuses.put(enemyWpnRng, bonus);
             }
+            myScore[j] += bonus;
         }
         return myScore; // return updated scores
     }
     
     /**
      * Evaluates the possible targets based on how much hp they have.
-     * Should only be called by getTarget, after the parent unit, enemies, and scores have been (re)set.
+     * Should only be called by chooseTarget, after the parent unit, enemies, and scores have been (re)set.
      * Returns the updated scores.
      */
     private static int[] evaluateForHP(ArrayList<Unit> myEnemy, int[] myScore)
@@ -145,7 +283,7 @@ public class AI
     /**
      * Evaluates the possible targets based on whether they are alive or not.
      * If dead, set their score to -1;
-     * Should only be called by getTarget, after the parent unit, enemies, and scores have been (re)set and at the END of the method.
+     * Should only be called by chooseTarget, after the parent unit, enemies, and scores have been (re)set and at the END of the method.
      * Returns the updated scores.
      */
     private static int[] evaluateForAlive(ArrayList<Unit> myEnemy, int[] myScore)
@@ -0,0 +1,87 @@
+/**
+ * One AI unit's action during its side's turn: where it moved to and whom it attacked.
+ * Units are named by side and index, so an action planned on a copy of a battle can be carried out on the battle itself.
+ * The state of the battle's random numbers just before the attack is kept too, so the attack rolls the same way
+ * (see BattleEngine.perform).
+ */
+public class AICommand
+{
+    private int side; // the side of the acting unit
+    private int unitIndex; // the index of the acting unit in its side
+    private Location dest; // the location the unit moved to (null = did not move)
+    private int targetSide; // the side of the unit attacked (-1 = no target)
+    private int targetIndex; // the index of the unit attacked in its side
+    private long randState; // the state of the battle's random numbers before the attack
+    
+    /**
+     * Creates a command for the unit at the specified index of the specified side, which moved to the specified location
+     * (null = did not move) and then attacked the unit at the specified index of the specified side (-1 = no target)
+     * with the battle's random numbers in the specified state.
+     */
+    public AICommand(int aSide, int aUnitIndex, Location aDest, int aTargetSide, int aTargetIndex, long aRandState)
+    {
+        side = aSide;
+        unitIndex = aUnitIndex;
+        dest = aDest;
+        targetSide = aTargetSide;
+        targetIndex = aTargetIndex;
+        randState = aRandState;
+    }
+    
+    /**
+     * Returns the side of the acting unit.
+     */
+    public int getSide()
+    {
+        return side;
+    }
+    
+    /**
+     * Returns the index of the acting unit in its side.
+     */
+    public int getUnitIndex()
+    {
+        return unitIndex;
+    }
+    
+    /**
+     * Returns the location the unit moved to (null = did not move).
+     */
+    public Location getDest()
+    {
+        return dest;
+    }
+    
+    /**
+     * Returns the side of the unit attacked (-1 = no target).
+     */
+    public int getTargetSide()
+    {
+        return targetSide;
+    }
+    
+    /**
+     * Returns the index of the unit attacked in its side.
+     */
+    public int getTargetIndex()
+    {
+        return targetIndex;
+    }
+    
+    /**
+     * Returns the state of the battle's random numbers before the attack.
+     */
+    public long getRandState()
+    {
+        return randState;
+    }
+    
+    /**
+     * Returns whether or not the unit did anything that can be seen.
+     */
+    public boolean hasEffect()
+    {
+        return targetSide != -1;
+    }
+
+} // END CLASS
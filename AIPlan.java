@@ -0,0 +1,211 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The part of an AI unit's decision that can be worked out before its side starts acting:
+ * the score of every enemy that depends only on reach and weapons (see AI.scoreReach),
+ * and the distance and weapon to attack each enemy with (worked out once for each kind of weapon the enemies hold).
+ * A large side is planned at once on a snapshot of the battle, split across threads with fork/join,
+ * and then settled: each unit in turn takes its target's grid on the snapshot, so no two units plan to move to the same one
+ * (see BattleEngine.executeAI). A plan holds for as long as no unit falls, since nothing else its units act on changes the scores.
+ */
+public class AIPlan
+{
+    private static final int PARALLEL_UNITS = 16; // sides with at least this many units are planned on several threads
+    private static final int UNITS_PER_TASK = 4; // the most units a single task plans without splitting
+    
+    private Unit aiUnit; // the unit being planned
+    private ArrayList<Unit> enemies; // every enemy of the unit, in the order the scores are in
+    
+    private int[] distScores; // each enemy's score from AI.scoreDistance
+    private int[] counterScores; // each enemy's score from AI.scoreCounter
+    
+    private int[] atkDist; // the distance to attack each enemy from (see AI.optimalAtkDist)
+    private int[] wpnIndex; // the weapon to attack each enemy with (see AI.indexOfOptimalWpn)
+    
+    private int target = -1; // the index of the enemy the unit was settled on attacking (-1 = none)
+    private Location dest; // the grid the unit was settled on moving to (null = where it stands)
+    
+    /**
+     * Plans the specified unit's attack on each of the specified enemies,
+     * reading reachability from the specified threat map (null = worked out from the unit's range).
+     */
+    public AIPlan(Unit anAIUnit, ArrayList<Unit> theEnemies, ThreatMap threats)
+    {
+        aiUnit = anAIUnit;
+        enemies = theEnemies;
+        
+        distScores = AI.scoreDistance(aiUnit, enemies, threats);
+        counterScores = AI.scoreCounter(aiUnit, enemies);
+        
+        planAttacks();
+    }
+    
+    /**
+     * Returns whether or not a side of the specified number of units is worth planning at once on several threads,
+     * rather than one unit at a time just before each acts.
+     */
+    public static boolean isWorthPlanningAhead(int units)
+    {
+        return units >= PARALLEL_UNITS && Runtime.getRuntime().availableProcessors() > 1; // splitting only costs time on one processor
+    }
+    
+    /**
+     * Plans every live unit of the specified side against the specified enemies, on several threads,
+     * reading reachability from the specified threat map (null = worked out from each unit's range).
+     * Nothing may change the battle the units are in until it returns.
+     * Returns the plans in the same order as the side (null for fallen units).
+     */
+    public static AIPlan[] planSide(ArrayList<Unit> theSide, ArrayList<Unit> enemies, ThreatMap threats)
+    {
+        AIPlan[] plans = new AIPlan[theSide.size()];
+        ForkJoinPool.commonPool().invoke(new PlanTask(theSide, enemies, threats, plans, 0, plans.length));
+        return plans;
+    }
+    
+    /**
+     * Records the index of the enemy the unit is settled on attacking (-1 = none)
+     * and the grid it is settled on moving to (null = where it stands).
+     */
+    public void settle(int aTarget, Location aDest)
+    {
+        target = aTarget;
+        dest = aDest;
+    }
+    
+    /**
+     * Makes the plan the specified unit's, against the specified enemies,
+     * such as when it was worked out for the same unit on a snapshot of the battle.
+     */
+    public void bindTo(Unit anAIUnit, ArrayList<Unit> theEnemies)
+    {
+        aiUnit = anAIUnit;
+        enemies = theEnemies;
+    }
+    
+    /**
+     * Returns the unit being planned.
+     */
+    public Unit getUnit()
+    {
+        return aiUnit;
+    }
+    
+    /**
+     * Returns each enemy's score from AI.scoreReach, ready to be finished by AI.chooseTarget.
+     */
+    public int[] getReachScores()
+    {
+        int[] scores = new int[enemies.size()];
+        for (int i = 0; i < scores.length; i++)
+            scores[i] = distScores[i] + counterScores[i];
+        return scores;
+    }
+    
+    /**
+     * Returns the index of the enemy the unit was settled on attacking (-1 = none).
+     */
+    public int getTarget()
+    {
+        return target;
+    }
+    
+    /**
+     * Returns the grid the unit was settled on moving to (null = where it stands).
+     */
+    public Location getDest()
+    {
+        return dest;
+    }
+    
+    /**
+     * Returns the distance to attack the enemy at the specified index from (-1 = no distance keeps it from countering).
+     */
+    public int getAtkDist(int index)
+    {
+        return atkDist[index];
+    }
+    
+    /**
+     * Returns the weapon to attack the enemy at the specified index with (-1 = it can counter every weapon).
+     */
+    public int getWpnIndex(int index)
+    {
+        return wpnIndex[index];
+    }
+    
+    /**
+     * Works out the distance and weapon to attack each enemy with.
+     * Both depend only on the enemy's primary weapon range, so enemies sharing a range share the work.
+     * Neither changes during the turn: the unit keeps its weapons until it attacks, and enemies do not change theirs.
+     */
+    private void planAttacks()
+    {
+        atkDist = new int[enemies.size()];
+        wpnIndex = new int[enemies.size()];
+        
+        HashMap<NumberSet, Integer> planned = new HashMap<NumberSet, Integer>(); // the first enemy planned against each range
+        for (int i = 0; i < enemies.size(); i++)
+        {
+            Unit enemy = enemies.get(i);
+            Integer same = planned.get(enemy.getWpnAt(0).getAtkRng());
+            if (same == null)
+            {
+                atkDist[i] = AI.optimalAtkDist(aiUnit, enemy);
+                wpnIndex[i] = AI.indexOfOptimalWpn(aiUnit, enemy);
+                planned.put(enemy.getWpnAt(0).getAtkRng(), i);
+            }
+            else
+            {
+                atkDist[i] = atkDist[same];
+                wpnIndex[i] = wpnIndex[same];
+            }
+        }
+    }
+    
+    /**
+     * Plans the units of a side between two indices, splitting the work in half until it is small.
+     */
+    private static class PlanTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L; // tasks are never serialized
+        
+        private ArrayList<Unit> theSide; // the side being planned
+        private ArrayList<Unit> enemies; // every enemy of the side
+        private ThreatMap threats; // where reachability is read from (null = worked out from each unit's range)
+        private AIPlan[] plans; // where each unit's plan is put
+        private int start, end; // the units to plan, from start (inclusive) to end (exclusive)
+        
+        /**
+         * Creates a task planning the units of the specified side from start (inclusive) to end (exclusive).
+         */
+        public PlanTask(ArrayList<Unit> aSide, ArrayList<Unit> theEnemies, ThreatMap theThreats, AIPlan[] thePlans, int aStart, int anEnd)
+        {
+            theSide = aSide;
+            enemies = theEnemies;
+            threats = theThreats;
+            plans = thePlans;
+            start = aStart;
+            end = anEnd;
+        }
+        
+        /**
+         * Plans the units, or splits them between two tasks if there are too many.
+         */
+        protected void compute()
+        {
+            if (end - start <= UNITS_PER_TASK)
+            {
+                for (int i = start; i < end; i++)
+                    if (theSide.get(i).isAlive())
+                        plans[i] = new AIPlan(theSide.get(i), enemies, threats);
+            }
+            else
+            {
+                int middle = (start + end)/2;
+                invokeAll(new PlanTask(theSide, enemies, threats, plans, start, middle), new PlanTask(theSide, enemies, threats, plans, middle, end));
+            }
+        }
+    }
+
+} // END CLASS
@@ -13,6 +13,9 @@ public class Animation extends JComponent
     private static final String IMAGE_TYPE = ".gif"; // format of images
     private static final int DELAY = 33;
     
+    private Unit rightUnit, leftUnit; // the units whose images were last painted
+    private Image rightPic, leftPic; // the images of those units
+    
     /**
      * Paints the animation onto the canvas at the specified coordinates.
      */
@@ -32,14 +35,26 @@ public class Animation extends JComponent
         g2.setColor(Color.white);
         g2.fillRect(xCoord, yCoord, WIDTH, HEIGHT);
         
+        // look up images only when the combatants change
+        if (right != rightUnit)
+        {
+            rightPic = ImageCache.getAnimated(ANIM_DIRECTORY + right.getName() + IMAGE_TYPE);
+            rightUnit = right;
+        }
+        if (left != leftUnit)
+        {
+            leftPic = ImageCache.getAnimated(ANIM_DIRECTORY + left.getName() + IMAGE_TYPE);
+            leftUnit = left;
+        }
+        
         // paint image on right
-        Image pic = Toolkit.getDefaultToolkit().getImage(ANIM_DIRECTORY + right.getName() + IMAGE_TYPE);
+        Image pic = rightPic;
         int x = xCoord + WIDTH - (GAP + pic.getWidth(this));
         int y = yCoord + HEIGHT - (GAP + pic.getHeight(this));
         g2.drawImage(pic, x, y, this);
         
         // paint image on left
-        pic = Toolkit.getDefaultToolkit().getImage(ANIM_DIRECTORY + left.getName() + IMAGE_TYPE);
+        pic = leftPic;
         x = xCoord + GAP;
         y = yCoord + HEIGHT - (GAP + pic.getHeight(this));
         g2.drawImage(pic, x, y, this);
@@ -0,0 +1,239 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Plays many AI-vs-AI battles of one level at once and reports how each side and unit fared.
+ * The level is read once; every battle plays its own copy with its own seed, on every core.
+ * Run with: [level name] [number of battles] [seed] [milliseconds of search per AI turn (0 = greedy AI)]
+ */
+public class BatchSimulator
+{
+    private static final String DEFAULT_LEVEL = "Tester Level"; // the level played if none is given
+    private static final int DEFAULT_BATTLES = 10000; // the number of battles played if none is given
+    private static final int MAX_TURNS = 50; // battles still undecided after this many turns count as draws
+    private static final int BATTLES_PER_TASK = 250; // the number of battles a thread plays before reporting back
+    
+    private BattleEngine level; // the level as read from its file (never played itself)
+    private int battles; // the number of battles to play
+    private long seed; // the seed of the first battle (battle i uses seed + i)
+    
+    private Tally total; // the results of every battle played so far
+    private long elapsed; // the time taken to play the battles, in nanoseconds
+    private Throwable failure; // what stopped the battles from all being played (null = nothing)
+    
+    /**
+     * Creates a simulator that plays the specified number of battles of the specified level,
+     * starting from the specified seed.
+     */
+    public BatchSimulator(String levelName, int aBattles, long aSeed)
+    {
+        level = new BattleEngine(levelName);
+        battles = aBattles;
+        seed = aSeed;
+        total = new Tally(level);
+    }
+    
+    /**
+     * Makes every battle plan its AI turns by searching for the specified number of milliseconds (0 = greedy AI).
+     */
+    public void setSearchBudget(long budget)
+    {
+        level.setPlanner((budget > 0) ? new MonteCarloAI(budget) : null);
+    }
+    
+    /**
+     * Plays every battle, split among as many threads as there are cores.
+     * With the greedy AI the results only depend on the seed, not on how the battles were split.
+     * With a search budget they also depend on how many playouts each search fits into its time,
+     * which changes with the machine and its load, so the same seed need not give the same results.
+     */
+    public void run()
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        
+        Unit.resetRangeCacheStats();
+        long start = System.nanoTime();
+        try
+        {
+            ArrayList<Future<Tally>> results = new ArrayList<Future<Tally>>();
+            for (int first = 0; first < battles; first += BATTLES_PER_TASK)
+            {
+                final int from = first;
+                final int to = Math.min(first + BATTLES_PER_TASK, battles);
+                results.add(pool.submit(new Callable<Tally>()
+                {
+                    public Tally call()
+                    {
+                        return play(from, to);
+                    }
+                }));
+            }
+            
+            for (int i = 0; i < results.size(); i++)
+                total.add(results.get(i).get());
+        }
+        catch (InterruptedException e)
+        {
+            failure = e;
+        }
+        catch (ExecutionException e) // a battle threw, so the rest are not worth waiting for
+        {
+            failure = e.getCause();
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        elapsed = System.nanoTime() - start;
+    }
+    
+    /**
+     * Plays the battles numbered from (inclusive) to (exclusive) and returns their results.
+     */
+    private Tally play(int from, int to)
+    {
+        Tally tally = new Tally(level);
+        for (int i = from; i < to && !Thread.currentThread().isInterrupted(); i++) // stopped once another battle failed
+        {
+            BattleEngine battle = new BattleEngine(level, seed + i);
+            tally.record(battle, battle.playAIBattle(MAX_TURNS));
+        }
+        return tally;
+    }
+    
+    /**
+     * Returns what stopped the battles from all being played, such as an exception thrown while playing one.
+     * Returns null if every battle was played.
+     */
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+    
+    /**
+     * Prints the win rate of each side, the average length of a battle, how often movement ranges were reused,
+     * and how often each unit survived.
+     */
+    public void printReport()
+    {
+        int played = total.played;
+        if (failure != null)
+            System.out.println("Only " + played + " of " + battles + " battles were played: " + failure);
+        System.out.println(played + " battles in " + elapsed/1000000 + " ms ("
+                           + Math.round(played/Math.max(elapsed/1e9, 1e-9)) + " battles/s)");
+        
+        for (int i = 0; i < total.wins.length; i++)
+            System.out.println("Side " + i + " won " + percent(total.wins[i], played));
+        System.out.println("Draws " + percent(total.draws, played));
+        System.out.println("Average length " + (double)total.turns/Math.max(played, 1) + " turns");
+        MonteCarloAI planner = level.getPlanner();
+        if (planner != null)
+            System.out.println("Search " + planner.getPlayouts() + " playouts (" + Math.round(planner.getPlayoutsPerSecond()) + " playouts/s)");
+        long hits = Unit.getRangeCacheHits();
+        long misses = Unit.getRangeCacheMisses();
+        System.out.println("Movement range cache " + hits + " hits, " + misses + " misses (" + (100*hits/Math.max(hits + misses, 1)) + "% reused)");
+        
+        for (int i = 0; i < level.getSideCount(); i++)
+        {
+            ArrayList<Unit> theSide = level.getSide(i);
+            for (int j = 0; j < theSide.size(); j++)
+                System.out.println("  " + i + " " + theSide.get(j).getUnitFileString() + " survived "
+                                   + percent(total.survived[i][j], played));
+        }
+    }
+    
+    /**
+     * Returns the specified count as a percentage of the total, with the count in brackets.
+     */
+    private static String percent(int count, int outOf)
+    {
+        return Math.round(1000.0*count/Math.max(outOf, 1))/10.0 + "% (" + count + ")";
+    }
+    
+    /**
+     * Plays the battles described by the arguments and prints the report.
+     * Exits with status 1 instead if a battle failed, since the totals would leave out the battles not played.
+     */
+    public static void main(String[] args)
+    {
+        String levelName = DEFAULT_LEVEL;
+        int count = DEFAULT_BATTLES;
+        long firstSeed = 0;
+        if (args.length > 0)
+            levelName = args[0];
+        if (args.length > 1)
+            count = Integer.parseInt(args[1]);
+        if (args.length > 2)
+            firstSeed = Long.parseLong(args[2]);
+        
+        BatchSimulator simulator = new BatchSimulator(levelName, count, firstSeed);
+        if (args.length > 3)
+            simulator.setSearchBudget(Long.parseLong(args[3]));
+        simulator.run();
+        if (simulator.getFailure() != null)
+        {
+            System.out.println("Battles stopped: " + simulator.getFailure());
+            System.exit(1);
+        }
+        simulator.printReport();
+    }
+    
+    /**
+     * The results of a group of battles.
+     * Each thread keeps its own, so they are only combined once its battles are done.
+     */
+    private static class Tally
+    {
+        private int played; // the number of battles played
+        private int[] wins; // the number of battles won by each side
+        private int draws; // the number of battles no side won
+        private long turns; // the total number of turns of every battle
+        private int[][] survived; // the number of battles each unit (by side and index) survived
+        
+        /**
+         * Creates an empty tally for battles of the specified level.
+         */
+        public Tally(BattleEngine level)
+        {
+            wins = new int[level.getSideCount()];
+            survived = new int[level.getSideCount()][];
+            for (int i = 0; i < survived.length; i++)
+                survived[i] = new int[level.getSide(i).size()];
+        }
+        
+        /**
+         * Records the result of the specified finished battle, won by the specified side (-1 = draw).
+         */
+        public void record(BattleEngine battle, int victor)
+        {
+            played++;
+            if (victor == -1)
+                draws++;
+            else
+                wins[victor]++;
+            turns += battle.getTurn();
+            
+            for (int i = 0; i < survived.length; i++)
+                for (int j = 0; j < survived[i].length; j++)
+                    if (battle.getSide(i).get(j).isAlive())
+                        survived[i][j]++;
+        }
+        
+        /**
+         * Adds the results of the specified tally to this one.
+         */
+        public void add(Tally other)
+        {
+            played += other.played;
+            draws += other.draws;
+            turns += other.turns;
+            for (int i = 0; i < wins.length; i++)
+                wins[i] += other.wins[i];
+            for (int i = 0; i < survived.length; i++)
+                for (int j = 0; j < survived[i].length; j++)
+                    survived[i][j] += other.survived[i][j];
+        }
+    }
+
+} // END CLASS
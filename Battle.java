@@ -1,4 +1,5 @@
 import java.util.*;
+import java.util.concurrent.*;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
@@ -6,41 +7,41 @@ import java.awt.geom.*;
 import java.io.*;
 
 /**
- * Stores and controls battle sequences, sides, etc.
+ * Displays a battle and lets the player control it.
+ * The rules and state of the battle are kept by a BattleEngine.
  */
 public class Battle extends JComponent implements ActionListener
 {
     //constants
-    private static final String LEVEL_DIRECTORY = "Levels/"; // directory of levels
-    private static final String FILE_TYPE = ".dat"; // file type
-    private static final String NEWLINE = "\n"; // the new line character
-    private static final String CURRENT_FILE = LEVEL_DIRECTORY + "Current Level" + FILE_TYPE; // the file where all saved changes are made
-    private static final String CURRENT_LEVEL_DIRECTORY = "Units/Current Level/";
-    
     private static final String ATTACK_ACTION = "Attack"; // actions displayed on menus
     private static final String ITEM_ACTION = "Item";
     private static final String WAIT_ACTION = "Wait";
     private static final String CANCEL_ACTION = "Cancel";
     private static final String SAVE_ACTION = "Save";
     private static final String END_TURN_ACTION = "End";
+    private static final String DANGER_ACTION = "Danger";
+    private static final String SEARCH_ACTION = "Search";
+    private static final String UNDO_ACTION = "Undo";
+    private static final String REDO_ACTION = "Redo";
     
     private static final int FONT_SIZE = (int)(BattleField.GRID_SIZE*0.4); // the font size of the text
-    private static final int MAX_HIT = 100; // maximum hit percentage
+    
+    private static final Color[] DANGER_SHADES = {new Color(255, 0, 0, 48), new Color(255, 0, 0, 80), new Color(255, 0, 0, 112), new Color(255, 0, 0, 144)};
+                                                  // the shade of a grid one, two, three, or four or more enemies can attack
     private static final int GAP = 15; // gap between objects
     private static final int WINDOW_WIDTH = 11; // width of window in grid units (not including the border)
     private static final int WINDOW_HEIGHT = 11; // height of window in grid units (not including the border
     private static final int DELAY = 500; // delay between each "move" of the AI
     
     //instance fields
-    private ArrayList<ArrayList<Unit>> side; // each team's units, divided
+    private BattleEngine engine; // the sides, turns, and rules of the battle
     private Unit selected; // the currently selected unit
     private Unit target; // the unit decided to be the target
     
     private BattleField field; // the battle field where the battle occurs
+    private BattleFieldView fieldView; // paints the terrain of the battle field
     
     private int originX, originY; // the the grid coordinates of the origin in terms of the upper left corner of the battle field.
-    private int turn; // the number of turns so far
-    private int currentSide; // the current side
     private int state; // the current state of the program
                        // 0 = no unit selected
                        // 1 = unit selected, not yet moved
@@ -60,15 +61,39 @@ public class Battle extends JComponent implements ActionListener
     private StatBox statBox; // displays a unit's information
     private BattleBox battleBox; // displays the stats of the attacker and defender before a battle
     
-    private File battleFile; // the file the battle is based on
-    private String fileName; // the name of the file
+    private Animation anim; // draws the combatants while a battle is in progress
     
     private boolean hasCountered; // if the defender has counter-attacked
+    private boolean dangerVisible; // if the grids the enemy can attack this turn are shaded
+    
+    private Rectangle dirty; // the part of the view changed since it was last repainted (null = nothing)
     
     private Rectangle2D.Double r = new Rectangle2D.Double(-50,-50,40,40);
     
     private javax.swing.Timer timer; // timer that regulates the speed at which the AI moves
     
+    private static ExecutorService aiWorker = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "AI");
+                t.setDaemon(true); // never keeps the game open
+                return t;
+            }
+        }); // plans the AI's turns away from the event thread
+    private Future<?> aiTurn; // the AI turn being planned (null = the player's turn)
+    private ConcurrentLinkedQueue<AICommand> aiCommands; // the actions planned so far that have not been carried out yet
+    private BattleReplay replay; // the replay being shown, one command every DELAY milliseconds (null = a battle being played)
+    
+    private FileSaver.Listener saveReporter = new FileSaver.Listener()
+    {
+        public void saved(FileSaver save, IOException error)
+        {
+            if (error != null)
+                System.out.println("Could not save the battle: " + error);
+        }
+    }; // reports saves that fail (they are written in the background)
+    
     //constructors
     /**
      * PRIMARY CONSTRUCTOR.
@@ -76,37 +101,77 @@ public class Battle extends JComponent implements ActionListener
      */
     public Battle(String aFileName)
     {
-        fileName = aFileName;
-        
-        side = new ArrayList<ArrayList<Unit>>();
-
-        battleFile = new File(LEVEL_DIRECTORY + fileName + FILE_TYPE);
-        
-        readBattleFile();
+        this(new BattleEngine(aFileName));
+    }
+    
+    /**
+     * Creates a battle that carries on the specified one, such as one resumed from a snapshot (see BattleEngine.loadSnapshot).
+     * Every command from now on is recorded into a new journal (see BattleJournal).
+     */
+    public Battle(BattleEngine anEngine)
+    {
+        this(anEngine, null);
+    }
+    
+    /**
+     * Creates a view that shows the specified replay, one command every DELAY milliseconds.
+     * The cursor can still be moved, but the battle cannot be played.
+     */
+    public Battle(BattleReplay aReplay)
+    {
+        this(aReplay.getEngine(), aReplay);
+    }
+    
+    /**
+     * Creates a battle that carries on the specified one, or that shows the specified replay of it (null = none).
+     */
+    private Battle(BattleEngine anEngine, BattleReplay aReplay)
+    {
+        engine = anEngine;
+        replay = aReplay;
+        field = engine.getField();
+        fieldView = new BattleFieldView(field);
         
         String[] actions = {ATTACK_ACTION, ITEM_ACTION, WAIT_ACTION, ""};
         actionMenu = new Menu(actions, FONT_SIZE);
         
-        statBox = new StatBox(FONT_SIZE, (side.get(0)).get(0)); // create with arbitrary unit
-        battleBox = new BattleBox(FONT_SIZE, (side.get(0)).get(0), (side.get(0)).get(0), this);
+        statBox = new StatBox(FONT_SIZE, (engine.getSide(0)).get(0)); // create with arbitrary unit
+        battleBox = new BattleBox(FONT_SIZE, (engine.getSide(0)).get(0), (engine.getSide(0)).get(0), this);
         
         String[] itemsAndWeapons = {}; // dummy array
         itemMenu = new Menu(itemsAndWeapons, FONT_SIZE);
         
-        String[] startMenuOptions = {SAVE_ACTION, END_TURN_ACTION, ""};
-        startMenu = new Menu(startMenuOptions, FONT_SIZE);
+        createStartMenu();
         
         int x = WINDOW_WIDTH/2;
         int y = WINDOW_HEIGHT/2;
         cursor = new Cursor(x, y, field);
         state = 0;
         
-        currentSide = 0;
-        turn = 1;
+        anim = new Animation();
+        markAllDirty();
         
         //Set up timer to drive animation events.
         timer = new javax.swing.Timer(DELAY, this);
         timer.setInitialDelay(DELAY);
+        
+        if (replay != null)
+        {
+            timer.start();
+            return;
+        }
+        
+        engine.setUndoable(true);
+        setAIAttacks(false); // the enemy only moves unless attacks are turned on
+        try
+        {
+            BattleJournal.deleteOldJournals(); // make room for this battle's
+            engine.startJournal(BattleJournal.newFileFor(engine.getFileName()));
+        }
+        catch (IOException e) { System.out.println("Could not start the battle journal: " + e); }
+        
+        if (engine.getCurrentSide() != 0 && engine.getVictorSide() == -1) // resumed during the AI's turn
+            startAITurn();
     }
     
     //methods
@@ -115,18 +180,52 @@ public class Battle extends JComponent implements ActionListener
      */
     public void actionPerformed(ActionEvent e)
     {
-        if (currentSide != 0) // not player side
+        if (replay != null) // showing a replay
         {
+            markAllDirty();
+            if (!replay.step()) // every command has been shown
+                timer.stop();
+        }
+        else if (aiTurn != null) // AI side
+        {
+            markAllDirty();
+            
+            AICommand command = aiCommands.poll();
+            while (command != null) // carry out actions up to the next one that can be seen
+            {
+                engine.perform(command);
+                if (command.hasEffect())
+                    return;
+                command = aiCommands.poll();
+            }
             
+            if (aiTurn.isDone()) // every action has been planned and carried out
+                finishAITurn();
         }
     }
     
+    /**
+     * Returns whether or not the AI is taking its turn (input is ignored until it is done).
+     */
+    public boolean isAITurn()
+    {
+        return aiTurn != null;
+    }
+    
+    /**
+     * Returns whether or not the battle cannot be played now, while the AI takes its turn or a replay is shown.
+     */
+    private boolean ignoresCommands()
+    {
+        return aiTurn != null || replay != null;
+    }
+    
     /**
      * Creates a side with no units in it.
      */
     public void createEmptySide()
     {
-        side.add(new ArrayList<Unit>());
+        engine.createEmptySide();
     }
     
     /**
@@ -134,8 +233,7 @@ public class Battle extends JComponent implements ActionListener
      */
     public void add(Unit newUnit)
     {
-        (side.get(newUnit.getSide())).add(newUnit);
-        field.fill(newUnit.getLoc(), newUnit.getSide());
+        engine.add(newUnit);
     }
     
     /**
@@ -143,7 +241,15 @@ public class Battle extends JComponent implements ActionListener
      */
     public void add(ArrayList<Unit> newSide)
     {
-        side.add(newSide);
+        engine.add(newSide);
+    }
+    
+    /**
+     * Returns the engine that runs the battle.
+     */
+    public BattleEngine getEngine()
+    {
+        return engine;
     }
     
     /**
@@ -159,26 +265,36 @@ public class Battle extends JComponent implements ActionListener
      */
     public void moveCursorUp()
     {
+        if (isAITurn()) // input is ignored while the AI takes its turn
+            return;
+        
         if (!statBox.isHidden()) // more info has been shown but menu is still hidden
         {
             statBox.moveCursorUp();
+            markOverlayDirty();
         }
         else if (!startMenu.isHidden()) // start menu has been shown
         {
             startMenu.moveCursorUp();
+            markOverlayDirty();
         }
         else if (!actionMenu.isHidden())// menu has been shown
         {
             actionMenu.moveCursorUp();
+            markOverlayDirty();
         }
         else if (state == 3 || state == 7) // if the itemMenu has been shown
         {
             itemMenu.moveCursorUp();
+            markOverlayDirty();
         }
         else if ((state == 0 || state == 1 || state == 4)) // if the menu
         {
             if (cursor.moveUp())
+            {
                 originY++;
+                markAllDirty(); // the view scrolls with the cursor
+            }
         }
         
     }
@@ -188,26 +304,36 @@ public class Battle extends JComponent implements ActionListener
      */
     public void moveCursorDown()
     {
+        if (isAITurn()) // input is ignored while the AI takes its turn
+            return;
+        
         if (!statBox.isHidden()) // more info has been shown
         {
             statBox.moveCursorDown();
+            markOverlayDirty();
         }
         else if (!startMenu.isHidden()) // start menu has been shown
         {
             startMenu.moveCursorDown();
+            markOverlayDirty();
         }
         else if (!actionMenu.isHidden())// menu has been shown
         {
             actionMenu.moveCursorDown();
+            markOverlayDirty();
         }
         else if (state == 3 || state == 7) // if the itemMenu has been shown
         {
             itemMenu.moveCursorDown();
+            markOverlayDirty();
         }
         else if ((state == 0 || state == 1 || state == 4)) // if the menu
         {
             if (cursor.moveDown())
+            {
                 originY--;
+                markAllDirty(); // the view scrolls with the cursor
+            }
         }
     }
     
@@ -216,15 +342,20 @@ public class Battle extends JComponent implements ActionListener
      */
     public void moveCursorLeft()
     {
+        if (isAITurn()) // input is ignored while the AI takes its turn
+            return;
+        
         if (!statBox.isHidden()) // more info has been shown
         {
             statBox.switchPanel();
+            markOverlayDirty();
         }
         else if ((state == 0 || state == 1 || state == 4) && startMenu.isHidden()) // if the menu and start menu has not been shown
         {
             if (cursor.moveLeft())
             {
                 originX++;
+                markAllDirty(); // the view scrolls with the cursor
             }
         }
         
@@ -235,14 +366,21 @@ public class Battle extends JComponent implements ActionListener
      */
     public void moveCursorRight()
     {
+        if (isAITurn()) // input is ignored while the AI takes its turn
+            return;
+        
         if (!statBox.isHidden()) // more info has been shown but menu is still hidden
         {
             statBox.switchPanel();
+            markOverlayDirty();
         }
         else if ((state == 0 || state == 1 || state == 4) && startMenu.isHidden()) // if the menu and start menu has not been shown
         {
             if (cursor.moveRight())
+            {
                 originX--;
+                markAllDirty(); // the view scrolls with the cursor
+            }
         }
         
     }
@@ -252,13 +390,41 @@ public class Battle extends JComponent implements ActionListener
      */
     public void select()
     {
+        if (ignoresCommands()) // input is ignored while the AI takes its turn or a replay is shown
+            return;
+        
+        markAllDirty(); // units, ranges and menus may all change
+        
         if (statBox.isHidden()) // more info about a unit has not been displayed
         {
             if (!startMenu.isHidden()) // start menu has been shown
             {
                 if ((startMenu.getSelectedAction()).equals(SAVE_ACTION))
                 {
-                    saveBattleFile();
+                    engine.saveBattleFile(saveReporter);
+                    engine.saveSnapshot(new File(BattleEngine.CURRENT_SNAPSHOT), saveReporter);
+                    startMenu.hideMenu();
+                }
+                else if ((startMenu.getSelectedAction()).equals(DANGER_ACTION))
+                {
+                    dangerVisible = !dangerVisible;
+                    startMenu.hideMenu();
+                }
+                else if ((startMenu.getSelectedAction()).equals(SEARCH_ACTION))
+                {
+                    engine.setPlanner((engine.getPlanner() == null) ? new MonteCarloAI() : null); // switch between searching and greedy AI
+                    startMenu.hideMenu();
+                }
+                else if ((startMenu.getSelectedAction()).equals(UNDO_ACTION))
+                {
+                    if (state == 0) // not in the middle of a unit's action
+                        undoToPlayerTurn();
+                    startMenu.hideMenu();
+                }
+                else if ((startMenu.getSelectedAction()).equals(REDO_ACTION))
+                {
+                    if (state == 0)
+                        redoToPlayerTurn();
                     startMenu.hideMenu();
                 }
                 else if ((startMenu.getSelectedAction()).equals(END_TURN_ACTION))
@@ -299,7 +465,7 @@ public class Battle extends JComponent implements ActionListener
                 else // wait action
                 {
                     state = 0; // reset state
-                    selected.setEnabled(false);
+                    engine.disable(selected);
                     
                     if (turnOfCurrentSideOver())
                         endTurnOfCurrentSide();
@@ -324,10 +490,7 @@ public class Battle extends JComponent implements ActionListener
             }
             else if (state == 5) // when target selected, statistics displayed, battle not confirmed. Confirms and simulates battle (attacker attacking defender
             {
-                simulate(selected, target, true, false); // human unit gains exp, NOT counter attacking
-                
-                if (!target.isAlive()) // if target is dead
-                    field.empty(target.getLoc());
+                engine.attack(selected, target); // human unit gains exp, NOT counter attacking
                 
                 state++;
                 
@@ -335,19 +498,9 @@ public class Battle extends JComponent implements ActionListener
             }
             else if (state == 6) // battle confirmed and "in progress" (defender counter-attacking) Ends battle
             {
-                int dist = Math.abs(target.getX() - selected.getX()) + Math.abs(target.getY() - selected.getY());
-                NumberSet atkRng = target.getWpnAt(0).getAtkRng();
-                boolean inRange = false;
-                for (int i = 0; i < atkRng.size(); i++)
-                    if (dist == atkRng.get(i))
-                        inRange = true;
-                        
-                if (target.isAlive() && inRange) // target is still alive after the attack and attacker is in target's attack range
-                    simulate(target, selected, false, true); // AI unit does not gain exp, IS counter attacking
-                if (!selected.isAlive()) // attacker is dead
-                    field.empty(selected.getLoc());
+                engine.counterAttack(selected, target); // AI unit does not gain exp, IS counter attacking
                     
-                selected.setEnabled(false);
+                engine.disable(selected);
                 
                 if (turnOfCurrentSideOver())
                     endTurnOfCurrentSide();
@@ -378,6 +531,11 @@ public class Battle extends JComponent implements ActionListener
      */
     public void cancel()
     {
+        if (ignoresCommands()) // input is ignored while the AI takes its turn or a replay is shown
+            return;
+        
+        markAllDirty(); // units, ranges and menus may all change
+        
         if (!statBox.isHidden()) // when more info about a unit has been displayed. Hides more info
         {
             statBox.hideBox();
@@ -398,10 +556,9 @@ public class Battle extends JComponent implements ActionListener
             
             actionMenu.hideMenu(); // hide menu
             
-            selected.setLoc(selected.getOldLoc()); // move unit back
+            engine.moveUnit(selected, selected.getOldLoc()); // move unit back
 //             selected.setY(selected.getOldY());
-            
-            updateField(selected);
+
             state--;
         }
         else if (state == 3) // when attack option selected, no weapon selected. Undoes attack action selected
@@ -441,24 +598,22 @@ public class Battle extends JComponent implements ActionListener
      */
     public void moreInfo()
     {
+        if (isAITurn()) // input is ignored while the AI takes its turn
+            return;
+        
+        markOverlayDirty();
+        
         if (!statBox.isHidden() && statBox.getDisplayed() == 1) // more info about a unit has been displayed and the items are currently visible
         {
             statBox.showSelectedItemInfo();
         }
         else if (state != 2 && startMenu.isHidden() && statBox.isHidden()) // action  and start menus have not been shown, more info has not been displayed
         {
-            if (!field.isEmpty(cursor.getLoc()))
+            Unit theUnit = field.getUnitAt(cursor.getLoc());
+            if (theUnit != null && theUnit.isAlive()) // if there is a live unit at the cursor's coordinates
             {
-                for (int i = 0; i < side.size(); i++)
-                {
-                    ArrayList<Unit> theSide = side.get(i);
-                    for (int j = 0; j < theSide.size(); j++)
-                        if (cursor.getLoc().equals((theSide.get(j)).getLoc()) && (theSide.get(j)).isAlive()) // if there is a live unit at the cursor's coordinates
-                        {
-                            statBox.setUnit(theSide.get(j));
-                            statBox.showBox();
-                        }
-                }
+                statBox.setUnit(theUnit);
+                statBox.showBox();
             }
         }
     }
@@ -468,6 +623,11 @@ public class Battle extends JComponent implements ActionListener
      */
     public void startMenu()
     {
+        if (ignoresCommands()) // input is ignored while the AI takes its turn or a replay is shown
+            return;
+        
+        markOverlayDirty();
+        
         if (startMenu.isHidden())
             startMenu.showMenu();
         else
@@ -479,17 +639,15 @@ public class Battle extends JComponent implements ActionListener
      */
     private void selectUnit()
     {
-        if (!field.isEmpty(cursor.getLoc())) // if something is there
+        Unit theUnit = field.getUnitAt(cursor.getLoc());
+        if (theUnit != null) // if something is there
         {
-            ArrayList<Unit> theSide = side.get(currentSide);
-            for (int j = 0; j < theSide.size(); j++)
+            if (theUnit.getSide() == engine.getCurrentSide() && theUnit.isEnabled() && theUnit.isAlive()) // enabled and live unit of the current side
             {
-                if (cursor.getLoc().equals((theSide.get(j)).getLoc()) && (theSide.get(j)).isEnabled() && (theSide.get(j)).isAlive()) // enabled and live 
-                {                                                                                                                    // unit at cursor's 
-                    selected = theSide.get(j);                                                                                       // coordinates
-                    selected.setVisibleRange(true);                                                                                             
-                    state++;
-                }
+                engine.beginAction(); // undone as one, from moving to waiting or attacking
+                selected = theUnit;
+                selected.setVisibleRange(true);
+                state++;
             }
         }
         else
@@ -498,6 +656,27 @@ public class Battle extends JComponent implements ActionListener
         }
     }
     
+    /**
+     * Undoes the player's last action, and every AI turn since, so it is the player's turn again.
+     * If the battle began on the AI's turn and there is no action of the player's left to undo, nothing changes.
+     */
+    private void undoToPlayerTurn()
+    {
+        while (engine.undo() && engine.getCurrentSide() != 0);
+        if (engine.getCurrentSide() != 0) // back to before the first AI turn
+            redoToPlayerTurn();
+    }
+    
+    /**
+     * Redoes the player's last action undone, and the AI turns that followed it, up to the player's next action.
+     */
+    private void redoToPlayerTurn()
+    {
+        while (engine.redo() && engine.getCurrentSide() != 0);
+        if (engine.getVictorSide() != -1)
+            endBattle();
+    }
+    
     /**
      * Moves selected unit and displays action menu afterwards.
      */
@@ -507,11 +686,9 @@ public class Battle extends JComponent implements ActionListener
         {
             if (selected.isInMoveRange(cursor.getLoc()) && field.isEmpty(cursor.getLoc())) // location is within movement range and empty
             {
-                selected.setLoc(cursor.getLoc());
+                engine.moveUnit(selected, cursor.getLoc());
                 selected.setVisibleRange(false);
                 
-                updateField(selected);
-                
                 actionMenu.showMenu();
                 state++;
             }
@@ -538,7 +715,7 @@ public class Battle extends JComponent implements ActionListener
      */
     private void showWpnRng()
     {
-        selected.setPrimaryWpn(itemMenu.getSelectedIndex());
+        engine.setPrimaryWpn(selected, itemMenu.getSelectedIndex());
         itemMenu.hideMenu();
         selected.setAtkRngVisible(true);
         state++;
@@ -549,23 +726,9 @@ public class Battle extends JComponent implements ActionListener
      */
     private void selectTarget()
     {
-        Unit tempTarget = null; // default to null
-        if (!field.isEmpty(cursor.getLoc()))
-        {
-            for (int i = 0; i < side.size(); i++) // check each side
-            {
-                ArrayList<Unit> theSide = side.get(i);
-                for (int j = 0; j < theSide.size(); j++) // check each unit on each side
-                {
-                    if (cursor.getLoc().equals((theSide.get(j)).getLoc()) && (theSide.get(j)).isAlive()) // live unit at the cursor's coordinates
-                    {
-                        tempTarget = theSide.get(j);
-                        if (selected.getSide() == tempTarget.getSide()) // if attacker and target are on the same side
-                            tempTarget = null;
-                    }
-                }
-            }
-        }
+        Unit tempTarget = field.getUnitAt(cursor.getLoc()); // the unit at the cursor's coordinates (null = none)
+        if (tempTarget != null && (!tempTarget.isAlive() || selected.getSide() == tempTarget.getSide())) // dead, or attacker and target are on the same side
+            tempTarget = null;
         if (selected.isInAtkRange(cursor.getLoc()) && tempTarget != null) // there is a unit targeted and it is in attack range
         {
             target = tempTarget;
@@ -583,7 +746,7 @@ public class Battle extends JComponent implements ActionListener
      */
     private void setPrimaryWpn(int index)
     {
-        selected.setPrimaryWpn(index);
+        engine.setPrimaryWpn(selected, index);
                     
         // update menu
         String[] unitWeapons = selected.getWpnsAsString();
@@ -601,11 +764,11 @@ public class Battle extends JComponent implements ActionListener
      */
     private void useItem(int index)
     {
-        selected.useItem(index);
+        engine.useItem(selected, index);
         
         itemMenu.hideMenu();
         
-        selected.setEnabled(false);
+        engine.disable(selected);
         
         if (turnOfCurrentSideOver())
             endTurnOfCurrentSide();
@@ -618,113 +781,32 @@ public class Battle extends JComponent implements ActionListener
      */
     public void simulate(Unit atk, Unit def, boolean withExp, boolean counter)
     {
-        Random rand = new Random();
-        
-        int randNum = rand.nextInt(MAX_HIT);
-        if (randNum < getHitChanceOf(atk, def, counter)) // hit
-        {
-            def.setHP(def.getHP() - getDamageOf(atk, def, counter));
-            
-            if (withExp)
-                if (def.isAlive()) // did not kill
-                    atk.setExp(atk.getExp() + getExpGainOf(atk, def));
-                else
-                    atk.setExp(atk.getExp() + getExpGainOf(atk, def) + 15);
-        }
-        else // miss
-        {
-            if (withExp)
-                atk.setExp(atk.getExp() + 1);
-        }
+        engine.simulate(atk, def, withExp, counter);
     }
     
     /**
-     * Returns the hit chance (out of 100) of the specified attacker to the specified defender.
+     * Returns the exact chances of every way the specified attacker attacking the specified defender could end,
+     * counter attack included.
      */
-    public int getHitChanceOf(Unit atk, Unit def, boolean counter)
+    public CombatForecast forecast(Unit atk, Unit def)
     {
-        // attacker values
-        int sklAtk = atk.getSkl();
-        int wpnWt = atk.getWpnAt(0).getWt();
-        NumberSet atkWpnRng = atk.getWpnAt(0).getAtkRng();
-        
-        // defender values
-        int spdDef = def.getSpd();
-        NumberSet defWpnRng = def.getWpnAt(0).getAtkRng();
-        
-        int hit = MAX_HIT + 2*sklAtk - wpnWt - spdDef;
-        
-        if (hit < 0) // if hit value is invalid
-            hit = 0;
-        else if (hit > MAX_HIT)
-            hit = 100;
-            
-        if ((field.terrainAt(def.getLoc())).equals(BattleField.FOREST_SYMBOL)) // if defender is in a forest
-            hit -= 15;
-        
-        String atkAdv = atk.getWpnAt(0).getAdvantage();
-        String defWpnKind = def.getWpnAt(0).getKind();
-        if (atkAdv.equals(defWpnKind))
-            hit += 10;
-            
-        String atkWkn = atk.getWpnAt(0).getWeakness();
-        if (atkWkn.equals(defWpnKind))
-            hit -= 10;
-        
-        if (counter)
-        {
-            if (!atkWpnRng.overlaps(defWpnRng))
-                hit = 0;
-        }
-        
-        return hit;
+        return engine.forecast(atk, def);
     }
     
     /**
-     * Returns the damage done from the specified attacker to the specified defender.
+     * Returns the hit chance (out of 100) of the specified attacker to the specified defender.
      */
-    public int getDamageOf(Unit atk, Unit def, boolean counter)
+    public int getHitChanceOf(Unit atk, Unit def, boolean counter)
     {
-        // attacker values
-        int strAtk = atk.getStr();
-        int wpnMt = atk.getWpnAt(0).getMt();
-        NumberSet atkWpnRng = atk.getWpnAt(0).getAtkRng();
-        
-        // defender values
-        int defDef = def.getDef();
-        NumberSet defWpnRng = def.getWpnAt(0).getAtkRng();
-        
-        int dmg = strAtk + wpnMt - defDef;
-        if (dmg < 0) // if damage is negative
-            dmg = 0;
-        
-        if (counter)
-        {
-//             boolean inAtkRng = false; // if the unit's weapon range won't reach that far (for counter attacks)
-//             for (int i = 0; i < atkWpnRng.length; i++)
-//                 for (int j = 0; j < defWpnRng.length; j++)
-//                     if (atkWpnRng[i] == defWpnRng[j])
-//                         inAtkRng = true;
-            if (!atkWpnRng.overlaps(defWpnRng))
-                dmg = 0;
-        }
-            
-        return dmg;
+        return engine.getHitChanceOf(atk, def, counter);
     }
     
     /**
-     * Returns the exp the attacker gains from fighting the defender.
+     * Returns the damage done from the specified attacker to the specified defender.
      */
-    private int getExpGainOf(Unit atk, Unit def)
+    public int getDamageOf(Unit atk, Unit def, boolean counter)
     {
-        // attacker values
-        int lvlAtk = atk.getLevel();
-        int wpnWt = atk.getWpnAt(0).getWt();
-        
-        // defender values
-        int lvlDef = def.getLevel();
-        
-        return 10 - (lvlAtk - lvlDef) + wpnWt;
+        return engine.getDamageOf(atk, def, counter);
     }
     
     /**
@@ -732,19 +814,10 @@ public class Battle extends JComponent implements ActionListener
      */
     private boolean turnOfCurrentSideOver()
     {
-        boolean over = true;
-        
-        for (int i = 0; i < (side.get(currentSide)).size(); i++)
-            if (((side.get(currentSide)).get(i)).isEnabled() && ((side.get(currentSide)).get(i)).isAlive())
-                over = false;
-                
-        if (getVictorSide() != -1)
-        {
+        if (engine.getVictorSide() != -1)
             state = -1; // nothing more can be done
-            over = true;
-        }
         
-        return over;
+        return engine.isTurnOver();
     }
     
     /**
@@ -754,217 +827,99 @@ public class Battle extends JComponent implements ActionListener
      */
     private void endTurnOfCurrentSide()
     {
-        for (int i = 0; i < (side.get(currentSide)).size(); i++)
-            ((side.get(currentSide)).get(i)).setEnabled(true);
-        
-        switchSide();
+        engine.endTurn();
         state = 0;
         
-        if (currentSide != 0) // not player side
-        {
-            executeAI(currentSide);
-            timer.start();
-        }
+        if (engine.getCurrentSide() != 0 && engine.getVictorSide() == -1) // not player side
+            startAITurn();
+        else if (engine.getVictorSide() != -1)
+            endBattle();
     }
     
     /**
-     * Returns if the specified side has any survivors or not.
+     * Plans the current side's turn on a worker thread, using a copy of the battle in its current state.
+     * Each action is carried out on the battle itself by the timer, one every DELAY milliseconds, as soon as it is planned.
      */
-    private boolean hasSurvivors(int aSide)
+    private void startAITurn()
     {
-        boolean survivors = false; // assume opposite
+        final BattleEngine copy = new BattleEngine(engine, engine.getRandom().getState()); // rolls the same numbers as the battle
+        final int aiSide = engine.getCurrentSide();
+        final ConcurrentLinkedQueue<AICommand> commands = new ConcurrentLinkedQueue<AICommand>();
         
-        ArrayList<Unit> theSide = side.get(aSide);
-        for (int i = 0; i < theSide.size(); i++) // for each unit
-            if (theSide.get(i).isAlive()) // if a unit is found to be alive
-                survivors = true;
-                
-        return survivors;
-    }
-    
-    /**
-     * Returns the side that won the battle.
-     * Returns -1 if the battle is not finished yet.
-     */
-    public int getVictorSide()
-    {
-        int winningSide = -1;
-        for (int i = 0; i < side.size(); i++) // for each side
+        engine.beginAction(); // the whole turn is undone as one
+        aiCommands = commands;
+        aiTurn = aiWorker.submit(new Runnable()
         {
-            if (hasSurvivors(i)) // the side is alive
+            public void run()
             {
-                boolean othersDead = true;
-                for (int j = 0; j < side.size(); j++)
-                    if (hasSurvivors(j) && j != i)
-                        othersDead = false;
-                        
-                if (othersDead) // if all other sides are dead
-                    winningSide = i;
+                copy.executeAI(aiSide, commands);
             }
-        }
-        return winningSide;
-    }
-    /**
-     * Updates the field about the location of units.
-     */
-    private void updateField(Unit unit)
-    {
-        field.empty(unit.getOldLoc());
-        field.fill(unit.getLoc(), unit.getSide());
+        });
+        timer.start();
     }
     
     /**
-     * Switches the current side to the next one.
-     * Increments turn count by one if all sides have gone once.
+     * Ends the AI's turn once all its actions have been carried out, starting the next side's turn.
      */
-    private void switchSide()
+    private void finishAITurn()
     {
-        currentSide++;
-        
-        if (getVictorSide() == -1) // battle not over
+        try
         {
-            boolean done = false;
-            do
-            {
-                if (currentSide >= side.size())
-                {
-                    currentSide = 0;
-                    turn++;
-                }
-                if (hasSurvivors(currentSide))
-                {
-                    done = true;
-                }
-                else
-                {
-                    currentSide++;
-                }
-            }
-            while (!done);
+            aiTurn.get(); // report anything that went wrong while planning
         }
+        catch (InterruptedException e) { System.out.println(e); }
+        catch (ExecutionException e) { e.getCause().printStackTrace(); }
+        
+        timer.stop();
+        aiTurn = null;
+        aiCommands = null;
+        
+        engine.endTurn();
+        if (engine.getCurrentSide() != 0 && engine.getVictorSide() == -1) // next side is also the AI's
+            startAITurn();
+        else if (engine.getVictorSide() != -1)
+            endBattle();
+        else // the player's turn
+            engine.saveSnapshot(new File(BattleEngine.CURRENT_SNAPSHOT), saveReporter); // checkpoint, so the battle can be resumed from here
     }
     
     /**
-     * Acts all the units on the side found at the specified index.
+     * Stops the battle once a side has won, closing its journal.
      */
-    private void executeAI(int index)
+    private void endBattle()
     {
-        // find the AI side
-        ArrayList<Unit> theSide = side.get(index);
-        
-        // find the enemy side(s)
-        ArrayList<ArrayList<Unit>> enemySides = new ArrayList<ArrayList<Unit>>();
-        for (int i = 0; i < side.size(); i++)
-            if (i != index)
-                enemySides.add(side.get(i));
-                
-        // make each unit act
-        for (Unit aiUnit : theSide) // for each unit on the side
-        {
-            selected = aiUnit;
-            Unit theTarget = AI.getTarget(aiUnit, enemySides);
-            if (theTarget != null)
-            {
-                int dist = AI.optimalAtkDist(aiUnit, theTarget);
-                if (dist < 0) // no optimal distance
-                    dist = 1;
-                moveToClosestLocation(aiUnit, theTarget, AI.optimalAtkDist(aiUnit, theTarget)); // move the AI unit to the location closest to its target that is empty
-            }
-        }
+        state = -1; // nothing more can be done
+        engine.stopJournal();
     }
     
     /**
-     * Moves the specified unit to an empty grid as close to the specified distance from the target
-     * as possible while still limited to its movement range.
-     * Should only be called by the executeAI method.
+     * Sets whether or not the enemy's units attack once they have moved. They only move unless this is turned on,
+     * as the game has always played. The start menu only offers Search while they attack, since the planner is not used otherwise.
      */
-    private void moveToClosestLocation(Unit theUnit, Unit theTarget, int dist)
+    public void setAIAttacks(boolean newVal)
     {
-        // default the locations
-        Location targLoc = theTarget.getLoc();
-        Location locAbove = null;
-        Location locBelow = null;
-        Location locLeft = null;
-        Location locRight = null;
-        
-        // initialize locations to valid ones if possible
-        if (field.inBounds(targLoc.x() - 1, targLoc.y())) // try location to the left if the method that called it did not do the same
-            locLeft = nearestEmptyLocation(theUnit, targLoc.x() - dist, targLoc.y(), "left");
-        if (field.inBounds(targLoc.x() + 1, targLoc.y())) // try location to the right if the method that called it did not do the same
-            locRight = nearestEmptyLocation(theUnit, targLoc.x() + dist, targLoc.y(), "right");
-        if (field.inBounds(targLoc.x(), targLoc.y() - 1)) // try location above if the method that called it did not do the same
-            locAbove = nearestEmptyLocation(theUnit, targLoc.x(), targLoc.y() - dist, "above");
-        if (field.inBounds(targLoc.x(), targLoc.y() + 1)) // try location below if the method that called it did not do the same
-            locBelow = nearestEmptyLocation(theUnit, targLoc.x(), targLoc.y() + dist, "below");
-            
-        Location loc = locAbove;
-        if (BattleField.distanceBetween(targLoc, loc) > BattleField.distanceBetween(targLoc, locBelow))
-            loc = locBelow;
-        if (BattleField.distanceBetween(targLoc, loc) > BattleField.distanceBetween(targLoc, locLeft))
-            loc = locLeft;
-        if (BattleField.distanceBetween(targLoc, loc) > BattleField.distanceBetween(targLoc, locRight))
-            loc = locRight;
-            
-        if (!loc.equals(new Location(-1,-1))) // valid coordinates are returned
-        {
-            theUnit.setLoc(loc);
-            updateField(theUnit);
-        }
+        engine.setAIAttacks(newVal);
+        createStartMenu();
     }
     
     /**
-     * Returns the empty location nearest the specified one while still limited to the unit's movement range.
-     * Returns a location of (-1,-1) if there is no empty location that is in the unit's movement range.
+     * Creates the start menu, offering Search (switching between the searching and greedy AI) only if the enemy's units attack.
      */
-    private Location nearestEmptyLocation(Unit theUnit, int x, int y, String dir)
+    private void createStartMenu()
     {
-        Location targLoc = new Location(x,y);
-        if (field.isEmpty(targLoc) && theUnit.isInMoveRange(targLoc))
-        {
-            return targLoc;
-        }
-        else if (theUnit.isInMoveRange(targLoc))
-        {
-            // default the locations
-            Location locAbove = new Location(-1,-1);
-            Location locBelow = new Location(-1,-1);
-            Location locLeft = new Location(-1,-1);
-            Location locRight = new Location(-1,-1);
-            
-            // initialize locations to valid ones if possible
-            if (field.inBounds(x - 1, y) && !dir.equals("right")) // try location to the left if the method that called it did not do the same
-                locLeft = nearestEmptyLocation(theUnit, x - 1, y, "left");
-            if (field.inBounds(x + 1, y) && !dir.equals("left")) // try location to the right if the method that called it did not do the same
-                locRight = nearestEmptyLocation(theUnit, x + 1, y, "right");
-            if (field.inBounds(x, y - 1) && !dir.equals("below")) // try location above if the method that called it did not do the same
-                locAbove = nearestEmptyLocation(theUnit, x, y - 1, "above");
-            if (field.inBounds(x, y + 1) && !dir.equals("above")) // try location below if the method that called it did not do the same
-                locBelow = nearestEmptyLocation(theUnit, x, y + 1, "below");
-                
-            Location loc = locAbove;
-            if (BattleField.distanceBetween(targLoc, loc) > BattleField.distanceBetween(targLoc, locBelow))
-                loc = locBelow;
-            if (BattleField.distanceBetween(targLoc, loc) > BattleField.distanceBetween(targLoc, locLeft))
-                loc = locLeft;
-            if (BattleField.distanceBetween(targLoc, loc) > BattleField.distanceBetween(targLoc, locRight))
-                loc = locRight;
-                
-            return loc; // returns the nearest empty location
-        }
+        if (engine.getAIAttacks())
+            startMenu = new Menu(new String[] {SAVE_ACTION, DANGER_ACTION, SEARCH_ACTION, UNDO_ACTION, REDO_ACTION, END_TURN_ACTION, ""}, FONT_SIZE);
         else
-        {
-            return new Location(-1,-1);
-        }
+            startMenu = new Menu(new String[] {SAVE_ACTION, DANGER_ACTION, UNDO_ACTION, REDO_ACTION, END_TURN_ACTION, ""}, FONT_SIZE);
     }
     
     /**
-     * Returns an arraylist of locations that the specified unit could possible attack from using the specified weapon.
+     * Returns the side that won the battle.
+     * Returns -1 if the battle is not finished yet.
      */
-    private ArrayList<Location> getAtkLoc(Unit theUnit, int wpnIndex, Location targ)
+    public int getVictorSide()
     {
-        ArrayList<Location> loc = new ArrayList<Location>();
-        
-        return loc;
+        return engine.getVictorSide();
     }
     
     /**
@@ -976,126 +931,80 @@ public class Battle extends JComponent implements ActionListener
     }
     
     /**
-     * Reads the battle file and set fields accordingly.
+     * Marks the specified rectangle of the view (in view coordinates) as needing to be repainted.
      */
-    private void readBattleFile()
+    private void markDirty(Rectangle rect)
     {
-        try
-        {
-            Scanner in = new Scanner(new FileInputStream(battleFile));
-            
-            field = new BattleField(nextItemInFile(in));
-            
-            String[][] unitInfo = readWholeFile(in);
-            
-            for (int i = 0; i < unitInfo.length; i++)
-            {
-                int unitSide = Integer.parseInt(unitInfo[i][0]);
-                String unitName = unitInfo[i][1];
-                int unitX = Integer.parseInt(unitInfo[i][2]);
-                int unitY = Integer.parseInt(unitInfo[i][3]);
-                
-                if (unitName.startsWith("*"))
-                    unitName = fileName + "/" + unitName.substring(1, unitName.length());
-                    
-                if (unitSide + 1 != side.size()) // if the side the unit is on has not been created yet
-                    side.add(new ArrayList<Unit>());
-                    
-                (side.get(unitSide)).add(new Unit(unitX, unitY, unitName, unitSide, field));
-                field.fill(new Location(unitX, unitY), unitSide);
-            }
-        }
-        catch (IOException e) {}
+        if (dirty == null)
+            dirty = new Rectangle(rect);
+        else
+            dirty.add(rect);
     }
     
     /**
-     * Reads the file using the specified scanner and returns each seperate token in a string[][].
+     * Marks the whole view as needing to be repainted.
      */
-    private String[][] readWholeFile(Scanner in)
+    private void markAllDirty()
     {
-        final int tokenPerLine = 4;
-        ArrayList<String[]> tokens = new ArrayList<String[]>();
-        
-        for (int i = 0; in.hasNextLine(); i++)
-        {
-            tokens.add(new String[tokenPerLine]); // add new line to arraylist
-            for (int j = 0; j < tokenPerLine; j++)
-            {
-                if (in.hasNext())
-                    tokens.get(i)[j] = in.next();
-            }
-        }
-        
-        // copy arraylist into 2d string array
-        String[][] tokensReturn = new String[tokens.size()][tokenPerLine];
-        for (int i = 0; i < tokens.size(); i++)
-        {
-            for (int j = 0; j < tokenPerLine; j++)
-            {
-                tokensReturn[i][j] = tokens.get(i)[j];
-            }
-        }
-        
-        return tokensReturn;
+        int width = Math.max(getWidth(), (WINDOW_WIDTH + 1)*BattleField.GRID_SIZE);
+        int height = Math.max(getHeight(), (WINDOW_HEIGHT + 1)*BattleField.GRID_SIZE);
+        markDirty(new Rectangle(0, 0, width, height));
     }
     
     /**
-     * Returns the next item/weapon in the file with the specified scanner.
+     * Marks the part of the view the menus and boxes are painted on as needing to be repainted.
+     * They are all painted right of and below the same point near the center of the window.
      */
-    private String nextItemInFile(Scanner in)
+    private void markOverlayDirty()
     {
-        String s;
-        do
-        {
-            s = in.nextLine();
-        }
-        while (s.equals(""));
-
-        String[] sArray = s.split(":");
-        return sArray[1].trim();
+        int x = ((WINDOW_WIDTH - 4)/2 - 2)*BattleField.GRID_SIZE; // the battle box is painted two grids left of the others
+        int y = ((WINDOW_HEIGHT - 5)/2 - 1)*BattleField.GRID_SIZE;
+        int width = Math.max(getWidth(), (WINDOW_WIDTH + 1)*BattleField.GRID_SIZE);
+        int height = Math.max(getHeight(), (WINDOW_HEIGHT + 1)*BattleField.GRID_SIZE);
+        markDirty(new Rectangle(x, y, width - x, height - y));
     }
     
     /**
-     * Saves all the data into the CURRENT_FILE file.
-     * Does not change any specific level data from missions.
-     * Saves the status of units on side "0" to original files.
-     * Saves status of all other units into file in a folder
+     * Repaints only the part of the view that changed since the last call, if any.
+     * Should be called regularly (e.g. by a timer) instead of repainting everything.
      */
-    private void saveBattleFile()
+    public void repaintDirty()
     {
-        // save unit files
-        for (int i = 0; i < side.size(); i++) // for each side
+        if (state == 6) // the combatants' animations play on their own, a frame at a time
+            markOverlayDirty();
+        
+        if (dirty != null)
         {
-            ArrayList<Unit> theSide = side.get(i);
-            if (i == 0) // side "0"
-                for (int j = 0; j < theSide.size(); j++) // for each unit
-                    theSide.get(j).saveUnitFile(); // save the changes to original file
-            else // all other sides
-                 for (int j = 0; j < theSide.size(); j++) // for each unit
-                    theSide.get(j).saveUnitFile(new File(CURRENT_LEVEL_DIRECTORY + theSide.get(j).getUnitFileString() + FILE_TYPE)); // save the changes to file in current file 
+            repaint(dirty);
+            dirty = null;
         }
-        // save battle files
-        try
+    }
+    
+    /**
+     * Shades the specified grids (null = all) that units not on the player's side can attack this turn,
+     * darker the more of them can.
+     */
+    private void paintDangerZone(Graphics g, Rectangle visible)
+    {
+        ThreatMap threats = engine.getThreatMap();
+        threats.update();
+        
+        Rectangle grids = new Rectangle(0, 0, field.getTotalWidth(), field.getTotalHeight());
+        if (visible != null)
+            grids = grids.intersection(visible);
+        
+        for (int x = grids.x; x < grids.x + grids.width; x++)
         {
-            PrintStream out = new PrintStream(new File(CURRENT_FILE));
-            
-            out.print(
-            "Battlefield: " + field.getFieldFile() + NEWLINE +
-            NEWLINE);
-            
-            for (int i = 0; i < side.size(); i++) // for each side
+            for (int y = grids.y; y < grids.y + grids.height; y++)
             {
-                ArrayList<Unit> theSide = side.get(i);
-                for (int j = 0; j < theSide.size(); j++) // for each unit
+                int count = threats.getThreatCount(0, x, y); // the player is side 0
+                if (count > 0)
                 {
-                    Unit theUnit = theSide.get(j);
-                    out.print(theUnit.getSide() + " " + theUnit.getUnitFileString() + " " + theUnit.getX() + " " + theUnit.getY());
-                    if ((i != side.size() - 1) || (j != theSide.size() - 1))
-                        out.print(NEWLINE);
+                    g.setColor(DANGER_SHADES[Math.min(count, DANGER_SHADES.length) - 1]);
+                    g.fillRect(x*BattleField.GRID_SIZE, y*BattleField.GRID_SIZE, BattleField.GRID_SIZE, BattleField.GRID_SIZE);
                 }
             }
         }
-        catch (IOException e) {}
     }
     
     /**
@@ -1113,14 +1022,20 @@ public class Battle extends JComponent implements ActionListener
             int xCoord = Math.round((float)BattleField.getXOf(new Location(x,y))); // actual coordinates
             int yCoord = Math.round((float)BattleField.getYOf(new Location(x,y)));
             
-            field.paintComponent(g); // paint field
+            fieldView.paintComponent(g); // paint field (only the part inside the clip)
+            
+            Rectangle visible = BattleField.gridsWithin(g.getClipBounds()); // the grids that can be seen
+            
+            if (dangerVisible)
+                paintDangerZone(g, visible);
             
-            for (int i = 0; i < side.size(); i++) // paint all sides except current one
+            int currentSide = engine.getCurrentSide();
+            for (int i = 0; i < engine.getSideCount(); i++) // paint all sides except current one
                 if (i != currentSide)
-                    for (int j = 0; j < (side.get(i)).size(); j++)
-                        ((side.get(i)).get(j)).paintComponent(g);
-            for (int i = 0; i < (side.get(currentSide)).size(); i++) // paint current side
-                ((side.get(currentSide)).get(i)).paintComponent(g);
+                    for (int j = 0; j < (engine.getSide(i)).size(); j++)
+                        ((engine.getSide(i)).get(j)).paintComponent(g, visible);
+            for (int i = 0; i < (engine.getSide(currentSide)).size(); i++) // paint current side
+                ((engine.getSide(currentSide)).get(i)).paintComponent(g, visible);
                 
             cursor.paintComponent(g); // paint cursor
     
@@ -1136,7 +1051,6 @@ public class Battle extends JComponent implements ActionListener
             
             if (state == 6) // battle in progress
             {
-                Animation anim = new Animation();
                 anim.paintComponent(xCoord - 2*BattleField.GRID_SIZE, yCoord, FONT_SIZE, selected, target, g);
             }
             
@@ -12,9 +12,10 @@ public class BattleBox extends JComponent
      
     private static final Color[] SIDE_COLOR = {Color.blue, Color.red, Color.green, Color.yellow};
     
-    private static final int STAT_NUM = 5; // number of stats to be displayed
+    private static final int STAT_NUM = 6; // number of stats to be displayed
     
     private Unit[] units; // the units the statbox is assigned to
+    private CombatForecast forecast; // how the fight between the units could end
     
     private boolean hidden; // if the statbox is hidden or not
     
@@ -48,12 +49,13 @@ public class BattleBox extends JComponent
     }
     
     /**
-     * Sets both units.
+     * Sets both units, the first attacking the second with the weapon it wields now.
      */
     public void setUnits(Unit unit1, Unit unit2)
     {
         units[0] = unit1;
         units[1] = unit2;
+        forecast = battle.forecast(unit1, unit2);
     }
     
     /**
@@ -97,11 +99,9 @@ public class BattleBox extends JComponent
                 boolean counter = (i == 1);
                 
                 Unit theUnit = units[i];
-                Unit otherUnit;
-                if (i == 0)
-                    otherUnit = units[1];
-                else
-                    otherUnit = units[0];
+                int dmg = counter ? forecast.getCounterDamage() : forecast.getDamage();
+                int hit = counter ? forecast.getCounterHitChance() : forecast.getHitChance();
+                int kill = counter ? forecast.getCounterKillChance() : forecast.getKillChance(); // chance of killing the other unit
                     
                 int x = Math.round((float)(width/2)*i) + xCoord;
                 g2.setColor(SIDE_COLOR[theUnit.getSide()]);
@@ -109,8 +109,8 @@ public class BattleBox extends JComponent
                 g2.fillRoundRect(x, yCoord, Math.round((float)(width/2.0)), Math.round((float)height), gap, gap);
                 
                 g2.setFont(new Font("", Font.PLAIN, fontSize));
-                String[] labels = {theUnit.getName(), "HP: " + theUnit.getHP(), "Dmg: " + battle.getDamageOf(theUnit, otherUnit, counter), "Hit: " + battle.getHitChanceOf(theUnit, otherUnit, counter), 
-                                        "Wpn: " + theUnit.getWpnAt(0).getName()};
+                String[] labels = {theUnit.getName(), "HP: " + theUnit.getHP(), "Dmg: " + dmg, "Hit: " + hit, 
+                                        "Kill: " + CombatForecast.toPercent(kill) + "%", "Wpn: " + theUnit.getWpnAt(0).getName()};
                 
                 g2.setColor(Color.white);
                 
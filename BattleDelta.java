@@ -0,0 +1,244 @@
+import java.util.*;
+
+/**
+ * The changes one command made to a battle, kept so the command can be undone and redone (see BattleEngine.undo).
+ * Only what changed is kept: for each number of a unit that changed (see Unit.getValues), an entry of the unit's id
+ * (side and index), which number, and its old and new values; the weapons and items of units whose weapons or items changed;
+ * and the turn, current side and state of the random numbers before and after.
+ * Undoing or redoing a command takes time in proportion to the entries, not to the size of the battle.
+ */
+public class BattleDelta
+{
+    private static final int ENTRY_SIZE = 4; // the numbers in each entry: unit id, which number, old value, new value
+    private static final int HELD = -1; // the number of an entry for a unit's weapons and items (old and new values index held)
+    
+    private int[] entries = new int[4*ENTRY_SIZE]; // the entries, grouped by unit
+    private int size; // the number of numbers used in entries
+    private ArrayList<Held> held = new ArrayList<Held>(); // the weapons and items of the units whose weapons or items changed
+    
+    private int oldTurn, newTurn; // the number of turns before and after
+    private int oldSide, newSide; // the current side before and after
+    private long oldRand, newRand; // the state of the random numbers before and after
+    private boolean startsAction; // if the command is the first of an action (undone and redone as one, see BattleEngine.beginAction)
+    
+    private ArrayList<Unit> touched = new ArrayList<Unit>(); // the units the command may change (until finished)
+    private int[] ids = new int[2]; // the id of each unit touched
+    private int[] before = new int[2*Unit.VALUE_COUNT]; // the numbers of each unit touched, before the command
+    private ArrayList<Held> heldBefore = new ArrayList<Held>(); // the weapons and items of each unit touched, before the command
+    
+    /**
+     * Starts the changes of a command carried out on a battle in the specified state.
+     */
+    public BattleDelta(int aTurn, int aSide, long aRand)
+    {
+        oldTurn = aTurn;
+        oldSide = aSide;
+        oldRand = aRand;
+    }
+    
+    /**
+     * Returns the id of the unit at the specified index of the specified side.
+     */
+    public static int idOf(int side, int index)
+    {
+        return (side << 16) | index;
+    }
+    
+    /**
+     * Notes the specified unit, at the specified index of its side, as one the command may change.
+     * Must be called before the command changes it, and at most once per unit.
+     */
+    public void touch(Unit unit, int index)
+    {
+        int n = touched.size();
+        if (ids.length == n)
+        {
+            ids = Arrays.copyOf(ids, 2*n);
+            before = Arrays.copyOf(before, 2*n*Unit.VALUE_COUNT);
+        }
+        touched.add(unit);
+        ids[n] = idOf(unit.getSide(), index);
+        unit.getValues(before, n*Unit.VALUE_COUNT);
+        heldBefore.add(new Held(unit));
+    }
+    
+    /**
+     * Finishes the changes once the command is done, leaving the battle in the specified state:
+     * keeps an entry for each number of each unit touched that changed, and forgets the rest.
+     */
+    public void finish(int aTurn, int aSide, long aRand)
+    {
+        newTurn = aTurn;
+        newSide = aSide;
+        newRand = aRand;
+        
+        int[] after = new int[Unit.VALUE_COUNT];
+        for (int i = 0; i < touched.size(); i++)
+        {
+            Unit unit = touched.get(i);
+            unit.getValues(after, 0);
+            for (int v = 0; v < Unit.VALUE_COUNT; v++)
+                if (after[v] != before[i*Unit.VALUE_COUNT + v])
+                    add(ids[i], v, before[i*Unit.VALUE_COUNT + v], after[v]);
+            
+            Held heldAfter = new Held(unit);
+            if (!heldAfter.sameAs(heldBefore.get(i)))
+            {
+                add(ids[i], HELD, held.size(), held.size() + 1);
+                held.add(heldBefore.get(i));
+                held.add(heldAfter);
+            }
+        }
+        
+        touched = null;
+        ids = null;
+        before = null;
+        heldBefore = null;
+    }
+    
+    /**
+     * Adds an entry for the specified number of the unit with the specified id.
+     */
+    private void add(int id, int which, int oldValue, int newValue)
+    {
+        if (size == entries.length)
+            entries = Arrays.copyOf(entries, 2*size);
+        entries[size++] = id;
+        entries[size++] = which;
+        entries[size++] = oldValue;
+        entries[size++] = newValue;
+    }
+    
+    /**
+     * Returns whether or not the command changed nothing.
+     */
+    public boolean isEmpty()
+    {
+        return size == 0 && oldTurn == newTurn && oldSide == newSide && oldRand == newRand;
+    }
+    
+    /**
+     * Returns the number of entries kept.
+     */
+    public int getEntryCount()
+    {
+        return size/ENTRY_SIZE;
+    }
+    
+    /**
+     * Returns whether or not the command is the first of an action.
+     */
+    public boolean startsAction()
+    {
+        return startsAction;
+    }
+    
+    /**
+     * Sets whether or not the command is the first of an action.
+     */
+    public void setStartsAction(boolean newVal)
+    {
+        startsAction = newVal;
+    }
+    
+    /**
+     * Returns the number of turns before (if undone) or after (if redone) the command.
+     */
+    public int getTurn(boolean undone)
+    {
+        return undone ? oldTurn : newTurn;
+    }
+    
+    /**
+     * Returns the current side before (if undone) or after (if redone) the command.
+     */
+    public int getSide(boolean undone)
+    {
+        return undone ? oldSide : newSide;
+    }
+    
+    /**
+     * Returns the state of the random numbers before (if undone) or after (if redone) the command.
+     */
+    public long getRandState(boolean undone)
+    {
+        return undone ? oldRand : newRand;
+    }
+    
+    /**
+     * Puts every unit the command changed back as it was before the command (if undoing) or after it (if redoing),
+     * emptying and filling the grids of the specified battlefield for the units that moved, fell or came back.
+     */
+    public void apply(ArrayList<ArrayList<Unit>> sides, BattleField field, boolean undo)
+    {
+        int i = 0;
+        while (i < size)
+        {
+            int id = entries[i];
+            Unit unit = sides.get(id >> 16).get(id & 0xFFFF);
+            boolean wasOnField = unit.isAlive();
+            Location was = unit.getLoc();
+            
+            for (; i < size && entries[i] == id; i += ENTRY_SIZE)
+            {
+                int value = entries[i + (undo ? 2 : 3)];
+                if (entries[i + 1] == HELD)
+                    held.get(value).restore(unit);
+                else
+                    unit.restoreValue(entries[i + 1], value);
+            }
+            
+            boolean moved = !unit.getLoc().equals(was);
+            if (wasOnField && (moved || !unit.isAlive()))
+                field.empty(was);
+            if (unit.isAlive() && (moved || !wasOnField))
+                field.fill(unit);
+        }
+    }
+    
+    /**
+     * The weapons and items a unit held at one time, with the uses left of each item.
+     */
+    private static class Held
+    {
+        private Weapon[] wpns; // the weapons, in order
+        private Item[] items; // the items, in order
+        private int[] usesLeft; // the uses left of each item
+        
+        /**
+         * Notes the weapons and items the specified unit holds now.
+         */
+        public Held(Unit unit)
+        {
+            wpns = unit.getWpns().clone();
+            items = unit.getItems().clone();
+            usesLeft = new int[items.length];
+            for (int i = 0; i < items.length; i++)
+                usesLeft[i] = (items[i] == null) ? 0 : items[i].getUsesLeft();
+        }
+        
+        /**
+         * Returns whether or not the specified weapons and items are the same ones as these, with the same uses left.
+         */
+        public boolean sameAs(Held other)
+        {
+            for (int i = 0; i < wpns.length; i++)
+                if (wpns[i] != other.wpns[i])
+                    return false;
+            for (int i = 0; i < items.length; i++)
+                if (items[i] != other.items[i] || usesLeft[i] != other.usesLeft[i])
+                    return false;
+            return true;
+        }
+        
+        /**
+         * Gives the specified unit these weapons and items back.
+         */
+        public void restore(Unit unit)
+        {
+            unit.restoreWpns(wpns);
+            unit.restoreItems(items, usesLeft);
+        }
+    }
+
+} // END CLASS
@@ -0,0 +1,1493 @@
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Stores and controls the state of a battle: the sides, turns, movement, combat, and victory.
+ * Has no display of its own, so battles can be run without a screen (see Battle for the display).
+ */
+public class BattleEngine
+{
+    //constants
+    private static final String LEVEL_DIRECTORY = "Levels/"; // directory of levels
+    private static final String FILE_TYPE = ".dat"; // file type
+    private static final String NEWLINE = "\n"; // the new line character
+    private static final String CURRENT_FILE = LEVEL_DIRECTORY + "Current Level" + FILE_TYPE; // the file where all saved changes are made
+    private static final String CURRENT_LEVEL_DIRECTORY = "Units/Current Level/";
+    public static final String CURRENT_SNAPSHOT = LEVEL_DIRECTORY + "Current Level.snap"; // the snapshot of the battle in progress
+    
+    private static final int SNAPSHOT_MAGIC = 0x54534E50; // "TSNP", the start of a snapshot file
+    private static final int SNAPSHOT_VERSION = 1; // the version of the snapshot format written
+    
+    private static final int UNIT_INFO_BYTES = 13; // the size of each unit in a compiled battle file: side, name index, x and y
+    
+    private static final int MAX_HIT = 100; // maximum hit percentage
+    
+    //instance fields
+    private ArrayList<ArrayList<Unit>> side; // each team's units, divided
+    
+    private BattleField field; // the battle field where the battle occurs
+    
+    private int turn; // the number of turns so far
+    private int currentSide; // the current side
+    
+    private RandomSource rand; // rolls attacks, level ups and AI choices, shared by every unit in the battle
+    private SideCounter counter; // the number of live and enabled units on each side, kept up to date by the units
+    private ThreatMap threats; // the grids each unit can attack this turn
+    private MonteCarloAI planner; // plans the AI's turns by searching ahead (null = the greedy AI alone)
+    private boolean aiAttacks = true; // if AI units attack once they have moved (see setAIAttacks)
+    private boolean syncSaves = true; // if saved files are forced to the disk before replacing the old ones (see FileSaver)
+    private FileSaver lastSave; // the last save started (null = none)
+    private ArrayList<Unit> lastSaveUnits = new ArrayList<Unit>(); // the units written by the last save
+    private ArrayList<Integer> lastSaveChanges = new ArrayList<Integer>(); // the changes to each of those units the save covers
+    private boolean rosterSaved; // if CURRENT_FILE holds every unit's location as it is now (once the last save finishes)
+    private BattleJournal journal; // records every command carried out, so the battle can be replayed (null = not recorded)
+    private ArrayList<BattleDelta> done; // the changes of every command that can be undone, oldest first (null = not undoable)
+    private ArrayList<BattleDelta> undone; // the changes of every command undone that can be redone, most recently undone last
+    private BattleDelta delta; // the changes of the command being carried out (null = none, or not undoable)
+    private boolean actionStarting; // if the next command starts a new action (see beginAction)
+    
+    private File battleFile; // the file the battle is based on
+    private String fileName; // the name of the file
+    
+    //constructors
+    /**
+     * PRIMARY CONSTRUCTOR.
+     * Creates a battle using the specified string file name.
+     */
+    public BattleEngine(String aFileName)
+    {
+        this(aFileName, new RandomSource());
+    }
+    
+    /**
+     * Creates a battle using the specified string file name whose rolls all come from the specified seed.
+     * Battles created from the same file and seed play out the same way.
+     */
+    public BattleEngine(String aFileName, long seed)
+    {
+        this(aFileName, new RandomSource(seed));
+    }
+    
+    /**
+     * Creates a battle using the specified string file name and source of random numbers.
+     */
+    private BattleEngine(String aFileName, RandomSource aRand)
+    {
+        fileName = aFileName;
+        rand = aRand;
+        counter = new SideCounter();
+        
+        side = new ArrayList<ArrayList<Unit>>();
+
+        battleFile = new File(LEVEL_DIRECTORY + fileName + FILE_TYPE);
+        
+        readBattleFile();
+        threats = new ThreatMap(field, side);
+        
+        currentSide = 0;
+        turn = 1;
+    }
+    
+    /**
+     * Creates a battle from the body of a snapshot (see saveSnapshot), read from the specified buffer.
+     */
+    private BattleEngine(ByteBuffer in)
+    {
+        fileName = CompiledAsset.readString(in);
+        battleFile = new File(LEVEL_DIRECTORY + fileName + FILE_TYPE);
+        field = new BattleField(CompiledAsset.readString(in));
+        turn = in.getInt();
+        currentSide = in.getInt();
+        rand = new RandomSource(0);
+        rand.setState(in.getLong());
+        counter = new SideCounter();
+        
+        side = new ArrayList<ArrayList<Unit>>();
+        int sides = in.getInt();
+        for (int i = 0; i < sides; i++)
+        {
+            ArrayList<Unit> theSide = new ArrayList<Unit>();
+            for (int j = in.getInt(); j > 0; j--)
+            {
+                Unit theUnit = new Unit(in, i, field);
+                theUnit.setRandom(rand);
+                theUnit.setCounter(counter);
+                theSide.add(theUnit);
+                if (theUnit.isAlive())
+                    field.fill(theUnit);
+            }
+            side.add(theSide);
+        }
+        threats = new ThreatMap(field, side);
+    }
+    
+    /**
+     * Creates a copy of the specified battle whose attacks are rolled from the specified seed.
+     * The units and field are copied, so the copy can be played without changing the original
+     * (or reading any files again).
+     */
+    public BattleEngine(BattleEngine anEngine, long seed)
+    {
+        fileName = anEngine.fileName;
+        battleFile = anEngine.battleFile;
+        rand = new RandomSource(seed);
+        counter = new SideCounter();
+        
+        field = new BattleField(anEngine.field);
+        
+        side = new ArrayList<ArrayList<Unit>>();
+        for (int i = 0; i < anEngine.side.size(); i++)
+        {
+            ArrayList<Unit> theSide = anEngine.side.get(i);
+            ArrayList<Unit> copy = new ArrayList<Unit>();
+            for (int j = 0; j < theSide.size(); j++)
+            {
+                Unit theUnit = new Unit(theSide.get(j), field);
+                theUnit.setRandom(rand);
+                theUnit.setCounter(counter);
+                copy.add(theUnit);
+                if (theUnit.isAlive())
+                    field.fill(theUnit);
+            }
+            side.add(copy);
+        }
+        threats = new ThreatMap(field, side);
+        planner = anEngine.planner;
+        aiAttacks = anEngine.aiAttacks;
+        syncSaves = anEngine.syncSaves;
+        
+        currentSide = anEngine.currentSide;
+        turn = anEngine.turn;
+    }
+    
+    //methods
+    /**
+     * Creates a side with no units in it.
+     */
+    public void createEmptySide()
+    {
+        side.add(new ArrayList<Unit>());
+    }
+    
+    /**
+     * Adds the specified unit to the specified side.
+     */
+    public void add(Unit newUnit)
+    {
+        (side.get(newUnit.getSide())).add(newUnit);
+        field.fill(newUnit);
+        newUnit.setRandom(rand);
+        newUnit.setCounter(counter);
+    }
+    
+    /**
+     * Adds the specified side.
+     */
+    public void add(ArrayList<Unit> newSide)
+    {
+        side.add(newSide);
+        for (int i = 0; i < newSide.size(); i++)
+            newSide.get(i).setCounter(counter);
+    }
+    
+    /**
+     * Returns the number of turns so far.
+     */
+    public int getTurn()
+    {
+        return turn;
+    }
+    
+    /**
+     * Returns the side whose turn it is.
+     */
+    public int getCurrentSide()
+    {
+        return currentSide;
+    }
+    
+    /**
+     * Returns the number of sides.
+     */
+    public int getSideCount()
+    {
+        return side.size();
+    }
+    
+    /**
+     * Returns the units on the specified side.
+     */
+    public ArrayList<Unit> getSide(int index)
+    {
+        return side.get(index);
+    }
+    
+    /**
+     * Returns the source of every random roll in the battle.
+     */
+    public RandomSource getRandom()
+    {
+        return rand;
+    }
+    
+    /**
+     * Returns the grids each unit can attack this turn.
+     */
+    public ThreatMap getThreatMap()
+    {
+        return threats;
+    }
+    
+    /**
+     * Returns what plans the AI's turns by searching ahead (null = the greedy AI alone).
+     */
+    public MonteCarloAI getPlanner()
+    {
+        return planner;
+    }
+    
+    /**
+     * Sets what plans the AI's turns by searching ahead (null = the greedy AI alone).
+     * Copies of the battle share it.
+     */
+    public void setPlanner(MonteCarloAI aPlanner)
+    {
+        planner = aPlanner;
+    }
+    
+    /**
+     * Returns whether or not AI units attack once they have moved.
+     */
+    public boolean getAIAttacks()
+    {
+        return aiAttacks;
+    }
+    
+    /**
+     * Sets whether or not AI units attack once they have moved. They do unless told otherwise,
+     * so AI-vs-AI battles (see BatchSimulator) are played to a finish; the Swing game turns it off (see Battle).
+     * The planner is only used when they attack. Copies of the battle do the same.
+     */
+    public void setAIAttacks(boolean newVal)
+    {
+        aiAttacks = newVal;
+    }
+    
+    /**
+     * Sets whether or not saved files are forced to the disk before they replace the old ones (see FileSaver.setSync).
+     */
+    public void setSyncSaves(boolean isSync)
+    {
+        syncSaves = isSync;
+    }
+    
+    /**
+     * Returns the name of the level the battle is based on.
+     */
+    public String getFileName()
+    {
+        return fileName;
+    }
+    
+    /**
+     * Starts recording every command carried out from now on into the specified journal file (see BattleJournal),
+     * beginning with a snapshot of the battle as it is now. Any journal already being recorded is closed.
+     * Copies of the battle are never recorded.
+     */
+    public void startJournal(File journalFile) throws IOException
+    {
+        stopJournal();
+        journal = new BattleJournal(journalFile, getSnapshot());
+    }
+    
+    /**
+     * Stops recording the battle, writing and closing its journal (if any).
+     */
+    public void stopJournal()
+    {
+        if (journal != null)
+            journal.close();
+        journal = null;
+    }
+    
+    /**
+     * Returns the journal the battle is being recorded into (null = none).
+     */
+    public BattleJournal getJournal()
+    {
+        return journal;
+    }
+    
+    /**
+     * Returns the index of the specified unit in its side.
+     */
+    private int indexOf(Unit unit)
+    {
+        return side.get(unit.getSide()).indexOf(unit);
+    }
+    
+    /**
+     * Moves the specified unit to the specified location and updates the field.
+     */
+    public void moveUnit(Unit unit, Location loc)
+    {
+        if (journal != null)
+            journal.move(unit.getSide(), indexOf(unit), loc.x(), loc.y());
+        
+        boolean undoable = beginCommand(unit, null);
+        unit.setLoc(loc);
+        updateField(unit);
+        endCommand(undoable);
+    }
+    
+    /**
+     * Makes the weapon at the specified index the specified unit's primary weapon.
+     */
+    public void setPrimaryWpn(Unit unit, int index)
+    {
+        if (journal != null)
+            journal.setPrimaryWpn(unit.getSide(), indexOf(unit), index);
+        
+        boolean undoable = beginCommand(unit, null);
+        unit.setPrimaryWpn(index);
+        endCommand(undoable);
+    }
+    
+    /**
+     * Makes the specified unit use the item at the specified index.
+     */
+    public void useItem(Unit unit, int index)
+    {
+        if (journal != null)
+            journal.useItem(unit.getSide(), indexOf(unit), index);
+        
+        boolean undoable = beginCommand(unit, null);
+        unit.useItem(index);
+        endCommand(undoable);
+    }
+    
+    /**
+     * Makes the specified unit done for the turn (no longer enabled).
+     */
+    public void disable(Unit unit)
+    {
+        if (journal != null)
+            journal.disable(unit.getSide(), indexOf(unit));
+        
+        boolean undoable = beginCommand(unit, null);
+        unit.setEnabled(false);
+        endCommand(undoable);
+    }
+    
+    /**
+     * The attacker attacks the defender once, gaining exp.
+     * Removes the defender from the field if it dies.
+     */
+    public void attack(Unit atk, Unit def)
+    {
+        if (journal != null)
+            journal.attack(atk.getSide(), indexOf(atk), def.getSide(), indexOf(def), rand.getState());
+        
+        boolean undoable = beginCommand(atk, def);
+        simulate(atk, def, true, false); // attacker gains exp, NOT counter attacking
+        
+        if (!def.isAlive()) // if target is dead
+            field.empty(def.getLoc());
+        endCommand(undoable);
+    }
+    
+    /**
+     * The defender counter-attacks the attacker if it is still alive and the attacker is in its attack range.
+     * Removes the attacker from the field if it dies.
+     */
+    public void counterAttack(Unit atk, Unit def)
+    {
+        if (journal != null)
+            journal.counterAttack(def.getSide(), indexOf(def), atk.getSide(), indexOf(atk), rand.getState());
+        
+        boolean undoable = beginCommand(atk, def);
+        int dist = Math.abs(def.getX() - atk.getX()) + Math.abs(def.getY() - atk.getY());
+        NumberSet atkRng = def.getWpnAt(0).getAtkRng();
+        boolean inRange = false;
+        for (int i = 0; i < atkRng.size(); i++)
+            if (dist == atkRng.get(i))
+                inRange = true;
+                
+        if (def.isAlive() && inRange) // target is still alive after the attack and attacker is in target's attack range
+            simulate(def, atk, false, true); // defender does not gain exp, IS counter attacking
+        if (!atk.isAlive()) // attacker is dead
+            field.empty(atk.getLoc());
+        endCommand(undoable);
+    }
+    
+    /**
+     * Simulates the battle using the specified attacker and defender.
+     */
+    public void simulate(Unit atk, Unit def, boolean withExp, boolean counter)
+    {
+        int randNum = rand.nextInt(MAX_HIT);
+        if (randNum < getHitChanceOf(atk, def, counter)) // hit
+        {
+            def.setHP(def.getHP() - getDamageOf(atk, def, counter));
+            
+            if (withExp)
+                if (def.isAlive()) // did not kill
+                    atk.setExp(atk.getExp() + getExpGainOf(atk, def));
+                else
+                    atk.setExp(atk.getExp() + getExpGainOf(atk, def) + 15);
+        }
+        else // miss
+        {
+            if (withExp)
+                atk.setExp(atk.getExp() + 1);
+        }
+    }
+    
+    /**
+     * Returns the exact chances of every way the specified attacker attacking the specified defender could end,
+     * counter attack included, with the weapons they wield and where they stand now.
+     */
+    public CombatForecast forecast(Unit atk, Unit def)
+    {
+        return forecast(atk, 0, BattleField.distanceBetween(atk.getLoc(), def.getLoc()), def);
+    }
+    
+    /**
+     * Returns the exact chances of every way the specified attacker attacking the specified defender could end,
+     * counter attack included, if the attacker struck with the weapon at the specified index from the specified distance
+     * (still on the terrain it stands on now).
+     */
+    public CombatForecast forecast(Unit atk, int wpnIndex, int dist, Unit def)
+    {
+        Weapon atkWpn = atk.getWpnAt(wpnIndex);
+        Weapon defWpn = def.getWpnAt(0);
+        
+        int counterHit = 0;
+        int counterDmg = 0;
+        if (defWpn.getAtkRng().contains(dist)) // attacker is in defender's attack range
+        {
+            counterHit = getHitChanceOf(def, defWpn, atk, atkWpn, true);
+            counterDmg = getDamageOf(def, defWpn, atk, atkWpn, true);
+        }
+        return CombatForecast.of(atk.getHP(), def.getHP(), getHitChanceOf(atk, atkWpn, def, defWpn, false),
+                                 getDamageOf(atk, atkWpn, def, defWpn, false), counterHit, counterDmg);
+    }
+    
+    /**
+     * Returns the hit chance (out of 100) of the specified attacker to the specified defender.
+     */
+    public int getHitChanceOf(Unit atk, Unit def, boolean counter)
+    {
+        return getHitChanceOf(atk, atk.getWpnAt(0), def, def.getWpnAt(0), counter);
+    }
+    
+    /**
+     * Returns the hit chance (out of 100) of the specified attacker with the specified weapon
+     * to the specified defender wielding the specified weapon.
+     */
+    private int getHitChanceOf(Unit atk, Weapon atkWpn, Unit def, Weapon defWpn, boolean counter)
+    {
+        // attacker values
+        int sklAtk = atk.getSkl();
+        int wpnWt = atkWpn.getWt();
+        NumberSet atkWpnRng = atkWpn.getAtkRng();
+        
+        // defender values
+        int spdDef = def.getSpd();
+        NumberSet defWpnRng = defWpn.getAtkRng();
+        
+        int hit = MAX_HIT + 2*sklAtk - wpnWt - spdDef;
+        
+        if (hit < 0) // if hit value is invalid
+            hit = 0;
+        else if (hit > MAX_HIT)
+            hit = 100;
+            
+        hit -= field.terrainTypeAt(def.getLoc()).getAvoid(); // if defender is in a forest
+        
+        String atkAdv = atkWpn.getAdvantage();
+        String defWpnKind = defWpn.getKind();
+        if (atkAdv.equals(defWpnKind))
+            hit += 10;
+            
+        String atkWkn = atkWpn.getWeakness();
+        if (atkWkn.equals(defWpnKind))
+            hit -= 10;
+        
+        if (counter)
+        {
+            if (!atkWpnRng.overlaps(defWpnRng))
+                hit = 0;
+        }
+        
+        return hit;
+    }
+    
+    /**
+     * Returns the damage done from the specified attacker to the specified defender.
+     */
+    public int getDamageOf(Unit atk, Unit def, boolean counter)
+    {
+        return getDamageOf(atk, atk.getWpnAt(0), def, def.getWpnAt(0), counter);
+    }
+    
+    /**
+     * Returns the damage done from the specified attacker with the specified weapon
+     * to the specified defender wielding the specified weapon.
+     */
+    private int getDamageOf(Unit atk, Weapon atkWpn, Unit def, Weapon defWpn, boolean counter)
+    {
+        // attacker values
+        int strAtk = atk.getStr();
+        int wpnMt = atkWpn.getMt();
+        NumberSet atkWpnRng = atkWpn.getAtkRng();
+        
+        // defender values
+        int defDef = def.getDef();
+        NumberSet defWpnRng = defWpn.getAtkRng();
+        
+        int dmg = strAtk + wpnMt - defDef;
+        if (dmg < 0) // if damage is negative
+            dmg = 0;
+        
+        if (counter)
+        {
+//             boolean inAtkRng = false; // if the unit's weapon range won't reach that far (for counter attacks)
+//             for (int i = 0; i < atkWpnRng.length; i++)
+//                 for (int j = 0; j < defWpnRng.length; j++)
+//                     if (atkWpnRng[i] == defWpnRng[j])
+//                         inAtkRng = true;
+            if (!atkWpnRng.overlaps(defWpnRng))
+                dmg = 0;
+        }
+            
+        return dmg;
+    }
+    
+    /**
+     * Returns the exp the attacker gains from fighting the defender.
+     */
+    private int getExpGainOf(Unit atk, Unit def)
+    {
+        // attacker values
+        int lvlAtk = atk.getLevel();
+        int wpnWt = atk.getWpnAt(0).getWt();
+        
+        // defender values
+        int lvlDef = def.getLevel();
+        
+        return 10 - (lvlAtk - lvlDef) + wpnWt;
+    }
+    
+    /**
+     * Returns whether or not the current side has no more enabled units, or the battle is over.
+     */
+    public boolean isTurnOver()
+    {
+        return counter.getReady(currentSide) == 0 || getVictorSide() != -1;
+    }
+    
+    /**
+     * Ends the turn of the current side.
+     * Makes all units "enabled."
+     * Switched current side to next one.
+     */
+    public void endTurn()
+    {
+        if (journal != null)
+            journal.endTurn(rand.getState());
+        
+        boolean undoable = beginCommand(null, null);
+        for (int i = 0; i < (side.get(currentSide)).size(); i++)
+        {
+            if (undoable)
+                delta.touch((side.get(currentSide)).get(i), i);
+            ((side.get(currentSide)).get(i)).setEnabled(true);
+        }
+        
+        switchSide();
+        endCommand(undoable);
+    }
+    
+    /**
+     * Starts keeping the changes of every command carried out from now on, so they can be undone (see undo),
+     * or stops keeping them and forgets the ones kept so far.
+     * Copies of the battle are never undoable unless they are made so.
+     */
+    public void setUndoable(boolean isUndoable)
+    {
+        if (isUndoable && done == null)
+        {
+            done = new ArrayList<BattleDelta>();
+            undone = new ArrayList<BattleDelta>();
+            actionStarting = true;
+        }
+        else if (!isUndoable)
+        {
+            done = null;
+            undone = null;
+        }
+    }
+    
+    /**
+     * Returns whether or not the changes of each command are kept, so it can be undone.
+     */
+    public boolean isUndoable()
+    {
+        return done != null;
+    }
+    
+    /**
+     * Starts a new action: the commands carried out from now until the next action starts are undone and redone as one,
+     * such as a unit's move, attack and wait, or a whole AI turn.
+     */
+    public void beginAction()
+    {
+        if (journal != null)
+            journal.beginAction();
+        
+        actionStarting = true;
+    }
+    
+    /**
+     * Returns whether or not there is an action that can be undone.
+     */
+    public boolean canUndo()
+    {
+        return done != null && !done.isEmpty();
+    }
+    
+    /**
+     * Returns whether or not there is an undone action that can be redone.
+     */
+    public boolean canRedo()
+    {
+        return undone != null && !undone.isEmpty();
+    }
+    
+    /**
+     * Undoes the last action, putting the battle back as it was before it (the random numbers included).
+     * Takes time in proportion to the changes the action made (see BattleDelta).
+     * Returns false if there was nothing to undo.
+     */
+    public boolean undo()
+    {
+        if (!canUndo())
+            return false;
+        
+        BattleDelta last;
+        do
+        {
+            last = done.remove(done.size() - 1);
+            apply(last, true);
+            undone.add(last);
+        }
+        while (!last.startsAction() && !done.isEmpty());
+        actionStarting = true;
+        
+        if (journal != null)
+            journal.undo(rand.getState());
+        return true;
+    }
+    
+    /**
+     * Redoes the last action undone, putting the battle back as it was after it.
+     * Returns false if there was nothing to redo.
+     */
+    public boolean redo()
+    {
+        if (!canRedo())
+            return false;
+        
+        do
+        {
+            BattleDelta next = undone.remove(undone.size() - 1);
+            apply(next, false);
+            done.add(next);
+        }
+        while (!undone.isEmpty() && !undone.get(undone.size() - 1).startsAction());
+        actionStarting = true;
+        
+        if (journal != null)
+            journal.redo(rand.getState());
+        return true;
+    }
+    
+    /**
+     * Returns a mark of how many commands can be undone now, to go back to with unmakeTo.
+     */
+    public int getUndoMark()
+    {
+        return (done == null) ? 0 : done.size();
+    }
+    
+    /**
+     * Undoes every command carried out since the specified mark (see getUndoMark), for good: they cannot be redone.
+     * Lets a search try commands out on a battle and take them back cheaply. Not journaled.
+     */
+    public void unmakeTo(int mark)
+    {
+        while (done.size() > mark)
+            apply(done.remove(done.size() - 1), true);
+        undone.clear();
+    }
+    
+    /**
+     * Puts the battle back as it was before (if undoing) or after (if redoing) the command with the specified changes.
+     */
+    private void apply(BattleDelta change, boolean undo)
+    {
+        change.apply(side, field, undo);
+        turn = change.getTurn(undo);
+        currentSide = change.getSide(undo);
+        rand.setState(change.getRandState(undo));
+    }
+    
+    /**
+     * Starts keeping the changes of a command, if the battle is undoable and no command is being carried out already,
+     * touching the specified units (null = none) as ones it may change.
+     * Returns whether or not it started, so the command knows to call endCommand.
+     */
+    private boolean beginCommand(Unit first, Unit second)
+    {
+        if (done == null || delta != null)
+            return false;
+        
+        delta = new BattleDelta(turn, currentSide, rand.getState());
+        if (first != null)
+            delta.touch(first, indexOf(first));
+        if (second != null)
+            delta.touch(second, indexOf(second));
+        return true;
+    }
+    
+    /**
+     * Finishes keeping the changes of a command started by beginCommand (if it started),
+     * so it can be undone as part of the current action. Any undone commands can no longer be redone.
+     */
+    private void endCommand(boolean started)
+    {
+        if (!started)
+            return;
+        
+        delta.finish(turn, currentSide, rand.getState());
+        if (!delta.isEmpty())
+        {
+            delta.setStartsAction(actionStarting);
+            actionStarting = false;
+            done.add(delta);
+            undone.clear();
+        }
+        delta = null;
+    }
+    
+    /**
+     * Returns if the specified side has any survivors or not.
+     */
+    private boolean hasSurvivors(int aSide)
+    {
+        return counter.getAlive(aSide) > 0;
+    }
+    
+    /**
+     * Returns the side that won the battle.
+     * Returns -1 if the battle is not finished yet.
+     */
+    public int getVictorSide()
+    {
+        return counter.getVictorSide();
+    }
+    
+    /**
+     * Updates the field about the location of units.
+     */
+    private void updateField(Unit unit)
+    {
+        field.empty(unit.getOldLoc());
+        field.fill(unit);
+    }
+    
+    /**
+     * Switches the current side to the next one.
+     * Increments turn count by one if all sides have gone once.
+     */
+    private void switchSide()
+    {
+        currentSide++;
+        
+        if (getVictorSide() == -1) // battle not over
+        {
+            boolean done = false;
+            do
+            {
+                if (currentSide >= side.size())
+                {
+                    currentSide = 0;
+                    turn++;
+                }
+                if (hasSurvivors(currentSide))
+                {
+                    done = true;
+                }
+                else
+                {
+                    currentSide++;
+                }
+            }
+            while (!done);
+        }
+    }
+    
+    /**
+     * Acts all the units on the side found at the specified index.
+     */
+    public void executeAI(int index)
+    {
+        executeAI(index, null);
+    }
+    
+    /**
+     * Acts all the units on the side found at the specified index,
+     * adding a command for each live unit to the specified queue (if not null) as soon as it has acted.
+     * The planner (if any) chooses the targets first.
+     */
+    public void executeAI(int index, Queue<AICommand> commands)
+    {
+        executeAI(index, commands, (planner == null || !aiAttacks) ? null : planner.planTurn(this, index));
+    }
+    
+    /**
+     * Acts all the units on the side found at the specified index, each attacking the target given for it
+     * as an index into AI.allEnemies (null or MonteCarloAI.GREEDY = chosen by the greedy AI, as are fallen targets),
+     * adding a command for each live unit to the specified queue (if not null) as soon as it has acted.
+     */
+    public void executeAI(int index, Queue<AICommand> commands, int[] targets)
+    {
+        // find the AI side
+        ArrayList<Unit> theSide = side.get(index);
+        
+        // find the enemy side(s)
+        ArrayList<ArrayList<Unit>> enemySides = new ArrayList<ArrayList<Unit>>();
+        for (int i = 0; i < side.size(); i++)
+            if (i != index)
+                enemySides.add(side.get(i));
+                
+        // plan a large side at once on a snapshot (see planSide), or each unit just before it acts
+        ArrayList<Unit> myEnemy = AI.allEnemies(enemySides);
+        AIPlan[] plans = planSide(index, myEnemy, targets);
+        int alive = countAlive(); // the plans hold until a unit falls
+        boolean settled = plans != null; // if every unit so far moved where the plans settled it
+                
+        // make each unit act, in order, so each finds the field as the units before it left it
+        for (int j = 0; j < theSide.size(); j++) // for each unit on the side
+        {
+            Unit aiUnit = theSide.get(j);
+            if (!aiUnit.isAlive()) // fallen units stay on the side but no longer act
+                continue;
+            
+            if (plans != null && countAlive() != alive) // a unit fell, so ranges and grids changed since the side was planned
+            {
+                plans = null;
+                settled = false;
+            }
+            AIPlan plan = (plans == null) ? new AIPlan(aiUnit, myEnemy, threats) : plans[j];
+            int targetIndex = (targets == null) ? MonteCarloAI.GREEDY : targets[j];
+            if (targetIndex == MonteCarloAI.GREEDY || !myEnemy.get(targetIndex).isAlive())
+                targetIndex = AI.chooseTarget(myEnemy, AI.scoreKill(plan, myEnemy, plan.getReachScores(), this), rand);
+            if (targetIndex != plan.getTarget()) // the grids the rest were settled on may no longer be free
+                settled = false;
+            Unit theTarget = (targetIndex == -1) ? null : myEnemy.get(targetIndex);
+            Location dest = null;
+            long randState = rand.getState();
+            if (theTarget != null)
+            {
+                if (settled) // the grid it would find is the one it was settled on
+                {
+                    dest = plan.getDest();
+                    if (dest != null)
+                        moveUnit(aiUnit, dest);
+                }
+                else if (moveToClosestLocation(aiUnit, theTarget, closestAtkDist(plan, targetIndex))) // move the AI unit to the location closest to its target that is empty
+                    dest = aiUnit.getLoc();
+                attackIfInRange(aiUnit, theTarget, plan.getWpnIndex(targetIndex));
+            }
+            
+            if (commands != null)
+            {
+                if (theTarget == null)
+                    commands.add(new AICommand(index, j, null, -1, 0, randState));
+                else
+                    commands.add(new AICommand(index, j, dest, theTarget.getSide(), side.get(theTarget.getSide()).indexOf(theTarget), randState));
+            }
+        }
+    }
+    
+    /**
+     * Plans every live unit of the side at the specified index against the specified enemies on a snapshot of the battle,
+     * on several threads, then settles the target of each (given as in executeAI) and the grid it moves to, one unit at a time
+     * in the order they act. Each unit moves on the snapshot once settled, so the grid it takes is taken for the units after it,
+     * which settle on the nearest free grid instead. The plans are then made the live units'.
+     * Returns null if the side is too small for this to be worth it (see AIPlan.isWorthPlanningAhead).
+     */
+    private AIPlan[] planSide(int index, ArrayList<Unit> myEnemy, int[] targets)
+    {
+        if (!AIPlan.isWorthPlanningAhead(counter.getAlive(index)))
+            return null;
+        
+        BattleEngine snapshot = new BattleEngine(this, 0); // never rolls anything, so the battle's rolls are untouched
+        snapshot.field.getCostGrid(index); // built before the threads share the snapshot
+        ArrayList<ArrayList<Unit>> enemySides = new ArrayList<ArrayList<Unit>>();
+        for (int i = 0; i < snapshot.side.size(); i++)
+            if (i != index)
+                enemySides.add(snapshot.side.get(i));
+        ArrayList<Unit> snapshotEnemy = AI.allEnemies(enemySides);
+        ArrayList<Unit> snapshotSide = snapshot.side.get(index);
+        AIPlan[] plans = AIPlan.planSide(snapshotSide, snapshotEnemy, snapshot.threats);
+        
+        for (int j = 0; j < plans.length; j++)
+        {
+            AIPlan plan = plans[j];
+            if (plan == null)
+                continue;
+            
+            int targetIndex = (targets == null) ? MonteCarloAI.GREEDY : targets[j];
+            if (targetIndex == MonteCarloAI.GREEDY || !snapshotEnemy.get(targetIndex).isAlive())
+                targetIndex = AI.chooseTarget(snapshotEnemy, AI.scoreKill(plan, snapshotEnemy, plan.getReachScores(), snapshot), null);
+            Location dest = null;
+            if (targetIndex != -1)
+            {
+                Unit unit = snapshotSide.get(j);
+                if (snapshot.moveToClosestLocation(unit, snapshotEnemy.get(targetIndex), closestAtkDist(plan, targetIndex)))
+                    dest = unit.getLoc();
+            }
+            plan.settle(targetIndex, dest);
+            plan.bindTo(side.get(index).get(j), myEnemy);
+        }
+        return plans;
+    }
+    
+    /**
+     * Returns the distance the planned unit moves to from the enemy at the specified index, as planned
+     * (1 if no distance keeps the enemy from countering).
+     */
+    private static int closestAtkDist(AIPlan plan, int targetIndex)
+    {
+        int dist = plan.getAtkDist(targetIndex);
+        if (dist < 0) // no optimal distance
+            dist = 1;
+        return dist;
+    }
+    
+    /**
+     * Returns the number of live units on every side.
+     */
+    private int countAlive()
+    {
+        int alive = 0;
+        for (int i = 0; i < side.size(); i++)
+            alive += counter.getAlive(i);
+        return alive;
+    }
+    
+    /**
+     * Acts all the units on the current side and ends its turn.
+     */
+    public void playAITurn()
+    {
+        executeAI(currentSide);
+        endTurn();
+    }
+    
+    /**
+     * Carries out the specified command, planned by executeAI on a copy of this battle in the same state.
+     * The unit moves and attacks exactly as it did in the copy, rolling the same numbers.
+     */
+    public void perform(AICommand command)
+    {
+        rand.setState(command.getRandState());
+        
+        Unit theUnit = side.get(command.getSide()).get(command.getUnitIndex());
+        if (command.getDest() != null)
+            moveUnit(theUnit, command.getDest());
+        if (command.getTargetSide() != -1)
+            attackIfInRange(theUnit, side.get(command.getTargetSide()).get(command.getTargetIndex()));
+    }
+    
+    /**
+     * Lets the AI play every side until one side wins or the specified number of turns have passed.
+     * Returns the side that won the battle, or -1 if no side won in time.
+     */
+    public int playAIBattle(int maxTurns)
+    {
+        while (getVictorSide() == -1 && turn <= maxTurns)
+            playAITurn();
+        return getVictorSide();
+    }
+    
+    /**
+     * Makes the specified unit attack the target if the target is in the range of one of its weapons,
+     * preferring a weapon the target cannot counter attack. The weapon used becomes the primary weapon.
+     * Should only be called by the executeAI and perform methods.
+     */
+    private void attackIfInRange(Unit theUnit, Unit theTarget)
+    {
+        attackIfInRange(theUnit, theTarget, AI.indexOfOptimalWpn(theUnit, theTarget));
+    }
+    
+    /**
+     * Makes the specified unit attack the target if the target is in the range of one of its weapons,
+     * preferring the weapon at the specified index (the one the target cannot counter attack, -1 = none).
+     * The weapon used becomes the primary weapon. Does nothing if AI units do not attack (see setAIAttacks).
+     */
+    private void attackIfInRange(Unit theUnit, Unit theTarget, int wpnIndex)
+    {
+        if (!aiAttacks)
+            return;
+        
+        int dist = BattleField.distanceBetween(theUnit.getLoc(), theTarget.getLoc());
+        
+        if (wpnIndex == -1 || !theUnit.getWpnAt(wpnIndex).getAtkRng().contains(dist)) // optimal weapon cannot reach
+        {
+            wpnIndex = -1;
+            for (int i = Unit.WPN_SLOTS - 1; i >= 0; i--) // first weapon that can reach
+                if (theUnit.getWpnAt(i).getAtkRng().contains(dist))
+                    wpnIndex = i;
+        }
+        
+        if (wpnIndex != -1 && theTarget.isAlive())
+        {
+            if (wpnIndex != 0)
+                setPrimaryWpn(theUnit, wpnIndex);
+            attack(theUnit, theTarget);
+            counterAttack(theUnit, theTarget);
+        }
+    }
+    
+    /**
+     * Moves the specified unit to an empty grid as close to the specified distance from the target
+     * as possible while still limited to its movement range.
+     * Returns whether or not the unit was moved.
+     * Should only be called by the executeAI method.
+     */
+    private boolean moveToClosestLocation(Unit theUnit, Unit theTarget, int dist)
+    {
+        // default the locations
+        Location targLoc = theTarget.getLoc();
+        Location locAbove = null;
+        Location locBelow = null;
+        Location locLeft = null;
+        Location locRight = null;
+        
+        // initialize locations to valid ones if possible
+        if (field.inBounds(targLoc.x() - 1, targLoc.y())) // try location to the left if the method that called it did not do the same
+            locLeft = nearestEmptyLocation(theUnit, targLoc.x() - dist, targLoc.y());
+        if (field.inBounds(targLoc.x() + 1, targLoc.y())) // try location to the right if the method that called it did not do the same
+            locRight = nearestEmptyLocation(theUnit, targLoc.x() + dist, targLoc.y());
+        if (field.inBounds(targLoc.x(), targLoc.y() - 1)) // try location above if the method that called it did not do the same
+            locAbove = nearestEmptyLocation(theUnit, targLoc.x(), targLoc.y() - dist);
+        if (field.inBounds(targLoc.x(), targLoc.y() + 1)) // try location below if the method that called it did not do the same
+            locBelow = nearestEmptyLocation(theUnit, targLoc.x(), targLoc.y() + dist);
+            
+        Location loc = nearerOf(targLoc, locAbove, locBelow);
+        loc = nearerOf(targLoc, loc, locLeft);
+        loc = nearerOf(targLoc, loc, locRight);
+            
+        if (loc != null && !loc.equals(new Location(-1,-1))) // valid coordinates are returned
+        {
+            moveUnit(theUnit, loc);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the empty location nearest the specified one while still limited to the unit's movement range
+     * (the grid the unit stands on counts as empty).
+     * Returns a location of (-1,-1) if the specified location is not in the unit's movement range.
+     */
+    private Location nearestEmptyLocation(Unit theUnit, int x, int y)
+    {
+        if (!theUnit.isInMoveRange(x, y))
+            return new Location(-1,-1);
+        
+        MoveRange grids = theUnit.getMoveRange();
+        Location nearest = new Location(-1,-1);
+        int nearestDist = Integer.MAX_VALUE;
+        for (int i = 0; i < grids.size(); i++) // for each possible movement location
+        {
+            int dist = BattleField.distanceBetween(grids.getX(i), grids.getY(i), x, y);
+            if (dist < nearestDist)
+            {
+                Location loc = new Location(grids.getX(i), grids.getY(i));
+                if (field.isEmpty(loc) || loc.equals(theUnit.getLoc()))
+                {
+                    nearest = loc;
+                    nearestDist = dist;
+                }
+            }
+        }
+        return nearest;
+    }
+    
+    /**
+     * Returns whichever of the two locations is nearer the target.
+     * Missing locations (null or (-1,-1)) are never nearer than real ones.
+     */
+    private Location nearerOf(Location targLoc, Location first, Location second)
+    {
+        if (second == null || !field.inBounds(second))
+            return (first == null) ? second : first;
+        if (first == null || !field.inBounds(first))
+            return second;
+        
+        if (BattleField.distanceBetween(targLoc, first) > BattleField.distanceBetween(targLoc, second))
+            return second;
+        return first;
+    }
+    
+    /**
+     * Returns an arraylist of locations that the specified unit could possible attack from using the specified weapon.
+     */
+    private ArrayList<Location> getAtkLoc(Unit theUnit, int wpnIndex, Location targ)
+    {
+        ArrayList<Location> loc = new ArrayList<Location>();
+        
+        return loc;
+    }
+    
+    /**
+     * Returns the battlefield the battle is being fought on.
+     */
+    public BattleField getField()
+    {
+        return field;
+    }
+    
+    /**
+     * Reads the battle file and set fields accordingly, from its compiled form if it is up to date (see CompiledAsset).
+     */
+    private void readBattleFile()
+    {
+        ByteBuffer compiled = CompiledAsset.open(battleFile, CompiledAsset.LEVEL_MAGIC);
+        if (compiled != null && readCompiledFile(compiled))
+            return;
+        
+        try
+        {
+            DataFileReader in = new DataFileReader(battleFile);
+            try
+            {
+                field = new BattleField(in.nextValue());
+                
+                while (in.hasNext()) // a row for each unit: side, name, x and y
+                    addUnitFromFile(in.nextInt(), in.nextOnLine(), in.nextIntOnLine(), in.nextIntOnLine());
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e) { System.out.println(e); }
+    }
+    
+    /**
+     * Reads the battlefield and units from the body of a compiled battle file:
+     * a pool of strings, the index of the battlefield's name in the pool, then the side, index of the name in the pool,
+     * and x and y coordinates of each unit.
+     * Returns false, before any unit has been added, if the file is cut short or does not make sense:
+     * counts larger than the bytes left could hold, indices outside the pool, sides out of order or units off the battlefield.
+     */
+    private boolean readCompiledFile(ByteBuffer in)
+    {
+        String[] pool;
+        int fieldIndex;
+        int[][] unitInfo;
+        try
+        {
+            int poolSize = in.getInt();
+            if (poolSize < 0 || poolSize > in.remaining()/2) // every string takes at least its two byte length
+                return false;
+            pool = new String[poolSize];
+            for (int i = 0; i < pool.length; i++)
+                pool[i] = CompiledAsset.readString(in);
+            fieldIndex = in.getInt();
+            if (fieldIndex < 0 || fieldIndex >= pool.length)
+                return false;
+            
+            int units = in.getInt();
+            if (units < 0 || units > in.remaining()/UNIT_INFO_BYTES)
+                return false;
+            unitInfo = new int[units][4];
+            int sides = 0; // the number of sides the units so far are on
+            for (int i = 0; i < unitInfo.length; i++)
+            {
+                unitInfo[i][0] = in.get();
+                unitInfo[i][1] = in.getInt();
+                unitInfo[i][2] = in.getInt();
+                unitInfo[i][3] = in.getInt();
+                if (unitInfo[i][0] < 0 || (unitInfo[i][0] != sides - 1 && unitInfo[i][0] != sides)) // each side follows the one before it
+                    return false;
+                sides = unitInfo[i][0] + 1;
+                if (unitInfo[i][1] < 0 || unitInfo[i][1] >= pool.length)
+                    return false;
+            }
+        }
+        catch (BufferUnderflowException e)
+        {
+            return false;
+        }
+        
+        BattleField newField = new BattleField(pool[fieldIndex]);
+        for (int i = 0; i < unitInfo.length; i++)
+            if (!newField.inBounds(unitInfo[i][2], unitInfo[i][3]))
+                return false;
+        
+        field = newField;
+        for (int i = 0; i < unitInfo.length; i++)
+            addUnitFromFile(unitInfo[i][0], pool[unitInfo[i][1]], unitInfo[i][2], unitInfo[i][3]);
+        return true;
+    }
+    
+    /**
+     * Adds a unit read from the battle file: the one in the unit file with the specified name
+     * (starting with "*" if it is in the level's own directory) on the specified side at the specified coordinates.
+     */
+    private void addUnitFromFile(int unitSide, String unitName, int unitX, int unitY)
+    {
+        if (unitName.startsWith("*"))
+            unitName = fileName + "/" + unitName.substring(1, unitName.length());
+            
+        if (unitSide + 1 != side.size()) // if the side the unit is on has not been created yet
+            side.add(new ArrayList<Unit>());
+            
+        Unit theUnit = new Unit(unitX, unitY, unitName, unitSide, field);
+        theUnit.setRandom(rand);
+        theUnit.setCounter(counter);
+        (side.get(unitSide)).add(theUnit);
+        field.fill(theUnit);
+    }
+    
+    /**
+     * Compiles the text battle file of the level with the specified name into its compiled form (see readCompiledFile),
+     * keeping the unit names exactly as written. Each distinct name is stored once.
+     */
+    public static void compileBattleFile(String aFileName) throws IOException
+    {
+        File textFile = new File(LEVEL_DIRECTORY + aFileName + FILE_TYPE);
+        ArrayList<String> pool = new ArrayList<String>();
+        HashMap<String, Integer> poolIndex = new HashMap<String, Integer>(); // the index of each string in the pool
+        ArrayList<int[]> unitInfo = new ArrayList<int[]>(); // the side, index of the name, x and y of each unit
+        
+        DataFileReader in = new DataFileReader(textFile);
+        try
+        {
+            pool.add(in.nextValue()); // the battlefield's name
+            
+            while (in.hasNext())
+            {
+                int unitSide = in.nextInt();
+                String unitName = in.nextOnLine();
+                if (!poolIndex.containsKey(unitName))
+                {
+                    poolIndex.put(unitName, pool.size());
+                    pool.add(unitName);
+                }
+                unitInfo.add(new int[] {unitSide, poolIndex.get(unitName), in.nextIntOnLine(), in.nextIntOnLine()});
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        
+        DataOutputStream out = CompiledAsset.create(textFile, CompiledAsset.LEVEL_MAGIC);
+        try
+        {
+            out.writeInt(pool.size());
+            for (int i = 0; i < pool.size(); i++)
+                CompiledAsset.writeString(out, pool.get(i));
+            out.writeInt(0); // the battlefield's name
+            
+            out.writeInt(unitInfo.size());
+            for (int i = 0; i < unitInfo.size(); i++)
+            {
+                int[] info = unitInfo.get(i);
+                out.writeByte(info[0]);
+                out.writeInt(info[1]);
+                out.writeInt(info[2]);
+                out.writeInt(info[3]);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+    
+    /**
+     * Saves the whole battle as it is now into the specified snapshot file, which loadSnapshot can resume it from.
+     * The snapshot holds the level and battlefield names, the turn, the current side, the state of the random numbers
+     * and every unit (see Unit.writeSnapshot), after a header of SNAPSHOT_MAGIC and SNAPSHOT_VERSION.
+     * The battle is taken as it is now, then the file is written in the background (see FileSaver),
+     * so this returns straight away. The specified listener (if any) is told once it is written.
+     */
+    public FileSaver saveSnapshot(File snapshotFile, FileSaver.Listener whenSaved)
+    {
+        FileSaver save = new FileSaver();
+        save.setSync(syncSaves);
+        save.add(snapshotFile, getSnapshot());
+        save.start(whenSaved);
+        return save;
+    }
+    
+    /**
+     * Returns a snapshot of the whole battle as it is now, as saveSnapshot writes it.
+     */
+    public byte[] getSnapshot()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try
+        {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            CompiledAsset.writeString(out, fileName);
+            CompiledAsset.writeString(out, field.getFieldFile());
+            out.writeInt(turn);
+            out.writeInt(currentSide);
+            out.writeLong(rand.getState());
+            
+            out.writeInt(side.size());
+            for (int i = 0; i < side.size(); i++)
+            {
+                ArrayList<Unit> theSide = side.get(i);
+                out.writeInt(theSide.size());
+                for (int j = 0; j < theSide.size(); j++)
+                    theSide.get(j).writeSnapshot(out);
+            }
+        }
+        catch (IOException e) {} // never thrown by a byte array
+        
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Returns the battle saved in the specified snapshot file (see saveSnapshot), read with a single read of the file.
+     */
+    public static BattleEngine loadSnapshot(File snapshotFile) throws IOException
+    {
+        ByteBuffer in;
+        FileChannel channel = new FileInputStream(snapshotFile).getChannel();
+        try
+        {
+            in = ByteBuffer.allocate((int)channel.size());
+            while (in.hasRemaining() && channel.read(in) != -1);
+            in.flip();
+        }
+        finally
+        {
+            channel.close();
+        }
+        return readSnapshot(in, snapshotFile.toString());
+    }
+    
+    /**
+     * Returns the battle in the snapshot (see getSnapshot) read from the specified buffer,
+     * naming the specified source (such as its file) if the snapshot cannot be read.
+     */
+    public static BattleEngine readSnapshot(ByteBuffer in, String source) throws IOException
+    {
+        try
+        {
+            if (in.getInt() != SNAPSHOT_MAGIC)
+                throw new IOException(source + " is not a battle snapshot");
+            if (in.getInt() != SNAPSHOT_VERSION)
+                throw new IOException(source + " was saved by a different version");
+            return new BattleEngine(in);
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IOException(source + " is cut short");
+        }
+    }
+    
+    /**
+     * Saves all the data into the CURRENT_FILE file.
+     * Does not change any specific level data from missions.
+     * Saves the status of units on side "0" to original files.
+     * Saves status of all other units into file in a folder.
+     * Only the units that changed since they were last saved (or read) are written (see Unit.getChanges),
+     * and CURRENT_FILE only if a unit moved.
+     * The battle is taken as it is now, then the files are written in the background (see FileSaver),
+     * so this returns straight away. The specified listener (if any) is told once they are written.
+     */
+    public FileSaver saveBattleFile(FileSaver.Listener whenSaved)
+    {
+        if (lastSave != null && (!lastSave.isDone() || lastSave.getError() != null)) // the last save may not have been written
+        {
+            for (int i = 0; i < lastSaveUnits.size(); i++)
+                lastSaveUnits.get(i).restoreChanges(lastSaveChanges.get(i));
+            rosterSaved = false;
+        }
+        lastSaveUnits.clear();
+        lastSaveChanges.clear();
+        
+        FileSaver save = new FileSaver();
+        save.setSync(syncSaves);
+        boolean rosterChanged = !rosterSaved;
+        
+        // save unit files
+        for (int i = 0; i < side.size(); i++) // for each side
+        {
+            ArrayList<Unit> theSide = side.get(i);
+            for (int j = 0; j < theSide.size(); j++) // for each unit
+            {
+                Unit theUnit = theSide.get(j);
+                File unitFile;
+                if (i == 0) // side "0"
+                    unitFile = theUnit.getUnitFile(); // save the changes to original file
+                else // all other sides
+                    unitFile = new File(CURRENT_LEVEL_DIRECTORY + theUnit.getUnitFileString() + FILE_TYPE); // save the changes to file in current file
+                
+                if ((theUnit.getChanges() & Unit.LOC_CHANGED) != 0)
+                    rosterChanged = true;
+                
+                if (!theUnit.isSavedIn(unitFile))
+                {
+                    save.add(unitFile, theUnit.getUnitFileText());
+                    lastSaveUnits.add(theUnit);
+                    lastSaveChanges.add(theUnit.forgetChanges(~Unit.LOC_CHANGED)); // the location is kept in CURRENT_FILE
+                    theUnit.setSavedFile(unitFile);
+                }
+            }
+        }
+        
+        // save battle file
+        if (rosterChanged)
+        {
+            StringBuilder battleText = new StringBuilder("Battlefield: " + field.getFieldFile() + NEWLINE + NEWLINE);
+            for (int i = 0; i < side.size(); i++) // for each side
+            {
+                ArrayList<Unit> theSide = side.get(i);
+                for (int j = 0; j < theSide.size(); j++) // for each unit
+                {
+                    Unit theUnit = theSide.get(j);
+                    String unitName = (i == 0) ? theUnit.getUnitFileString() : "*" + theUnit.getUnitFileString(); // other sides are read from the current level's folder
+                    battleText.append(theUnit.getSide() + " " + unitName + " " + theUnit.getX() + " " + theUnit.getY());
+                    if ((i != side.size() - 1) || (j != theSide.size() - 1))
+                        battleText.append(NEWLINE);
+                    theUnit.forgetChanges(Unit.LOC_CHANGED);
+                }
+            }
+            save.add(new File(CURRENT_FILE), battleText.toString());
+            rosterSaved = true;
+        }
+        
+        save.start(whenSaved);
+        lastSave = save;
+        return save;
+    }
+    
+} // END CLASS
\ No newline at end of file
@@ -1,31 +1,19 @@
 import java.util.*;
-import javax.swing.*;
 import java.awt.*;
-import java.awt.geom.*;
-import java.awt.image.*;
 import java.io.*;
+import java.nio.*;
 
 /**
  * Stores terrain and location information.
- * Stores images of terrain.
+ * Holds no images and builds no components, so it can be copied freely; BattleFieldView paints it.
  */
-public class BattleField extends JPanel implements ImageObserver
+public class BattleField
 {
     public static int GRID_SIZE = 40; // the size of a single grid square
     
     private static final String FIELD_DIRECTORY = "Battlefields/"; // directory of battle fields
     private static final String FILE_TYPE = ".dat";
     
-    private static final String TERRAIN_IMAGE_HEADING = "images/terrain/"; // directory of terrain images
-    private static final String GRASS_URL = TERRAIN_IMAGE_HEADING + "grass.gif"; // the url of the terrain images
-    private static final String FOREST_URL = TERRAIN_IMAGE_HEADING + "forest.gif";
-    private static final String OCEAN_URL = TERRAIN_IMAGE_HEADING + "ocean.gif";
-    private static final String FORTRESS_URL = TERRAIN_IMAGE_HEADING + "fortress.gif";
-    private static final String HOUSE_URL = TERRAIN_IMAGE_HEADING + "house.gif";
-    private static final String MOUNTAIN_URL = TERRAIN_IMAGE_HEADING + "mountain.gif";
-    private static final String PEAK_URL = TERRAIN_IMAGE_HEADING + "peak.gif";
-    private static final String THRONE_URL = TERRAIN_IMAGE_HEADING + "throne.gif";
-    
     public static final String PLAIN_SYMBOL = "G"; // symbols in file that represent a certain terrain type; g for grass
     public static final String FOREST_SYMBOL = "T"; // t for tree
     public static final String FORT_SYMBOL = "F"; // f for fort
@@ -35,19 +23,18 @@ public class BattleField extends JPanel implements ImageObserver
     public static final String PEAK_SYMBOL = "P"; // p for peak
     public static final String CHAIR_SYMBOL = "C"; // c for chair
     
-    private static final int NO_DELAY = 1; // the values of delay that the terrain type gives to movement
-    private static final int FOREST_DELAY = 2;
-    private static final int OCEAN_DELAY = 100; // basically, impassable
-    private static final int MOUNTAIN_DELAY = 3;
-    private static final int PEAK_DELAY = 4;
+    public static final int MAX_SIDES = 4; // the maximum number of sides that can occupy the field
     
-    private Rectangle2D.Double[][] field; // the array of grids in the field
-    private boolean[][] empty; // the array of grids representing if that part is empty or not
-    private int[][] contains; // the array of grids representing the side of the unit contained there (-1 = no unit)
-    private String[][] terrain; // the array of grids representing the terrain type there
+    private long[][] occupied; // one bitset per side marking the grids its units stand on (bit y*width + x)
+    private Unit[] unitAt; // the unit standing on each grid, in row-major order (null = no unit)
+    private byte[] terrain; // the terrain code of each grid, in row-major order (index y*width + x)
+    private byte[][] cost; // the movement delay of each grid for each side, enemies folded in, with a border
+                           // of impassable grids around the field (see costIndexOf; null = side not yet in play)
     
     private int width, height; // the dimensions of the field
     
+    private ArrayList<Unit> units; // the units whose movement ranges depend on the field
+    
     private File fieldFile; // the file containing the battle field information
     private String fileName; // the file name, without any directories
     
@@ -58,19 +45,12 @@ public class BattleField extends JPanel implements ImageObserver
     {
         width = awidth;
         height = aheight;
+        units = new ArrayList<Unit>();
         
-        field = new Rectangle2D.Double[width][height];
-        empty = new boolean[width][height];
-        contains = new int[width][height];
-        for (int i = 0; i < width; i++)
-        {
-            for (int j = 0; j < height; j++)
-            {
-                field[i][j] = new Rectangle2D.Double(GRID_SIZE*i, GRID_SIZE*j, GRID_SIZE, GRID_SIZE);
-                empty[i][j] = true;
-                contains[i][j] = -1;
-            }
-        }
+        occupied = new long[MAX_SIDES][(width*height + 63)/64];
+        unitAt = new Unit[width*height];
+        terrain = new byte[width*height]; // all plains
+        cost = new byte[MAX_SIDES][];
     }
     
     /**
@@ -81,10 +61,36 @@ public class BattleField extends JPanel implements ImageObserver
     {
         fileName = aFileName;
         fieldFile = new File(FIELD_DIRECTORY + fileName + FILE_TYPE);
+        units = new ArrayList<Unit>();
         
         readFieldFile();
     }
     
+    /**
+     * Creates a copy of the specified battlefield with the same grids occupied.
+     * The terrain is shared, since it never changes once read; no units are registered,
+     * and the copies of the units standing on it must be filled in again (see fill).
+     */
+    public BattleField(BattleField aField)
+    {
+        width = aField.width;
+        height = aField.height;
+        fileName = aField.fileName;
+        fieldFile = aField.fieldFile;
+        units = new ArrayList<Unit>();
+        
+        terrain = aField.terrain;
+        unitAt = new Unit[width*height];
+        occupied = new long[MAX_SIDES][];
+        cost = new byte[MAX_SIDES][];
+        for (int s = 0; s < MAX_SIDES; s++)
+        {
+            occupied[s] = aField.occupied[s].clone();
+            if (aField.cost[s] != null)
+                cost[s] = aField.cost[s].clone();
+        }
+    }
+    
     /**
      * Returns the frame's x-coordinate that corresponds to the specified grid coordinates.
      * Returns -1 if coordinate not on grid.
@@ -121,6 +127,23 @@ public class BattleField extends JPanel implements ImageObserver
         return y*GRID_SIZE;
     }
     
+    /**
+     * Returns the rectangle of grid coordinates covering the specified rectangle of canvas coordinates:
+     * every grid at least partly inside it, including those whose outline (drawn one pixel past
+     * their right and bottom edges) reaches into it. Returns null if the rectangle is null.
+     */
+    public static Rectangle gridsWithin(Rectangle area)
+    {
+        if (area == null)
+            return null;
+        
+        int left = (int)Math.floor((double)(area.x - 1)/GRID_SIZE);
+        int top = (int)Math.floor((double)(area.y - 1)/GRID_SIZE);
+        int right = (int)Math.floor((double)(area.x + area.width - 1)/GRID_SIZE);
+        int bottom = (int)Math.floor((double)(area.y + area.height - 1)/GRID_SIZE);
+        return new Rectangle(left, top, right - left + 1, bottom - top + 1);
+    }
+    
     /**
      * Returns the total number of grid squares in the width.
      */
@@ -162,12 +185,21 @@ public class BattleField extends JPanel implements ImageObserver
     }
     
     /**
-     * Fills the specified space.
+     * Fills the space the specified unit stands on with it.
      */
-    public void fill(Location loc, int side)
+    public void fill(Unit unit)
     {
-        empty[loc.x()][loc.y()] = false;
-        contains[loc.x()][loc.y()] = side;
+        Location loc = unit.getLoc();
+        int side = unit.getSide();
+        int index = indexOf(loc.x(), loc.y());
+        int oldSide = sideAt(index);
+        if (oldSide != -1)
+            occupied[oldSide][index >> 6] &= ~(1L << index);
+        occupied[side][index >> 6] |= 1L << index;
+        unitAt[index] = unit;
+        updateCost(loc.x(), loc.y(), side);
+        
+        occupancyChanged(loc.x(), loc.y(), side);
     }
     
     /**
@@ -175,24 +207,199 @@ public class BattleField extends JPanel implements ImageObserver
      */
     public void empty(Location loc)
     {
-        empty[loc.x()][loc.y()] = true;
-        contains[loc.x()][loc.y()] = -1;
+        int index = indexOf(loc.x(), loc.y());
+        int oldSide = sideAt(index);
+        
+        if (oldSide != -1)
+        {
+            occupied[oldSide][index >> 6] &= ~(1L << index);
+            unitAt[index] = null;
+            updateCost(loc.x(), loc.y(), -1);
+            occupancyChanged(loc.x(), loc.y(), oldSide);
+        }
+    }
+    
+    /**
+     * Returns the unit standing on the specified grid coordinates.
+     * Returns null if there is no unit there or the coordinates are off the field.
+     */
+    public Unit getUnitAt(int x, int y)
+    {
+        if (!inBounds(x, y))
+            return null;
+        
+        return unitAt[indexOf(x, y)];
+    }
+    
+    /**
+     * Returns the unit standing on the specified grid coordinates.
+     * Returns null if there is no unit there or the coordinates are off the field.
+     */
+    public Unit getUnitAt(Location loc)
+    {
+        return getUnitAt(loc.x(), loc.y());
+    }
+    
+    /**
+     * Returns the units not on the specified side standing within the specified distance of the specified grid coordinates,
+     * nearest first. Only the grids within that distance are looked at, however many units are on the field.
+     */
+    public ArrayList<Unit> getEnemiesWithin(Location loc, int dist, int side)
+    {
+        ArrayList<Unit> enemies = new ArrayList<Unit>();
+        for (int d = 0; d <= dist; d++) // each ring of grids d away
+        {
+            for (int dx = -d; dx <= d; dx++)
+            {
+                int dy = d - Math.abs(dx);
+                addEnemyAt(enemies, loc.x() + dx, loc.y() + dy, side);
+                if (dy != 0)
+                    addEnemyAt(enemies, loc.x() + dx, loc.y() - dy, side);
+            }
+        }
+        return enemies;
+    }
+    
+    /**
+     * Adds the unit at the specified grid coordinates to the list if there is one and it is not on the specified side.
+     */
+    private void addEnemyAt(ArrayList<Unit> enemies, int x, int y, int side)
+    {
+        Unit unit = getUnitAt(x, y);
+        if (unit != null && unit.getSide() != side)
+            enemies.add(unit);
+    }
+    
+    /**
+     * Returns the side of the unit standing on the grid with the specified index (-1 = no unit).
+     */
+    private int sideAt(int index)
+    {
+        for (int i = 0; i < MAX_SIDES; i++)
+            if ((occupied[i][index >> 6] & (1L << index)) != 0)
+                return i;
+        return -1;
+    }
+    
+    /**
+     * Returns the row-major index of the specified grid coordinates.
+     */
+    private int indexOf(int x, int y)
+    {
+        return y*width + x;
+    }
+    
+    /**
+     * Creates the movement cost grid of the specified side from the terrain and the units standing on the field.
+     * The grid is one wider on every edge than the field; the border is impassable,
+     * so a neighbour of any grid on the field can be looked up without a bounds check.
+     */
+    private byte[] createCostGrid(int side)
+    {
+        byte[] moveCost = new byte[Terrain.values().length]; // every cost fits, since none is above IMPASSABLE
+        for (int k = 0; k < moveCost.length; k++)
+            moveCost[k] = (byte)Terrain.fromCode(k).getMoveCost();
+        
+        int stride = width + 2;
+        byte[] grid = new byte[stride*(height + 2)];
+        Arrays.fill(grid, (byte)Terrain.IMPASSABLE);
+        for (int y = 0; y < height; y++) // row by row, the order both arrays are laid out in
+        {
+            int from = indexOf(0, y);
+            int to = costIndexOf(0, y);
+            for (int x = 0; x < width; x++)
+                grid[to + x] = moveCost[terrain[from + x]];
+        }
+        
+        for (int s = 0; s < MAX_SIDES; s++) // grids already holding an enemy
+        {
+            if (s == side)
+                continue;
+            long[] bits = occupied[s];
+            for (int w = 0; w < bits.length; w++)
+            {
+                for (long word = bits[w]; word != 0; word &= word - 1)
+                {
+                    int index = w*64 + Long.numberOfTrailingZeros(word);
+                    grid[costIndexOf(index % width, index / width)] = (byte)Terrain.IMPASSABLE;
+                }
+            }
+        }
+        return grid;
+    }
+    
+    /**
+     * Updates the movement cost at the specified coordinates of every side in play
+     * after the side standing there changed (-1 = no unit).
+     */
+    private void updateCost(int x, int y, int occupant)
+    {
+        byte moveCost = (byte)Terrain.fromCode(terrain[indexOf(x, y)]).getMoveCost();
+        int index = costIndexOf(x, y);
+        for (int s = 0; s < MAX_SIDES; s++)
+        {
+            if (cost[s] == null) // not in play; built from the occupancy when it is
+                continue;
+            if (occupant != -1 && occupant != s) // an enemy stands there
+                cost[s][index] = (byte)Terrain.IMPASSABLE;
+            else
+                cost[s][index] = moveCost;
+        }
+    }
+    
+    /**
+     * Returns the index of the specified grid coordinates in the movement cost grids.
+     * Valid for every grid on the field and the ring of grids just outside it.
+     */
+    public int costIndexOf(int x, int y)
+    {
+        return (y + 1)*(width + 2) + (x + 1);
+    }
+    
+    /**
+     * Returns the distance between vertically adjacent grids in the movement cost grids.
+     */
+    public int getCostStride()
+    {
+        return width + 2;
+    }
+    
+    /**
+     * Returns the movement cost grid of the specified side, indexed by costIndexOf.
+     * Grids holding an enemy of the side are impassable. The grid is only built the first time
+     * a side asks for it, so a field with fewer than MAX_SIDES sides keeps fewer grids. The array must not be changed.
+     */
+    public byte[] getCostGrid(int side)
+    {
+        if (cost[side] == null)
+            cost[side] = createCostGrid(side);
+        return cost[side];
+    }
+    
+    /**
+     * Registers the specified unit so that it is told when a space is filled or emptied.
+     */
+    public void register(Unit unit)
+    {
+        units.add(unit);
     }
     
     /**
-     * Returns the itself as a panel.
+     * Tells every registered unit that the specified coordinates were filled or emptied by the specified side.
      */
-    public JPanel getPanel()
+    private void occupancyChanged(int x, int y, int side)
     {
-        return this;
+        for (int i = 0; i < units.size(); i++)
+            units.get(i).occupancyChanged(x, y, side);
     }
     
     /**
-     * Returns whether or not the specified grid coordinates contain
+     * Returns whether or not the specified grid coordinates contain no unit.
+     * Coordinates off the field are never empty.
      */
     public boolean isEmpty(Location loc)
     {
-        return empty[loc.x()][loc.y()];
+        return inBounds(loc) && sideAt(indexOf(loc.x(), loc.y())) == -1;
     }
     
     /**
@@ -208,30 +415,10 @@ public class BattleField extends JPanel implements ImageObserver
      */
     public int delayAt(int x, int y, int side)
     {
-        try
-        {
-            String terrain = terrainAt(x,y);
-            int delay;
-            if (terrain.equals(OCEAN_SYMBOL))
-                delay =  OCEAN_DELAY;
-            else if (terrain.equals(FOREST_SYMBOL))
-                delay = FOREST_DELAY;
-            else if (terrain.equals(MOUNTAIN_SYMBOL))
-                delay = MOUNTAIN_DELAY;
-            else if (terrain.equals(PEAK_SYMBOL))
-                delay = PEAK_DELAY;
-            else
-                delay = NO_DELAY;
-                
-            if (side != contains[x][y] && contains[x][y] != -1) // if the location has an enemy on it
-                delay = 100; // impassable
-                
-            return delay;
-        }
-        catch (ArrayIndexOutOfBoundsException e) // coordinate not on battle field
-        {
-            return 100; // impassable
-        }
+        if (x < -1 || x > width || y < -1 || y > height) // beyond the impassable border
+            return Terrain.IMPASSABLE;
+        
+        return getCostGrid(side)[costIndexOf(x, y)];
     }
             
     /**
@@ -239,7 +426,7 @@ public class BattleField extends JPanel implements ImageObserver
      */
     public String terrainAt(Location loc)
     {
-        return terrain[loc.x()][loc.y()];
+        return terrainAt(loc.x(), loc.y());
     }
     
     /**
@@ -247,7 +434,23 @@ public class BattleField extends JPanel implements ImageObserver
      */
     public String terrainAt(int x, int y)
     {
-        return terrain[x][y];
+        return terrainTypeAt(x, y).getSymbol();
+    }
+    
+    /**
+     * Returns the kind of terrain at the specified coordinates.
+     */
+    public Terrain terrainTypeAt(Location loc)
+    {
+        return terrainTypeAt(loc.x(), loc.y());
+    }
+    
+    /**
+     * Returns the kind of terrain at the specified coordinates.
+     */
+    public Terrain terrainTypeAt(int x, int y)
+    {
+        return Terrain.fromCode(terrain[indexOf(x, y)]);
     }
     
     /**
@@ -275,123 +478,119 @@ public class BattleField extends JPanel implements ImageObserver
     }
     
     /**
-     * Reads the battle field file.
+     * Reads the battle field file, from its compiled form if it is up to date (see CompiledAsset).
      */
     private void readFieldFile()
     {
         try
         {
-            Scanner in = new Scanner(new FileInputStream(fieldFile));
-            
-            width = nextIntInFile(in);
-            height = nextIntInFile(in);
-            
-            field = new Rectangle2D.Double[width][height];
-            empty = new boolean[width][height];
-            contains = new int[width][height];
-            
-            for (int i = 0; i < width; i++)
+            ByteBuffer compiled = CompiledAsset.open(fieldFile, CompiledAsset.FIELD_MAGIC);
+            if (compiled == null || !readCompiledFile(compiled)) // no usable compiled file
             {
-                for (int j = 0; j < height; j++)
+                DataFileReader in = new DataFileReader(fieldFile);
+                try
                 {
-                    field[i][j] = new Rectangle2D.Double(GRID_SIZE*i, GRID_SIZE*j, GRID_SIZE, GRID_SIZE);
-                    empty[i][j] = true;
-                    contains[i][j] = -1;
+                    width = in.nextIntValue();
+                    height = in.nextIntValue();
+                    terrain = readWholeFile(in);
+                }
+                finally
+                {
+                    in.close();
                 }
             }
             
-            terrain = readWholeFile(in);
+            occupied = new long[MAX_SIDES][(width*height + 63)/64];
+            unitAt = new Unit[width*height];
+            cost = new byte[MAX_SIDES][];
+        }
+        catch (IOException e)
+        {
+            System.out.println(e);
+            if (terrain == null || terrain.length != width*height) // cut short
+                terrain = new byte[width*height];
+            occupied = new long[MAX_SIDES][(width*height + 63)/64];
+            unitAt = new Unit[width*height];
+            cost = new byte[MAX_SIDES][];
         }
-        catch (IOException e) {}
     }
     
     /**
-     * Reads the file using the specified scanner and returns each seperate token in a string[][].
+     * Reads the dimensions and terrain codes from the body of a compiled battle field file.
+     * Returns false, leaving the battle field as it was, if the file is cut short or its dimensions make no sense
+     * (not positive, or more grids than the bytes left in the file).
      */
-    private String[][] readWholeFile(Scanner in)
+    private boolean readCompiledFile(ByteBuffer in)
     {
-        String[][] tokens = new String[width][height];
+        if (in.remaining() < 8)
+            return false;
+        int newWidth = in.getInt();
+        int newHeight = in.getInt();
+        if (newWidth <= 0 || newHeight <= 0 || (long)newWidth*newHeight > in.remaining()) // corrupt
+            return false;
         
-        for (int i = 0; i < height; i++)
-        {
-            for (int j = 0; j < width; j++)
-            {
-                tokens[j][i] = in.next();
-            }
-        }
+        width = newWidth;
+        height = newHeight;
+        terrain = new byte[width*height];
+        in.get(terrain);
         
-        return tokens;
+        for (int i = 0; i < terrain.length; i++)
+            if (!Terrain.isCode(terrain[i])) // written by a newer version
+                terrain[i] = Terrain.GRASS.getCode();
+        return true;
     }
     
     /**
-     * Returns if the coordinates are valid or not (in bounds).
+     * Saves the battle field into the compiled form of its file: the width and height, then one terrain code per grid
+     * in row-major order.
      */
-    public boolean inBounds(int x, int y)
+    public void saveCompiledFile() throws IOException
     {
-        return (0 <= x) && (x < width) && (0 <= y) && (y < height);
+        DataOutputStream out = CompiledAsset.create(fieldFile, CompiledAsset.FIELD_MAGIC);
+        try
+        {
+            out.writeInt(width);
+            out.writeInt(height);
+            out.write(terrain);
+        }
+        finally
+        {
+            out.close();
+        }
     }
     
     /**
-     * Returns if the coordinates are valid or not (in bounds).
+     * Reads the rest of the file using the specified reader and returns the terrain code of each grid in row-major order.
+     * Unknown symbols are read as plains.
      */
-    public boolean inBounds(Location loc)
+    private byte[] readWholeFile(DataFileReader in) throws IOException
     {
-        return inBounds(loc.x(), loc.y());
+        byte[] codes = new byte[width*height];
+        String[] symbols = Terrain.getSymbols();
+        
+        for (int i = 0; i < codes.length; i++)
+        {
+            int code = in.nextSymbol(symbols);
+            codes[i] = code == -1 ? Terrain.GRASS.getCode() : (byte)code;
+        }
+        
+        return codes;
     }
     
     /**
-     * Returns the next integer in the file with the specified scanner.
+     * Returns if the coordinates are valid or not (in bounds).
      */
-    private int nextIntInFile(Scanner in)
+    public boolean inBounds(int x, int y)
     {
-        while (!in.hasNextInt())
-        {
-            in.next();
-        }
-        return in.nextInt();
+        return (0 <= x) && (x < width) && (0 <= y) && (y < height);
     }
-   
+    
     /**
-     * Paints the battlefield onto the canvas.
+     * Returns if the coordinates are valid or not (in bounds).
      */
-    public void paintComponent(Graphics g)
+    public boolean inBounds(Location loc)
     {
-        Graphics2D g2 = (Graphics2D) g;
-        
-        Image plainImg = Toolkit.getDefaultToolkit().getImage(GRASS_URL);
-        Image forestImg = Toolkit.getDefaultToolkit().getImage(FOREST_URL);
-        Image fortImg = Toolkit.getDefaultToolkit().getImage(FORTRESS_URL);
-        Image oceanImg = Toolkit.getDefaultToolkit().getImage(OCEAN_URL);
-        Image houseImg = Toolkit.getDefaultToolkit().getImage(HOUSE_URL);
-        Image mountainImg = Toolkit.getDefaultToolkit().getImage(MOUNTAIN_URL);
-        Image peakImg = Toolkit.getDefaultToolkit().getImage(PEAK_URL);
-        Image chairImg = Toolkit.getDefaultToolkit().getImage(THRONE_URL);
-        
-        for (int i = 0; i < width; i++)
-        {
-            for (int j = 0; j < height; j++)
-            {
-                if (terrain[i][j].equals(PLAIN_SYMBOL))
-                    g2.drawImage(plainImg, Math.round((float)field[i][j].getX()), Math.round((float)field[i][j].getY()), GRID_SIZE, GRID_SIZE, this);
-                else if (terrain[i][j].equals(FOREST_SYMBOL))
-                    g2.drawImage(forestImg, Math.round((float)field[i][j].getX()), Math.round((float)field[i][j].getY()), GRID_SIZE, GRID_SIZE, this);
-                else if (terrain[i][j].equals(OCEAN_SYMBOL))
-                    g2.drawImage(oceanImg, Math.round((float)field[i][j].getX()), Math.round((float)field[i][j].getY()), GRID_SIZE, GRID_SIZE, this);
-                else if (terrain[i][j].equals(FORT_SYMBOL))
-                    g2.drawImage(fortImg, Math.round((float)field[i][j].getX()), Math.round((float)field[i][j].getY()), GRID_SIZE, GRID_SIZE, this);
-                else if (terrain[i][j].equals(HOUSE_SYMBOL))
-                    g2.drawImage(houseImg, Math.round((float)field[i][j].getX()), Math.round((float)field[i][j].getY()), GRID_SIZE, GRID_SIZE, this);
-                else if (terrain[i][j].equals(MOUNTAIN_SYMBOL))
-                    g2.drawImage(mountainImg, Math.round((float)field[i][j].getX()), Math.round((float)field[i][j].getY()), GRID_SIZE, GRID_SIZE, this);
-                else if (terrain[i][j].equals(PEAK_SYMBOL))
-                    g2.drawImage(peakImg, Math.round((float)field[i][j].getX()), Math.round((float)field[i][j].getY()), GRID_SIZE, GRID_SIZE, this);
-                else if (terrain[i][j].equals(CHAIR_SYMBOL))
-                    g2.drawImage(chairImg, Math.round((float)field[i][j].getX()), Math.round((float)field[i][j].getY()), GRID_SIZE, GRID_SIZE, this);
-                    
-                g2.drawRect(Math.round((float)field[i][j].getX()), Math.round((float)field[i][j].getY()), GRID_SIZE, GRID_SIZE);
-            }
-        }
- 
+        return inBounds(loc.x(), loc.y());
     }
     
 } // END CLASS
\ No newline at end of file
@@ -0,0 +1,135 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.*;
+
+/**
+ * Paints the terrain and grid lines of a battlefield.
+ * The battlefield itself only holds the state of the grids, so copies of it (such as the ones the AI plays out battles on)
+ * never build a component or any images.
+ */
+public class BattleFieldView extends JPanel
+{
+    private static final String TERRAIN_IMAGE_HEADING = "images/terrain/"; // directory of terrain images
+    
+    private static final int CHUNK = 16; // the width and height in grids of each piece of the pre-rendered terrain
+    
+    private BattleField field; // the battlefield painted
+    
+    private BufferedImage tiles; // every terrain image side by side, in terrain code order (see ImageCache.getAtlas)
+    private int tileSize; // the grid size the tiles were scaled to
+    private BufferedImage[] layer; // the terrain and grid lines pre-rendered in CHUNK x CHUNK pieces, row by row (null = not yet rendered)
+    private int layerSize; // the grid size the layer was rendered at
+    
+    /**
+     * Creates a view of the specified battlefield.
+     */
+    public BattleFieldView(BattleField aField)
+    {
+        field = aField;
+    }
+    
+    /**
+     * Returns the battlefield painted.
+     */
+    public BattleField getField()
+    {
+        return field;
+    }
+    
+    /**
+     * Paints the battlefield onto the canvas.
+     * Only the pieces of the pre-rendered terrain that intersect the clip are drawn,
+     * and each piece is only rendered the first time it is needed.
+     */
+    public void paintComponent(Graphics g)
+    {
+        Graphics2D g2 = (Graphics2D) g;
+        int gridSize = BattleField.GRID_SIZE;
+        
+        if (layer == null || layerSize != gridSize) // first paint, or grids resized
+        {
+            layer = new BufferedImage[chunksAcross()*chunksDown()];
+            layerSize = gridSize;
+        }
+        
+        int chunkPixels = CHUNK*gridSize;
+        int firstX = 0, firstY = 0;
+        int lastX = chunksAcross() - 1, lastY = chunksDown() - 1;
+        Rectangle clip = g2.getClipBounds();
+        if (clip != null) // only the chunks that can be seen
+        {
+            firstX = Math.max(firstX, clip.x/chunkPixels);
+            firstY = Math.max(firstY, clip.y/chunkPixels);
+            lastX = Math.min(lastX, (clip.x + clip.width)/chunkPixels);
+            lastY = Math.min(lastY, (clip.y + clip.height)/chunkPixels);
+        }
+        
+        for (int cy = firstY; cy <= lastY; cy++)
+        {
+            for (int cx = firstX; cx <= lastX; cx++)
+            {
+                int index = cy*chunksAcross() + cx;
+                if (layer[index] == null)
+                    layer[index] = renderChunk(cx, cy, g2.getColor());
+                g2.drawImage(layer[index], cx*chunkPixels, cy*chunkPixels, null);
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of chunks the pre-rendered terrain is split into across the field.
+     */
+    private int chunksAcross()
+    {
+        return (field.getTotalWidth() + CHUNK - 1)/CHUNK;
+    }
+    
+    /**
+     * Returns the number of chunks the pre-rendered terrain is split into down the field.
+     */
+    private int chunksDown()
+    {
+        return (field.getTotalHeight() + CHUNK - 1)/CHUNK;
+    }
+    
+    /**
+     * Renders the terrain and grid lines of the chunk at the specified chunk coordinates into a new image.
+     * The image is one pixel wider and taller than the chunk so the grid lines on its right and bottom edges are kept.
+     */
+    private BufferedImage renderChunk(int cx, int cy, Color lineColor)
+    {
+        int gridSize = BattleField.GRID_SIZE;
+        if (tiles == null || tileSize != gridSize)
+        {
+            Terrain[] kinds = Terrain.values();
+            String[] paths = new String[kinds.length];
+            for (int k = 0; k < kinds.length; k++)
+                paths[k] = TERRAIN_IMAGE_HEADING + kinds[k].getImageName();
+            tiles = ImageCache.getAtlas(paths, gridSize);
+            tileSize = gridSize;
+        }
+        
+        int left = cx*CHUNK, top = cy*CHUNK;
+        int across = Math.min(CHUNK, field.getTotalWidth() - left), down = Math.min(CHUNK, field.getTotalHeight() - top);
+        BufferedImage chunk = ImageCache.createImage(across*gridSize + 1, down*gridSize + 1);
+        
+        Graphics2D g2 = chunk.createGraphics();
+        g2.setColor(lineColor);
+        for (int i = 0; i < across; i++)
+        {
+            for (int j = 0; j < down; j++)
+            {
+                int x = gridSize*i; // position within the chunk
+                int y = gridSize*j;
+                
+                int tileX = field.terrainTypeAt(left + i, top + j).getCode()*gridSize; // where the tile starts in the atlas
+                g2.drawImage(tiles, x, y, x + gridSize, y + gridSize, tileX, 0, tileX + gridSize, gridSize, null);
+                g2.drawRect(x, y, gridSize, gridSize);
+            }
+        }
+        g2.dispose();
+        
+        return chunk;
+    }
+
+} // END CLASS
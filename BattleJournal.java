@@ -0,0 +1,374 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Records every command carried out in a battle, so the battle can be replayed exactly (see BattleReplay).
+ * A journal starts with a header of MAGIC and VERSION and a snapshot of the battle as it was when the journal began
+ * (see BattleEngine.getSnapshot), which holds the state of the random numbers. One record follows per command:
+ * a byte giving its kind, the side and index of the unit it is for, then the rest of the command.
+ * Attacks, ends of turns, undos and redos also keep the state of the random numbers, so every roll replays the same way.
+ * Records are only ever added to the end of the file. They are buffered, then written at the end of every turn,
+ * every FLUSH_INTERVAL milliseconds by a background thread (so records made just before the player stops are not kept
+ * in memory for long), and when the journal is closed (or the game exits).
+ * Only the newest KEPT_JOURNALS journals are kept (see deleteOldJournals).
+ */
+public class BattleJournal
+{
+    public static final String JOURNAL_DIRECTORY = "Journals/"; // directory of journals
+    public static final String FILE_TYPE = ".jrn"; // the extension of journals
+    public static final int MAGIC = 0x544A524E; // "TJRN", the start of a journal
+    public static final int VERSION = 2; // the version of the format written (1 had no actions, undos or redos)
+    public static final int KEPT_JOURNALS = 10; // the number of journals kept in JOURNAL_DIRECTORY
+    
+    // the kinds of record, each followed by the side (byte) and index (short) of its unit unless noted
+    public static final byte MOVE = 1; // then the x and y (shorts) moved to
+    public static final byte PRIMARY_WPN = 2; // then the index (byte) of the weapon made primary
+    public static final byte USE_ITEM = 3; // then the index (byte) of the item used
+    public static final byte DISABLE = 4; // nothing more (the unit is done for the turn)
+    public static final byte ATTACK = 5; // then the target's side (byte) and index (short), and the random state (long)
+    public static final byte COUNTER_ATTACK = 6; // then the attacker's side (byte) and index (short), and the random state (long)
+    public static final byte END_TURN = 7; // no unit, just the random state (long)
+    public static final byte BEGIN_ACTION = 8; // no unit, nothing more (see BattleEngine.beginAction)
+    public static final byte UNDO = 9; // no unit, just the random state (long) afterwards
+    public static final byte REDO = 10; // no unit, just the random state (long) afterwards
+    
+    private static final int MAX_RECORD = 16; // the most bytes in a record
+    private static final int BUFFER_SIZE = 8*1024; // the number of bytes kept before they are written
+    private static final long FLUSH_INTERVAL = 1000; // the longest records are kept before they are written, in milliseconds
+    
+    private static ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "Journal");
+                t.setDaemon(true); // never keeps the game open (open journals are closed on exit instead)
+                return t;
+            }
+        }); // writes the records of every open journal every FLUSH_INTERVAL
+    
+    private File file; // the journal file
+    private FileChannel channel; // the channel of the file (null = closed)
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE); // the records not written yet
+    private int records; // the number of records so far
+    private Thread closer; // closes the journal if the game exits while it is open
+    private ScheduledFuture<?> flushing; // writes the records every FLUSH_INTERVAL while the journal is open
+    
+    /**
+     * Creates the specified journal file, beginning with the specified snapshot of the battle (see BattleEngine.getSnapshot).
+     */
+    public BattleJournal(File aFile, byte[] snapshot) throws IOException
+    {
+        file = aFile;
+        if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+        
+        ByteBuffer header = ByteBuffer.allocate(12 + snapshot.length);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(snapshot.length);
+        header.put(snapshot);
+        header.flip();
+        
+        channel = new FileOutputStream(file).getChannel();
+        try
+        {
+            while (header.hasRemaining())
+                channel.write(header);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+        flushing = flusher.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                flush();
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        
+        closer = new Thread("Close journal")
+        {
+            public void run()
+            {
+                close();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(closer);
+    }
+    
+    /**
+     * Returns a new journal file for a battle of the level with the specified name, named after the level and the time.
+     */
+    public static File newFileFor(String levelName)
+    {
+        String time = new SimpleDateFormat("yyyy-MM-dd HH-mm-ss").format(new Date());
+        return new File(JOURNAL_DIRECTORY + levelName + " " + time + FILE_TYPE);
+    }
+    
+    /**
+     * Deletes the oldest journals in JOURNAL_DIRECTORY, keeping the newest KEPT_JOURNALS - 1,
+     * to make room for a new one.
+     */
+    public static void deleteOldJournals()
+    {
+        File[] journals = new File(JOURNAL_DIRECTORY).listFiles();
+        if (journals == null) // no journals yet
+            return;
+        
+        ArrayList<File> found = new ArrayList<File>();
+        for (int i = 0; i < journals.length; i++)
+            if (journals[i].getName().endsWith(FILE_TYPE))
+                found.add(journals[i]);
+        Collections.sort(found, new Comparator<File>()
+        {
+            public int compare(File a, File b)
+            {
+                return Long.compare(b.lastModified(), a.lastModified()); // newest first
+            }
+        });
+        
+        for (int i = KEPT_JOURNALS - 1; i < found.size(); i++)
+            if (!found.get(i).delete())
+                System.out.println("Could not delete the old battle journal " + found.get(i));
+    }
+    
+    /**
+     * Returns the journal file.
+     */
+    public File getFile()
+    {
+        return file;
+    }
+    
+    /**
+     * Returns the number of commands recorded so far.
+     */
+    public int getRecordCount()
+    {
+        return records;
+    }
+    
+    /**
+     * Records the unit at the specified index of the specified side moving to the specified grid.
+     */
+    public synchronized void move(int side, int index, int x, int y)
+    {
+        if (!begin(MOVE, side, index))
+            return;
+        buffer.putShort((short)x);
+        buffer.putShort((short)y);
+        end();
+    }
+    
+    /**
+     * Records the unit at the specified index of the specified side making the weapon at the specified index its primary one.
+     */
+    public synchronized void setPrimaryWpn(int side, int index, int wpnIndex)
+    {
+        if (!begin(PRIMARY_WPN, side, index))
+            return;
+        buffer.put((byte)wpnIndex);
+        end();
+    }
+    
+    /**
+     * Records the unit at the specified index of the specified side using the item at the specified index.
+     */
+    public synchronized void useItem(int side, int index, int itemIndex)
+    {
+        if (!begin(USE_ITEM, side, index))
+            return;
+        buffer.put((byte)itemIndex);
+        end();
+    }
+    
+    /**
+     * Records the unit at the specified index of the specified side finishing its turn.
+     */
+    public synchronized void disable(int side, int index)
+    {
+        if (!begin(DISABLE, side, index))
+            return;
+        end();
+    }
+    
+    /**
+     * Records the unit at the specified index of the specified side attacking the specified target,
+     * with the battle's random numbers in the specified state.
+     */
+    public synchronized void attack(int side, int index, int targetSide, int targetIndex, long randState)
+    {
+        if (!begin(ATTACK, side, index))
+            return;
+        buffer.put((byte)targetSide);
+        buffer.putShort((short)targetIndex);
+        buffer.putLong(randState);
+        end();
+    }
+    
+    /**
+     * Records the defender at the specified index of the specified side counter attacking the specified attacker
+     * (if it can), with the battle's random numbers in the specified state.
+     */
+    public synchronized void counterAttack(int side, int index, int atkSide, int atkIndex, long randState)
+    {
+        if (!begin(COUNTER_ATTACK, side, index))
+            return;
+        buffer.put((byte)atkSide);
+        buffer.putShort((short)atkIndex);
+        buffer.putLong(randState);
+        end();
+    }
+    
+    /**
+     * Records the current side ending its turn, with the battle's random numbers in the specified state,
+     * and writes every record so far.
+     */
+    public synchronized void endTurn(long randState)
+    {
+        if (channel == null)
+            return;
+        makeRoom();
+        buffer.put(END_TURN);
+        buffer.putLong(randState);
+        records++;
+        flush();
+    }
+    
+    /**
+     * Records a new action starting.
+     */
+    public synchronized void beginAction()
+    {
+        if (!begin(BEGIN_ACTION))
+            return;
+        end();
+    }
+    
+    /**
+     * Records the last action being undone, leaving the battle's random numbers in the specified state.
+     */
+    public synchronized void undo(long randState)
+    {
+        if (!begin(UNDO))
+            return;
+        buffer.putLong(randState);
+        end();
+    }
+    
+    /**
+     * Records the last action undone being redone, leaving the battle's random numbers in the specified state.
+     */
+    public synchronized void redo(long randState)
+    {
+        if (!begin(REDO))
+            return;
+        buffer.putLong(randState);
+        end();
+    }
+    
+    /**
+     * Starts a record of the specified kind with no unit.
+     * Returns false (and starts nothing) if the journal is closed.
+     */
+    private boolean begin(byte kind)
+    {
+        if (channel == null)
+            return false;
+        makeRoom();
+        buffer.put(kind);
+        return true;
+    }
+    
+    /**
+     * Starts a record of the specified kind for the unit at the specified index of the specified side.
+     * Returns false (and starts nothing) if the journal is closed.
+     */
+    private boolean begin(byte kind, int side, int index)
+    {
+        if (!begin(kind))
+            return false;
+        buffer.put((byte)side);
+        buffer.putShort((short)index);
+        return true;
+    }
+    
+    /**
+     * Finishes a record.
+     */
+    private void end()
+    {
+        records++;
+    }
+    
+    /**
+     * Writes the records so far if there may not be room for another one.
+     */
+    private void makeRoom()
+    {
+        if (buffer.remaining() < MAX_RECORD)
+            flush();
+    }
+    
+    /**
+     * Writes every record so far to the file.
+     * If they cannot be written, the journal is closed (the battle carries on without one).
+     */
+    public synchronized void flush()
+    {
+        if (channel == null || buffer.position() == 0) // closed, or nothing to write
+            return;
+        
+        buffer.flip();
+        try
+        {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not write the battle journal " + file + ": " + e);
+            closeChannel();
+        }
+        buffer.clear();
+    }
+    
+    /**
+     * Writes every record so far and closes the file. Nothing more is recorded.
+     */
+    public synchronized void close()
+    {
+        flush();
+        closeChannel();
+        
+        try
+        {
+            Runtime.getRuntime().removeShutdownHook(closer);
+        }
+        catch (IllegalStateException e) {} // already exiting
+    }
+    
+    /**
+     * Closes the channel of the file, and stops writing the records every FLUSH_INTERVAL.
+     */
+    private void closeChannel()
+    {
+        if (channel == null)
+            return;
+        
+        flushing.cancel(false);
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e) {}
+        channel = null;
+    }
+
+} // END CLASS
@@ -0,0 +1,208 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Replays a battle from its journal (see BattleJournal): the battle is restored from the snapshot the journal begins with,
+ * then each recorded command is carried out on it in turn, rolling the same numbers as it did when it was recorded.
+ * The AI never chooses again, so a replay runs as fast as the commands themselves.
+ * Step through the commands one at a time to show them as they happen (see Battle), or play them all without a screen.
+ * A journal cut short (such as by a crash while it was written) replays up to its last whole command.
+ * Run with the name of a journal file to replay it at full speed and print how long it took.
+ */
+public class BattleReplay
+{
+    private File journalFile; // the journal replayed
+    private ByteBuffer in; // the commands of the journal, from the next one to carry out
+    private BattleEngine engine; // the battle the commands are carried out on
+    private int commands; // the number of commands carried out so far
+    
+    /**
+     * Reads the specified journal file with a single read, and restores the battle as it was when the journal began.
+     */
+    public BattleReplay(File aJournalFile) throws IOException
+    {
+        journalFile = aJournalFile;
+        
+        FileChannel channel = new FileInputStream(journalFile).getChannel();
+        try
+        {
+            in = ByteBuffer.allocate((int)channel.size());
+            while (in.hasRemaining() && channel.read(in) != -1);
+            in.flip();
+        }
+        finally
+        {
+            channel.close();
+        }
+        
+        try
+        {
+            if (in.getInt() != BattleJournal.MAGIC)
+                throw new IOException(journalFile + " is not a battle journal");
+            int version = in.getInt();
+            if (version < 1 || version > BattleJournal.VERSION)
+                throw new IOException(journalFile + " was recorded by a different version");
+            
+            int length = in.getInt();
+            ByteBuffer snapshot = in.slice();
+            snapshot.limit(length);
+            engine = BattleEngine.readSnapshot(snapshot, journalFile.toString());
+            engine.setUndoable(true); // so undos and redos replay
+            in.position(in.position() + length);
+        }
+        catch (IllegalArgumentException e) // the snapshot is longer than the file
+        {
+            throw new IOException(journalFile + " is cut short");
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IOException(journalFile + " is cut short");
+        }
+    }
+    
+    /**
+     * Returns the battle being replayed.
+     */
+    public BattleEngine getEngine()
+    {
+        return engine;
+    }
+    
+    /**
+     * Returns the number of commands carried out so far.
+     */
+    public int getCommandCount()
+    {
+        return commands;
+    }
+    
+    /**
+     * Returns whether or not every command has been carried out.
+     */
+    public boolean isDone()
+    {
+        return !in.hasRemaining();
+    }
+    
+    /**
+     * Carries out the next command of the journal.
+     * Returns false if there are no more (whole) commands.
+     */
+    public boolean step()
+    {
+        if (!in.hasRemaining())
+            return false;
+        
+        int start = in.position();
+        try
+        {
+            byte kind = in.get();
+            if (kind == BattleJournal.END_TURN)
+            {
+                engine.getRandom().setState(in.getLong());
+                engine.endTurn();
+            }
+            else if (kind == BattleJournal.BEGIN_ACTION)
+            {
+                engine.beginAction();
+            }
+            else if (kind == BattleJournal.UNDO || kind == BattleJournal.REDO)
+            {
+                long randState = in.getLong();
+                if (kind == BattleJournal.UNDO)
+                    engine.undo();
+                else
+                    engine.redo();
+                engine.getRandom().setState(randState);
+            }
+            else
+            {
+                Unit theUnit = engine.getSide(in.get()).get(in.getShort());
+                if (kind == BattleJournal.MOVE)
+                {
+                    engine.moveUnit(theUnit, new Location(in.getShort(), in.getShort()));
+                }
+                else if (kind == BattleJournal.PRIMARY_WPN)
+                {
+                    engine.setPrimaryWpn(theUnit, in.get());
+                }
+                else if (kind == BattleJournal.USE_ITEM)
+                {
+                    engine.useItem(theUnit, in.get());
+                }
+                else if (kind == BattleJournal.DISABLE)
+                {
+                    engine.disable(theUnit);
+                }
+                else if (kind == BattleJournal.ATTACK || kind == BattleJournal.COUNTER_ATTACK)
+                {
+                    Unit other = engine.getSide(in.get()).get(in.getShort());
+                    engine.getRandom().setState(in.getLong());
+                    if (kind == BattleJournal.ATTACK)
+                        engine.attack(theUnit, other);
+                    else
+                        engine.counterAttack(other, theUnit);
+                }
+                else
+                {
+                    System.out.println(journalFile + " has an unknown command at byte " + start);
+                    in.position(in.limit());
+                    return false;
+                }
+            }
+        }
+        catch (BufferUnderflowException e) // the last command was cut short, so it is left out
+        {
+            in.position(in.limit());
+            return false;
+        }
+        
+        commands++;
+        return true;
+    }
+    
+    /**
+     * Carries out every command left in the journal, as fast as possible.
+     * Returns the number of commands carried out.
+     */
+    public int playAll()
+    {
+        int before = commands;
+        while (step());
+        return commands - before;
+    }
+    
+    /**
+     * Replays the journal file with the specified name at full speed, and prints how long it took and how the battle ended.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length == 0)
+        {
+            System.out.println("Run with the name of a journal file to replay");
+            return;
+        }
+        
+        try
+        {
+            long start = System.nanoTime();
+            BattleReplay replay = new BattleReplay(new File(args[0]));
+            int played = replay.playAll();
+            long elapsed = System.nanoTime() - start;
+            
+            BattleEngine battle = replay.getEngine();
+            System.out.println("Replayed " + played + " commands to turn " + battle.getTurn() + " in "
+                               + Math.round(elapsed/1000.0)/1000.0 + " ms");
+            if (battle.getVictorSide() == -1)
+                System.out.println("The battle was not over");
+            else
+                System.out.println("Side " + battle.getVictorSide() + " won");
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not replay " + args[0] + ": " + e);
+        }
+    }
+
+} // END CLASS
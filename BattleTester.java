@@ -1,6 +1,7 @@
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
+import java.io.*;
 
 /**
  * From where the program is run.
@@ -17,13 +18,33 @@ public class BattleTester extends JPanel implements KeyListener, ActionListener
     private Battle battle; // the current battle
     
     /**
-     * Creates the content pane.
+     * Creates the content pane, resuming the battle from its last snapshot if specified (see BattleEngine.saveSnapshot),
+     * or showing the replay of the specified journal file instead if one is given (see BattleReplay).
+     * The enemy attacks as well as moves if specified (see Battle.setAIAttacks).
      */
-    public BattleTester()
+    public BattleTester(boolean resume, String journalName, boolean aiAttacks)
     {
         super(new BorderLayout());
         
-        battle = new Battle("Tester Level");
+        if (journalName != null)
+        {
+            try
+            {
+                battle = new Battle(new BattleReplay(new File(journalName)));
+            }
+            catch (IOException e) { System.out.println("Could not replay the battle: " + e); }
+        }
+        else if (resume)
+        {
+            try
+            {
+                battle = new Battle(BattleEngine.loadSnapshot(new File(BattleEngine.CURRENT_SNAPSHOT)));
+            }
+            catch (IOException e) { System.out.println("Could not resume the battle: " + e); }
+        }
+        if (battle == null)
+            battle = new Battle("Tester Level");
+        battle.setAIAttacks(aiAttacks);
         
         setBorder(BorderFactory.createEmptyBorder(GAP,GAP,GAP,GAP));
         setBackground(Color.black);
@@ -42,24 +63,36 @@ public class BattleTester extends JPanel implements KeyListener, ActionListener
     
     /**
      * Main thread. From where the program is run.
+     * Run with "resume" to carry on the last battle from its snapshot,
+     * or with "replay" and the name of a journal file to watch that battle again.
+     * Add "fight" to let the enemy attack as well as move.
      */
     public static void main(String[] args)
     {
+        final boolean resume = args.length > 0 && args[0].equals("resume");
+        final String journalName = (args.length > 1 && args[0].equals("replay")) ? args[1] : null;
+        boolean fight = false;
+        for (int i = 0; i < args.length; i++)
+            if (args[i].equals("fight"))
+                fight = true;
+        final boolean aiAttacks = fight;
+        
         //Schedule a job for the event-dispatching thread:
         //creating and showing this application's GUI.
         javax.swing.SwingUtilities.invokeLater(new Runnable()
         {
             public void run()
             {
-                createAndShowGUI();
+                createAndShowGUI(resume, journalName, aiAttacks);
             }
         });
     }
     
     /**
-     * Creates and displays the GUI.
+     * Creates and displays the GUI, resuming the last battle if specified, or replaying the specified journal file (if any),
+     * with the enemy attacking if specified.
      */
-    private static void createAndShowGUI()
+    private static void createAndShowGUI(boolean resume, String journalName, boolean aiAttacks)
     {
         //Create and set up the window.
         JFrame frame = new JFrame("Battle Tester");
@@ -67,7 +100,7 @@ public class BattleTester extends JPanel implements KeyListener, ActionListener
         frame.setResizable(false);
         
         //Create and set up the content pane.
-        BattleTester contentPane = new BattleTester();
+        BattleTester contentPane = new BattleTester(resume, journalName, aiAttacks);
         contentPane.setOpaque(true);
         frame.setContentPane(contentPane);
         frame.setPreferredSize(new Dimension(WIDTH + 2*GAP, HEIGHT + 2*GAP));
@@ -121,7 +154,7 @@ public class BattleTester extends JPanel implements KeyListener, ActionListener
      */
     public void actionPerformed(ActionEvent e)
     {
-        updateUI();
+        battle.repaintDirty();
     }
     
     /**Required by KeyListener interface.**/
@@ -0,0 +1,598 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Measures the cost of common operations on large generated battlefields.
+ * Run with the name of the measurement as the first argument (default "footprint").
+ */
+public class Benchmark
+{
+    private static final int MAP_SIZE = 512; // the width and height of the generated battlefield
+    private static final int COPIES = 8; // the number of battlefields measured at once (averages out heap noise)
+    private static final int FOOTPRINT_SIDES = 2; // the number of sides whose movement cost grids are built
+    private static final String FOOTPRINT_FIELD = "Benchmark Footprint"; // the name of the battlefield file written (and deleted afterwards)
+    
+    private static final int VIEW_SIZE = 12*BattleField.GRID_SIZE; // the width and height of the battle view, in pixels
+    private static final int FRAMES = 200; // the number of frames painted per measurement
+    private static final String SCROLL_UNIT = "Drake"; // the unit copied across the field while scrolling
+    private static final String TILE_IMAGE = "images/terrain/" + Terrain.GRASS.getImageName(); // drawn for every grid by the old painting
+    
+    private static final int LOAD_SIZE = 1024; // the width and height of the battlefield loaded from file
+    private static final int LOADS = 5; // the number of times the battlefield is loaded per measurement
+    private static final String LOAD_FIELD = "Benchmark Load"; // the name of the battlefield file written (and deleted afterwards)
+    
+    private static final int PARSE_UNITS = 10000; // the number of units in the level parsed
+    private static final int PARSES = 10; // the number of times the level is parsed per measurement
+    private static final String PARSE_LEVEL = "Levels/Benchmark Parse.dat"; // the level file written (and deleted afterwards)
+    
+    private static final String REPLAY_LEVEL = "Tester Level"; // the level of the battles recorded and replayed
+    private static final int REPLAY_TURNS = 500; // the number of turns recorded and replayed, over as many battles as it takes
+    private static final long REPLAY_SEED = 1; // the seed of the first battle recorded (battle i uses REPLAY_SEED + i)
+    private static final String REPLAY_JOURNAL = "Benchmark Replay "; // the start of the name of each journal written (deleted afterwards)
+    
+    private static final String UNDO_LEVEL = "Tester Level"; // the level of the battle searched, undone and redone
+    private static final int PLAYOUTS = 2000; // the number of playouts per measurement
+    private static final int PLAYOUT_TURNS = 3; // the number of turns played in each playout
+    private static final long UNDO_SEED = 1; // the seed of the battle undone and redone
+    
+    /**
+     * Runs the measurement named by the first argument.
+     */
+    public static void main(String[] args)
+    {
+        String which = "footprint";
+        if (args.length > 0)
+            which = args[0];
+        
+        if (which.equals("footprint"))
+            footprint();
+        else if (which.equals("frames"))
+            frames();
+        else if (which.equals("scroll"))
+            scroll();
+        else if (which.equals("load"))
+            load();
+        else if (which.equals("parse"))
+            parse();
+        else if (which.equals("replay"))
+            replay();
+        else if (which.equals("undo"))
+            undo();
+        else
+            System.out.println("Unknown measurement: " + which);
+    }
+    
+    /**
+     * Prints the heap used by a MAP_SIZE x MAP_SIZE battlefield loaded from its text file, in the layout the battlefield
+     * had before its grids were stored in flat arrays (see OldLayout) and in the current one with the movement cost grids
+     * of FOOTPRINT_SIDES sides built. The file is written to the battlefield directory and deleted afterwards.
+     */
+    private static void footprint()
+    {
+        File textFile = new File("Battlefields/" + FOOTPRINT_FIELD + ".dat");
+        try
+        {
+            writeFieldFile(textFile, MAP_SIZE);
+            
+            OldLayout[] oldFields = new OldLayout[COPIES];
+            long before = usedMemory();
+            for (int i = 0; i < COPIES; i++)
+                oldFields[i] = new OldLayout(textFile);
+            printFootprint("Old layout", (usedMemory() - before)/COPIES);
+            oldFields = null;
+            
+            BattleField[] fields = new BattleField[COPIES];
+            before = usedMemory();
+            for (int i = 0; i < COPIES; i++)
+            {
+                fields[i] = new BattleField(FOOTPRINT_FIELD);
+                for (int s = 0; s < FOOTPRINT_SIDES; s++)
+                    fields[i].getCostGrid(s);
+            }
+            printFootprint("Flat arrays, " + FOOTPRINT_SIDES + " sides", (usedMemory() - before)/COPIES);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not write " + textFile + ": " + e);
+        }
+        finally
+        {
+            textFile.delete();
+        }
+    }
+    
+    /**
+     * Prints the heap used by a single MAP_SIZE x MAP_SIZE battlefield, given the number of bytes.
+     */
+    private static void printFootprint(String what, long bytes)
+    {
+        System.out.println(what + " (" + MAP_SIZE + "x" + MAP_SIZE + "): " + bytes/1024 + " KB ("
+                           + Math.round(bytes*10.0/(MAP_SIZE*MAP_SIZE))/10.0 + " bytes per grid)");
+    }
+    
+    /**
+     * Writes a battlefield file of the specified size, cycling through every kind of terrain.
+     */
+    private static void writeFieldFile(File textFile, int size) throws IOException
+    {
+        Terrain[] kinds = Terrain.values();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(textFile)));
+        out.println("Width = " + size);
+        out.println("Height = " + size);
+        for (int y = 0; y < size; y++)
+        {
+            for (int x = 0; x < size; x++)
+                out.print(kinds[(x*7 + y*13) % kinds.length].getSymbol() + " ");
+            out.println();
+        }
+        out.close();
+    }
+    
+    /**
+     * Prints the time taken to paint the terrain of the battle view over a MAP_SIZE x MAP_SIZE battlefield
+     * by drawing every tile (as the field was painted before the terrain was pre-rendered),
+     * by drawing the pre-rendered terrain behind the whole view, and by drawing it behind a single changed grid.
+     */
+    private static void frames()
+    {
+        BattleFieldView field = new BattleFieldView(new BattleField(MAP_SIZE, MAP_SIZE));
+        BufferedImage view = ImageCache.createImage(VIEW_SIZE, VIEW_SIZE);
+        Image tile = ImageCache.getScaled(TILE_IMAGE, BattleField.GRID_SIZE, BattleField.GRID_SIZE);
+        int middle = MAP_SIZE/2*BattleField.GRID_SIZE; // the view is scrolled to the middle of the field
+        
+        long start = System.nanoTime();
+        for (int f = 0; f < FRAMES/10; f++) // far fewer frames; each is slow
+        {
+            Graphics2D g2 = view.createGraphics();
+            g2.translate(-middle, -middle);
+            for (int i = 0; i < MAP_SIZE; i++)
+                for (int j = 0; j < MAP_SIZE; j++)
+                {
+                    g2.drawImage(tile, i*BattleField.GRID_SIZE, j*BattleField.GRID_SIZE, null);
+                    g2.drawRect(i*BattleField.GRID_SIZE, j*BattleField.GRID_SIZE, BattleField.GRID_SIZE, BattleField.GRID_SIZE);
+                }
+            g2.dispose();
+        }
+        printFrameTime("Every tile", System.nanoTime() - start, FRAMES/10);
+        
+        start = System.nanoTime();
+        paintField(field, view, middle, new Rectangle(0, 0, VIEW_SIZE, VIEW_SIZE), 1);
+        printFrameTime("Pre-rendered, first frame", System.nanoTime() - start, 1);
+        
+        start = System.nanoTime();
+        paintField(field, view, middle, new Rectangle(0, 0, VIEW_SIZE, VIEW_SIZE), FRAMES);
+        printFrameTime("Pre-rendered, whole view", System.nanoTime() - start, FRAMES);
+        
+        start = System.nanoTime();
+        paintField(field, view, middle, new Rectangle(VIEW_SIZE/2, VIEW_SIZE/2, BattleField.GRID_SIZE, BattleField.GRID_SIZE), FRAMES);
+        printFrameTime("Pre-rendered, one dirty grid", System.nanoTime() - start, FRAMES);
+    }
+    
+    /**
+     * Prints the time taken to paint the battle view while scrolling diagonally across battlefields of
+     * increasing size, with one unit (every eighth showing its movement range) per 64 grids.
+     * With only the visible grids and units drawn, the time should not grow with the size of the field.
+     * Must be run from the game directory, since the units are read from their files.
+     */
+    private static void scroll()
+    {
+        Unit template = new Unit(0, 0, SCROLL_UNIT, 0, new BattleField(1, 1));
+        
+        for (int size = MAP_SIZE/8; size <= MAP_SIZE; size *= 2)
+        {
+            BattleField field = new BattleField(size, size);
+            BattleFieldView fieldView = new BattleFieldView(field);
+            Unit[] units = new Unit[size*size/64];
+            for (int i = 0; i < units.length; i++)
+            {
+                units[i] = new Unit(template, field);
+                units[i].setLoc(new Location((i*8) % size, (i*8)/size*8 + i % 8));
+                units[i].setVisibleRange(i % 8 == 0);
+            }
+            
+            BufferedImage view = ImageCache.createImage(VIEW_SIZE, VIEW_SIZE);
+            Rectangle clip = new Rectangle(0, 0, VIEW_SIZE, VIEW_SIZE);
+            long start = System.nanoTime();
+            for (int f = 0; f < FRAMES; f++)
+            {
+                int scroll = (f % (size - VIEW_SIZE/BattleField.GRID_SIZE))*BattleField.GRID_SIZE; // one grid further each frame
+                Graphics2D g2 = view.createGraphics();
+                g2.setClip(clip);
+                g2.translate(-scroll, -scroll);
+                fieldView.paintComponent(g2);
+                Rectangle visible = BattleField.gridsWithin(g2.getClipBounds());
+                for (int i = 0; i < units.length; i++)
+                    units[i].paintComponent(g2, visible);
+                g2.dispose();
+            }
+            printFrameTime(size + "x" + size + " (" + units.length + " units)", System.nanoTime() - start, FRAMES);
+        }
+    }
+    
+    /**
+     * Paints the specified field into the view the specified number of times, scrolled by the specified
+     * number of pixels in each direction and clipped to the specified dirty rectangle.
+     */
+    private static void paintField(BattleFieldView field, BufferedImage view, int scroll, Rectangle dirty, int frames)
+    {
+        for (int f = 0; f < frames; f++)
+        {
+            Graphics2D g2 = view.createGraphics();
+            g2.setClip(dirty);
+            g2.translate(-scroll, -scroll);
+            field.paintComponent(g2);
+            g2.dispose();
+        }
+    }
+    
+    /**
+     * Prints the time taken to load a LOAD_SIZE x LOAD_SIZE battlefield from its text file and from its compiled file.
+     * The files are written to the battlefield directory and deleted afterwards.
+     */
+    private static void load()
+    {
+        File textFile = new File("Battlefields/" + LOAD_FIELD + ".dat");
+        File compiledFile = CompiledAsset.compiledFileOf(textFile);
+        try
+        {
+            writeFieldFile(textFile, LOAD_SIZE);
+            
+            long start = System.nanoTime();
+            BattleField field = null;
+            for (int i = 0; i < LOADS; i++)
+                field = new BattleField(LOAD_FIELD);
+            printLoadTime("Text", System.nanoTime() - start, textFile);
+            
+            field.saveCompiledFile();
+            start = System.nanoTime();
+            for (int i = 0; i < LOADS; i++)
+                field = new BattleField(LOAD_FIELD);
+            printLoadTime("Compiled", System.nanoTime() - start, compiledFile);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not write " + textFile + ": " + e);
+        }
+        finally
+        {
+            textFile.delete();
+            compiledFile.delete();
+        }
+    }
+    
+    /**
+     * Prints the time taken, and the memory allocated, to parse the rows of a level with PARSE_UNITS units
+     * with a Scanner (as levels were read before DataFileReader) and with a DataFileReader.
+     * The level file is written to the level directory and deleted afterwards.
+     */
+    private static void parse()
+    {
+        File levelFile = new File(PARSE_LEVEL);
+        try
+        {
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(levelFile)));
+            out.println("Battlefield: Big_Stage");
+            out.println();
+            for (int i = 0; i < PARSE_UNITS; i++)
+                out.println(i % 2 + " *Unit_" + i + " " + i % 1000 + " " + i/1000);
+            out.close();
+            
+            for (int round = 0; round < 2; round++) // the first round warms up
+            {
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                int units = 0;
+                for (int i = 0; i < PARSES; i++)
+                    units = parseWithScanner(levelFile);
+                printParseTime("Scanner", System.nanoTime() - start, allocatedBytes() - allocated, units);
+                
+                allocated = allocatedBytes();
+                start = System.nanoTime();
+                for (int i = 0; i < PARSES; i++)
+                    units = parseWithReader(levelFile);
+                printParseTime("DataFileReader", System.nanoTime() - start, allocatedBytes() - allocated, units);
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println(e);
+        }
+        finally
+        {
+            levelFile.delete();
+        }
+    }
+    
+    /**
+     * Prints the time taken to play AI battles of REPLAY_LEVEL while recording their journals, until REPLAY_TURNS turns
+     * have been played, and the time taken to replay every journal, then checks each replay ended exactly as its battle did.
+     * The journals are written to the working directory and deleted afterwards.
+     */
+    private static void replay()
+    {
+        ArrayList<File> journals = new ArrayList<File>();
+        ArrayList<byte[]> endings = new ArrayList<byte[]>(); // the snapshot of each battle as it ended
+        try
+        {
+            BattleEngine level = new BattleEngine(REPLAY_LEVEL);
+            int turns = 0;
+            int commands = 0;
+            long start = System.nanoTime();
+            while (turns < REPLAY_TURNS)
+            {
+                File journalFile = new File(REPLAY_JOURNAL + journals.size() + BattleJournal.FILE_TYPE);
+                journals.add(journalFile);
+                
+                BattleEngine battle = new BattleEngine(level, REPLAY_SEED + journals.size() - 1);
+                battle.startJournal(journalFile);
+                battle.playAIBattle(REPLAY_TURNS);
+                turns += battle.getTurn();
+                commands += battle.getJournal().getRecordCount();
+                battle.stopJournal();
+                endings.add(battle.getSnapshot());
+            }
+            System.out.println("Played " + turns + " turns in " + journals.size() + " battles (" + commands + " commands) in "
+                               + Math.round((System.nanoTime() - start)/1000.0)/1000.0 + " ms");
+            
+            int same = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < journals.size(); i++)
+            {
+                BattleReplay replay = new BattleReplay(journals.get(i));
+                replay.playAll();
+                if (Arrays.equals(endings.get(i), replay.getEngine().getSnapshot()))
+                    same++;
+            }
+            System.out.println("Replayed them in " + Math.round((System.nanoTime() - start)/1000.0)/1000.0 + " ms; "
+                               + same + " of " + journals.size() + " replays ended exactly as their battles did");
+        }
+        catch (IOException e)
+        {
+            System.out.println(e);
+        }
+        finally
+        {
+            for (int i = 0; i < journals.size(); i++)
+                journals.get(i).delete();
+        }
+    }
+    
+    /**
+     * Prints the time PLAYOUTS playouts of PLAYOUT_TURNS turns take when each copies the battle, as the search did,
+     * and when they all share one copy and undo each playout afterwards (see BattleEngine.unmakeTo),
+     * then the time to undo and redo a whole battle action by action, and whether both ended exactly where they should.
+     */
+    private static void undo()
+    {
+        BattleEngine battle = new BattleEngine(UNDO_LEVEL);
+        battle.setPlanner(null);
+        
+        long sumCopied = 0;
+        RandomSource seeds = new RandomSource(UNDO_SEED);
+        long start = System.nanoTime();
+        for (int i = 0; i < PLAYOUTS; i++)
+        {
+            BattleEngine copy = new BattleEngine(battle, seeds.nextLong());
+            playOut(copy);
+            sumCopied += totalHP(copy);
+        }
+        long copied = System.nanoTime() - start;
+        
+        long sumUnmade = 0;
+        seeds = new RandomSource(UNDO_SEED);
+        start = System.nanoTime();
+        BattleEngine shared = new BattleEngine(battle, 0);
+        shared.setUndoable(true);
+        for (int i = 0; i < PLAYOUTS; i++)
+        {
+            int mark = shared.getUndoMark();
+            shared.getRandom().setState(seeds.nextLong());
+            playOut(shared);
+            sumUnmade += totalHP(shared);
+            shared.unmakeTo(mark);
+        }
+        long unmade = System.nanoTime() - start;
+        
+        System.out.println(PLAYOUTS + " playouts copying the battle: " + Math.round(copied/1000.0)/1000.0 + " ms; undoing each: "
+                           + Math.round(unmade/1000.0)/1000.0 + " ms; " + ((sumCopied == sumUnmade) ? "same" : "DIFFERENT") + " results");
+        
+        BattleEngine played = new BattleEngine(battle, UNDO_SEED);
+        played.setUndoable(true);
+        byte[] first = played.getSnapshot();
+        int actions = 0;
+        while (played.getVictorSide() == -1 && played.getTurn() < REPLAY_TURNS)
+        {
+            played.beginAction();
+            played.playAITurn();
+            actions++;
+        }
+        byte[] last = played.getSnapshot();
+        
+        start = System.nanoTime();
+        while (played.undo());
+        long undone = System.nanoTime() - start;
+        boolean undoneOK = Arrays.equals(first, played.getSnapshot());
+        
+        start = System.nanoTime();
+        while (played.redo());
+        long redone = System.nanoTime() - start;
+        boolean redoneOK = Arrays.equals(last, played.getSnapshot());
+        
+        System.out.println("Undid " + actions + " turns (" + played.getUndoMark() + " commands) in " + Math.round(undone/1000.0)/1000.0
+                           + " ms (" + (undoneOK ? "back to the start" : "NOT back to the start") + "), redid them in "
+                           + Math.round(redone/1000.0)/1000.0 + " ms (" + (redoneOK ? "back to the end" : "NOT back to the end") + ")");
+    }
+    
+    /**
+     * Plays PLAYOUT_TURNS turns of the specified battle with the greedy AI, or until it is won.
+     */
+    private static void playOut(BattleEngine battle)
+    {
+        for (int t = 0; t < PLAYOUT_TURNS && battle.getVictorSide() == -1; t++)
+            battle.playAITurn();
+    }
+    
+    /**
+     * Returns the hp left of every unit of the specified battle added together.
+     */
+    private static long totalHP(BattleEngine battle)
+    {
+        long sum = 0;
+        for (int i = 0; i < battle.getSideCount(); i++)
+            for (int j = 0; j < battle.getSide(i).size(); j++)
+                sum += battle.getSide(i).get(j).getHP();
+        return sum;
+    }
+    
+    /**
+     * Parses the specified level file with a Scanner, reading every row into a String[][] as levels were read
+     * before DataFileReader, and returns the number of units.
+     */
+    private static int parseWithScanner(File levelFile) throws IOException
+    {
+        Scanner in = new Scanner(new FileInputStream(levelFile));
+        in.nextLine().split(":")[1].trim(); // the battlefield
+        
+        ArrayList<String[]> tokens = new ArrayList<String[]>();
+        while (in.hasNext())
+        {
+            String[] row = new String[4];
+            for (int j = 0; j < row.length; j++)
+                row[j] = in.next();
+            tokens.add(row);
+        }
+        in.close();
+        
+        String[][] rows = tokens.toArray(new String[tokens.size()][]);
+        int sum = 0;
+        for (int i = 0; i < rows.length; i++)
+            sum += Integer.parseInt(rows[i][0]) + Integer.parseInt(rows[i][2]) + Integer.parseInt(rows[i][3]);
+        return sum < 0 ? -1 : rows.length;
+    }
+    
+    /**
+     * Parses the specified level file with a DataFileReader, as BattleEngine reads levels, and returns the number of units.
+     */
+    private static int parseWithReader(File levelFile) throws IOException
+    {
+        DataFileReader in = new DataFileReader(levelFile);
+        in.nextValue(); // the battlefield
+        
+        int units = 0, sum = 0;
+        while (in.hasNext())
+        {
+            sum += in.nextInt();
+            in.nextOnLine();
+            sum += in.nextIntOnLine() + in.nextIntOnLine();
+            units++;
+        }
+        in.close();
+        return sum < 0 ? -1 : units;
+    }
+    
+    /**
+     * Prints the average time of a parse and the memory it allocated,
+     * given the totals for PARSES parses of a level with the specified number of units.
+     */
+    private static void printParseTime(String what, long nanos, long bytes, int units)
+    {
+        System.out.println(what + " (" + units + " units): " + Math.round(nanos/1000.0/PARSES)/1000.0 + " ms and "
+                           + bytes/PARSES/1024 + " KB allocated per parse");
+    }
+    
+    /**
+     * Returns the number of bytes allocated by the current thread so far (-1 if the JVM cannot tell).
+     */
+    private static long allocatedBytes()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+    
+    /**
+     * Prints the average time of a load, given the total time taken for LOADS loads of the specified file.
+     */
+    private static void printLoadTime(String what, long nanos, File file)
+    {
+        System.out.println(what + " (" + file.length()/1024 + " KB): " + Math.round(nanos/1000.0/LOADS)/1000.0 + " ms per load");
+    }
+    
+    /**
+     * Prints the average time of a frame, given the total time taken to paint the specified number of frames.
+     */
+    private static void printFrameTime(String what, long nanos, int frames)
+    {
+        System.out.println(what + ": " + Math.round(nanos/1000.0/frames)/1000.0 + " ms per frame");
+    }
+    
+    /**
+     * Returns the number of bytes in use on the heap after collecting garbage.
+     */
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    /**
+     * The grids of a battlefield as BattleField stored them before they were kept in flat arrays:
+     * a rectangle, an emptiness flag, an occupying side and a terrain symbol per grid, read with a Scanner.
+     * Kept only so footprint has the old layout to compare against.
+     */
+    private static class OldLayout
+    {
+        private Rectangle2D.Double[][] field; // the array of grids in the field
+        private boolean[][] empty; // the array of grids representing if that part is empty or not
+        private int[][] contains; // the array of grids representing the side of the unit contained there (-1 = no unit)
+        private String[][] terrain; // the array of grids representing the terrain type there
+        
+        /**
+         * Reads the specified battlefield file as BattleField used to.
+         */
+        public OldLayout(File fieldFile) throws IOException
+        {
+            Scanner in = new Scanner(new FileInputStream(fieldFile));
+            int width = nextIntInFile(in);
+            int height = nextIntInFile(in);
+            
+            field = new Rectangle2D.Double[width][height];
+            empty = new boolean[width][height];
+            contains = new int[width][height];
+            for (int i = 0; i < width; i++)
+            {
+                for (int j = 0; j < height; j++)
+                {
+                    field[i][j] = new Rectangle2D.Double(BattleField.GRID_SIZE*i, BattleField.GRID_SIZE*j,
+                                                         BattleField.GRID_SIZE, BattleField.GRID_SIZE);
+                    empty[i][j] = true;
+                    contains[i][j] = -1;
+                }
+            }
+            
+            terrain = new String[width][height];
+            for (int i = 0; i < height; i++)
+                for (int j = 0; j < width; j++)
+                    terrain[j][i] = in.next();
+            in.close();
+        }
+        
+        /**
+         * Skips to the next int in the file and returns it.
+         */
+        private static int nextIntInFile(Scanner in)
+        {
+            while (!in.hasNextInt())
+                in.next();
+            return in.nextInt();
+        }
+    }
+
+} // END CLASS
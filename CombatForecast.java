@@ -0,0 +1,294 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The exact chances of every way a single exchange can end: the attacker strikes once,
+ * then the defender strikes back once if it survived and the attacker is in its range
+ * (see BattleEngine.attack and BattleEngine.counterAttack).
+ * Chances are counted out of CERTAIN, every pair of rolls out of 100, so none are rounded.
+ * An exchange only depends on both units' hp, hit chances and damage, so forecasts are kept by those
+ * in a bounded cache shared by every battle (see BattleEngine.forecast).
+ */
+public class CombatForecast
+{
+    public static final int CERTAIN = 100*100; // the chance of something certain (every pair of rolls)
+    
+    private static final int MAX_HIT = 100; // maximum hit percentage
+    private static final int CACHE_SIZE = 4096; // the most forecasts kept, the least recently used going first
+    
+    private static Map<Key, CombatForecast> cache = Collections.synchronizedMap(new LinkedHashMap<Key, CombatForecast>(CACHE_SIZE, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<Key, CombatForecast> eldest)
+            {
+                return size() > CACHE_SIZE;
+            }
+        }); // the forecasts worked out most recently
+    private static AtomicLong cacheHits = new AtomicLong(); // the number of forecasts found in the cache (shared by every battle running at once)
+    private static AtomicLong cacheMisses = new AtomicLong(); // the number of forecasts that had to be worked out
+    
+    private int atkHP, defHP; // the hp of each unit before the exchange
+    private int hit, dmg; // the hit chance (out of 100) and damage of the attacker
+    private int counterHit, counterDmg; // the hit chance (out of 100) and damage of the defender's counter attack (0 = none)
+    
+    private int size; // the number of different outcomes
+    private int[] atkHPAfter; // the attacker's hp after each outcome
+    private int[] defHPAfter; // the defender's hp after each outcome
+    private int[] chance; // the chance of each outcome (out of CERTAIN)
+    
+    /**
+     * Works out the outcomes of an exchange between units with the specified hp,
+     * where the attacker hits with the specified chance for the specified damage,
+     * and the defender (if it survives) counter attacks with the specified chance for the specified damage.
+     */
+    private CombatForecast(int anAtkHP, int aDefHP, int aHit, int aDmg, int aCounterHit, int aCounterDmg)
+    {
+        atkHP = anAtkHP;
+        defHP = aDefHP;
+        hit = aHit;
+        dmg = aDmg;
+        counterHit = aCounterHit;
+        counterDmg = aCounterDmg;
+        
+        atkHPAfter = new int[4];
+        defHPAfter = new int[4];
+        chance = new int[4];
+        
+        int struck = Math.max(defHP - dmg, 0); // the defender's hp if the attack hits
+        if (struck == 0) // the defender falls before it can counter attack
+            add(atkHP, 0, hit*MAX_HIT);
+        else
+            addCounter(struck, hit);
+        addCounter(defHP, MAX_HIT - hit);
+    }
+    
+    /**
+     * Returns the forecast of an exchange between units with the specified hp,
+     * where the attacker hits with the specified chance (out of 100) for the specified damage,
+     * and the defender (if it survives) counter attacks with the specified chance for the specified damage
+     * (a chance of 0 if it cannot counter attack).
+     * Chances outside 0 to 100 count as never or always hitting, as they do in battle.
+     */
+    public static CombatForecast of(int atkHP, int defHP, int hit, int dmg, int counterHit, int counterDmg)
+    {
+        hit = Math.max(0, Math.min(hit, MAX_HIT));
+        counterHit = Math.max(0, Math.min(counterHit, MAX_HIT));
+        
+        Key key = new Key(atkHP, defHP, hit, dmg, counterHit, counterDmg);
+        CombatForecast forecast = cache.get(key);
+        if (forecast == null)
+        {
+            cacheMisses.incrementAndGet();
+            forecast = new CombatForecast(atkHP, defHP, hit, dmg, counterHit, counterDmg);
+            cache.put(key, forecast);
+        }
+        else
+        {
+            cacheHits.incrementAndGet();
+        }
+        return forecast;
+    }
+    
+    /**
+     * Adds the outcomes of the defender, left with the specified hp, counter attacking,
+     * given the specified chance (out of 100) of the attack ending that way.
+     */
+    private void addCounter(int defLeft, int atkChance)
+    {
+        add(Math.max(atkHP - counterDmg, 0), defLeft, atkChance*counterHit);
+        add(atkHP, defLeft, atkChance*(MAX_HIT - counterHit));
+    }
+    
+    /**
+     * Adds the specified chance to the outcome leaving the units with the specified hp.
+     */
+    private void add(int atkLeft, int defLeft, int aChance)
+    {
+        if (aChance == 0)
+            return;
+        
+        for (int i = 0; i < size; i++)
+        {
+            if (atkHPAfter[i] == atkLeft && defHPAfter[i] == defLeft) // different rolls with the same result (e.g. a hit for no damage)
+            {
+                chance[i] += aChance;
+                return;
+            }
+        }
+        atkHPAfter[size] = atkLeft;
+        defHPAfter[size] = defLeft;
+        chance[size] = aChance;
+        size++;
+    }
+    
+    /**
+     * Returns the attacker's hit chance (out of 100).
+     */
+    public int getHitChance()
+    {
+        return hit;
+    }
+    
+    /**
+     * Returns the damage the attacker does if it hits.
+     */
+    public int getDamage()
+    {
+        return dmg;
+    }
+    
+    /**
+     * Returns the defender's hit chance (out of 100) when counter attacking (0 = it cannot).
+     */
+    public int getCounterHitChance()
+    {
+        return counterHit;
+    }
+    
+    /**
+     * Returns the damage the defender does if its counter attack hits.
+     */
+    public int getCounterDamage()
+    {
+        return counterDmg;
+    }
+    
+    /**
+     * Returns the number of different ways the exchange can end.
+     */
+    public int getOutcomeCount()
+    {
+        return size;
+    }
+    
+    /**
+     * Returns the attacker's hp after the outcome at the specified index.
+     */
+    public int getAtkHPAfter(int index)
+    {
+        return atkHPAfter[index];
+    }
+    
+    /**
+     * Returns the defender's hp after the outcome at the specified index.
+     */
+    public int getDefHPAfter(int index)
+    {
+        return defHPAfter[index];
+    }
+    
+    /**
+     * Returns the chance (out of CERTAIN) of the outcome at the specified index.
+     */
+    public int getChance(int index)
+    {
+        return chance[index];
+    }
+    
+    /**
+     * Returns the chance (out of CERTAIN) that the attacker kills the defender.
+     */
+    public int getKillChance()
+    {
+        int total = 0;
+        for (int i = 0; i < size; i++)
+            if (defHPAfter[i] == 0)
+                total += chance[i];
+        return total;
+    }
+    
+    /**
+     * Returns the chance (out of CERTAIN) that the defender's counter attack kills the attacker.
+     */
+    public int getCounterKillChance()
+    {
+        int total = 0;
+        for (int i = 0; i < size; i++)
+            if (atkHPAfter[i] == 0)
+                total += chance[i];
+        return total;
+    }
+    
+    /**
+     * Returns the chance (out of CERTAIN) that the defender is left with exactly the specified hp.
+     */
+    public int getChanceDefenderLeftWith(int hp)
+    {
+        int total = 0;
+        for (int i = 0; i < size; i++)
+            if (defHPAfter[i] == hp)
+                total += chance[i];
+        return total;
+    }
+    
+    /**
+     * Returns the specified chance (out of CERTAIN) as a whole percentage.
+     */
+    public static int toPercent(int aChance)
+    {
+        return Math.round(aChance*100f/CERTAIN);
+    }
+    
+    /**
+     * Returns the number of times a forecast was found in the cache.
+     */
+    public static long getCacheHits()
+    {
+        return cacheHits.get();
+    }
+    
+    /**
+     * Returns the number of times a forecast had to be worked out.
+     */
+    public static long getCacheMisses()
+    {
+        return cacheMisses.get();
+    }
+    
+    /**
+     * The numbers an exchange depends on, by which forecasts are cached.
+     */
+    private static class Key
+    {
+        private int atkHP, defHP, hit, dmg, counterHit, counterDmg; // see CombatForecast
+        
+        /**
+         * Creates the key of an exchange with the specified numbers.
+         */
+        public Key(int anAtkHP, int aDefHP, int aHit, int aDmg, int aCounterHit, int aCounterDmg)
+        {
+            atkHP = anAtkHP;
+            defHP = aDefHP;
+            hit = aHit;
+            dmg = aDmg;
+            counterHit = aCounterHit;
+            counterDmg = aCounterDmg;
+        }
+        
+        /**
+         * Returns whether or not the specified object is a key with the same numbers.
+         */
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+                return false;
+            
+            Key other = (Key)obj;
+            return atkHP == other.atkHP && defHP == other.defHP && hit == other.hit && dmg == other.dmg
+                   && counterHit == other.counterHit && counterDmg == other.counterDmg;
+        }
+        
+        /**
+         * Returns a hash code made from every number.
+         */
+        public int hashCode()
+        {
+            int hash = atkHP;
+            hash = 31*hash + defHP;
+            hash = 31*hash + hit;
+            hash = 31*hash + dmg;
+            hash = 31*hash + counterHit;
+            return 31*hash + counterDmg;
+        }
+    }
+
+} // END CLASS
@@ -0,0 +1,194 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+/**
+ * Reads and writes the compiled forms of battlefield and level files, which load far faster than the text forms.
+ * A compiled file sits beside its text file, with the extension .bin, and starts with a header:
+ * the kind of asset, the format version, and the length and time of the text file it was compiled from.
+ * It is only used while its text file is unchanged, since the text files are still the ones edited by hand.
+ * Numbers are big-endian; strings are a length followed by UTF-8 bytes.
+ * Run with the names of the levels and battlefields to compile (default every one).
+ */
+public class CompiledAsset
+{
+    public static final String FILE_TYPE = ".bin"; // the extension of compiled files
+    public static final int VERSION = 1; // the version of the format written
+    
+    public static final int FIELD_MAGIC = 0x54464C44; // "TFLD", the start of a compiled battlefield
+    public static final int LEVEL_MAGIC = 0x544C564C; // "TLVL", the start of a compiled level
+    
+    private static final String TEXT_TYPE = ".dat"; // the extension of text files
+    private static final String FIELD_DIRECTORY = "Battlefields/"; // directory of battle fields
+    private static final String LEVEL_DIRECTORY = "Levels/"; // directory of levels
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    /**
+     * Returns the compiled file of the specified text file.
+     */
+    public static File compiledFileOf(File textFile)
+    {
+        String name = textFile.getName();
+        if (name.endsWith(TEXT_TYPE))
+            name = name.substring(0, name.length() - TEXT_TYPE.length());
+        return new File(textFile.getParentFile(), name + FILE_TYPE);
+    }
+    
+    /**
+     * Returns the body of the compiled file of the specified text file, just after the header,
+     * read into a direct buffer with a single read of its channel.
+     * Returns null if there is no compiled file, if it is not of the specified kind or version,
+     * or if the text file has changed since it was compiled.
+     */
+    public static ByteBuffer open(File textFile, int magic)
+    {
+        File compiled = compiledFileOf(textFile);
+        if (!compiled.isFile())
+            return null;
+        
+        try
+        {
+            FileChannel channel = new FileInputStream(compiled).getChannel();
+            try
+            {
+                ByteBuffer in = ByteBuffer.allocateDirect((int)channel.size());
+                while (in.hasRemaining() && channel.read(in) != -1);
+                in.flip();
+                
+                if (in.remaining() < 24 || in.getInt() != magic || in.getInt() != VERSION
+                    || in.getLong() != textFile.length() || in.getLong() != textFile.lastModified()) // wrong kind, old format or stale
+                    return null;
+                return in;
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+    
+    /**
+     * Creates the compiled file of the specified text file, writes a header of the specified kind, and returns the stream
+     * to write the body to (which must be closed once done).
+     */
+    public static DataOutputStream create(File textFile, int magic) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compiledFileOf(textFile))));
+        out.writeInt(magic);
+        out.writeInt(VERSION);
+        out.writeLong(textFile.length());
+        out.writeLong(textFile.lastModified());
+        return out;
+    }
+    
+    /**
+     * Reads a string from the specified buffer.
+     */
+    public static String readString(ByteBuffer in)
+    {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, UTF8);
+    }
+    
+    /**
+     * Writes the specified string to the specified stream.
+     */
+    public static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+    
+    /**
+     * Compiles the levels and battlefields with the specified names, or every one if none are named.
+     * Each name is looked for as a level first, then as a battlefield.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length == 0)
+        {
+            compileAll(LEVEL_DIRECTORY);
+            compileAll(FIELD_DIRECTORY);
+        }
+        
+        for (int i = 0; i < args.length; i++)
+        {
+            if (new File(LEVEL_DIRECTORY + args[i] + TEXT_TYPE).isFile())
+                compileLevel(args[i]);
+            else if (new File(FIELD_DIRECTORY + args[i] + TEXT_TYPE).isFile())
+                compileField(args[i]);
+            else
+                System.out.println("No level or battlefield named " + args[i]);
+        }
+    }
+    
+    /**
+     * Compiles every text file in the specified directory (levels or battlefields).
+     */
+    private static void compileAll(String directory)
+    {
+        File[] files = new File(directory).listFiles();
+        if (files == null)
+            return;
+        
+        for (int i = 0; i < files.length; i++)
+        {
+            String name = files[i].getName();
+            if (!name.endsWith(TEXT_TYPE))
+                continue;
+            
+            name = name.substring(0, name.length() - TEXT_TYPE.length());
+            if (directory.equals(LEVEL_DIRECTORY))
+                compileLevel(name);
+            else
+                compileField(name);
+        }
+    }
+    
+    /**
+     * Compiles the level with the specified name and prints how long it took.
+     */
+    private static void compileLevel(String name)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            BattleEngine.compileBattleFile(name);
+            report(new File(LEVEL_DIRECTORY + name + TEXT_TYPE), start);
+        }
+        catch (IOException e) { System.out.println("Could not compile level " + name + ": " + e); }
+    }
+    
+    /**
+     * Compiles the battlefield with the specified name and prints how long it took.
+     */
+    private static void compileField(String name)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            new BattleField(name).saveCompiledFile();
+            report(new File(FIELD_DIRECTORY + name + TEXT_TYPE), start);
+        }
+        catch (IOException e) { System.out.println("Could not compile battlefield " + name + ": " + e); }
+    }
+    
+    /**
+     * Prints the size of the compiled file of the specified text file, and the time taken since the specified start.
+     */
+    private static void report(File textFile, long start)
+    {
+        File compiled = compiledFileOf(textFile);
+        System.out.println("Compiled " + textFile + " (" + textFile.length() + " bytes) to " + compiled.getName()
+                           + " (" + compiled.length() + " bytes) in " + (System.nanoTime() - start)/1000000 + " ms");
+    }
+
+} // END CLASS
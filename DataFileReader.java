@@ -0,0 +1,324 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+/**
+ * Reads the tokens of a text data file (units, weapons, items, levels and battlefields) through a buffered channel.
+ * The files are made of "Key: Value" lines (or "Key = Value") and of whitespace separated tokens,
+ * such as the rows of units in a level or the terrain symbols of a battlefield.
+ * Tokens are kept as bytes until asked for, so numbers and symbols are read without creating strings.
+ * Mistakes in a file are reported as IOExceptions giving the file, line and column.
+ */
+public class DataFileReader
+{
+    private static final int BUFFER_SIZE = 16*1024; // the number of bytes read from the file at a time
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private File file; // the file being read
+    private FileChannel channel; // the channel of the file
+    private ByteBuffer buffer; // the bytes read from the channel
+    private byte[] bytes; // the array behind the buffer
+    private int next, end; // the index of the next byte in the buffer, and the index after the last byte read
+    
+    private int line = 1, column = 1; // the position of the next byte in the file
+    private byte[] token = new byte[64]; // the bytes of the last token read (grows as needed)
+    private int tokenLength; // the number of bytes in the last token read
+    private int tokenLine, tokenColumn; // the position of the last token read
+    
+    /**
+     * Opens the specified file for reading.
+     */
+    public DataFileReader(File aFile) throws IOException
+    {
+        file = aFile;
+        channel = new FileInputStream(file).getChannel();
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        bytes = buffer.array();
+    }
+    
+    /**
+     * Closes the file.
+     */
+    public void close()
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e) {}
+    }
+    
+    /**
+     * Returns the next byte without moving past it, or -1 at the end of the file.
+     */
+    private int peek() throws IOException
+    {
+        if (next == end)
+        {
+            buffer.clear();
+            int read;
+            do
+            {
+                read = channel.read(buffer);
+            }
+            while (read == 0);
+            
+            next = 0;
+            end = Math.max(read, 0);
+            if (end == 0)
+                return -1;
+        }
+        return bytes[next];
+    }
+    
+    /**
+     * Moves past the next byte, which has already been peeked.
+     */
+    private void advance()
+    {
+        if (bytes[next] == '\n')
+        {
+            line++;
+            column = 1;
+        }
+        else
+        {
+            column++;
+        }
+        next++;
+    }
+    
+    /**
+     * Returns whether or not the specified byte separates tokens on a line.
+     */
+    private static boolean isSpace(int b)
+    {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+    
+    /**
+     * Skips whitespace, including line breaks if specified, and returns the next byte (-1 at the end of the file).
+     */
+    private int skipSpace(boolean lineBreaks) throws IOException
+    {
+        int b = peek();
+        while (isSpace(b) || (lineBreaks && b == '\n'))
+        {
+            advance();
+            b = peek();
+        }
+        return b;
+    }
+    
+    /**
+     * Returns whether or not there is another token anywhere in the rest of the file.
+     */
+    public boolean hasNext() throws IOException
+    {
+        return skipSpace(true) != -1;
+    }
+    
+    /**
+     * Returns whether or not there is another token on the current line.
+     */
+    public boolean hasNextOnLine() throws IOException
+    {
+        int b = skipSpace(false);
+        return b != -1 && b != '\n';
+    }
+    
+    /**
+     * Reads the next token (on any line) into the token bytes.
+     */
+    private void readToken() throws IOException
+    {
+        if (skipSpace(true) == -1)
+            throw error(line, column, "expected more, but the file ended");
+        
+        tokenLine = line;
+        tokenColumn = column;
+        tokenLength = 0;
+        for (int b = peek(); b != -1 && b != '\n' && !isSpace(b); b = peek())
+        {
+            append(b);
+            advance();
+        }
+    }
+    
+    /**
+     * Adds the specified byte to the end of the token bytes.
+     */
+    private void append(int b)
+    {
+        if (tokenLength == token.length)
+        {
+            byte[] longer = new byte[2*token.length];
+            System.arraycopy(token, 0, longer, 0, tokenLength);
+            token = longer;
+        }
+        token[tokenLength++] = (byte)b;
+    }
+    
+    /**
+     * Returns the next token (on any line).
+     */
+    public String next() throws IOException
+    {
+        readToken();
+        return new String(token, 0, tokenLength, UTF8);
+    }
+    
+    /**
+     * Returns the next token on the current line.
+     */
+    public String nextOnLine() throws IOException
+    {
+        if (!hasNextOnLine())
+            throw error(line, column, "expected more before the end of the line");
+        return next();
+    }
+    
+    /**
+     * Returns the next token (on any line) as a whole number.
+     */
+    public int nextInt() throws IOException
+    {
+        readToken();
+        
+        int i = 0;
+        boolean negative = tokenLength > 1 && token[0] == '-';
+        if (negative)
+            i++;
+        
+        long value = 0;
+        boolean valid = i < tokenLength;
+        for (; i < tokenLength && valid; i++)
+        {
+            int digit = token[i] - '0';
+            valid = digit >= 0 && digit <= 9;
+            value = 10*value + digit;
+            valid = valid && value <= Integer.MAX_VALUE;
+        }
+        if (!valid)
+            throw error(tokenLine, tokenColumn, "expected a whole number but found \"" + new String(token, 0, tokenLength, UTF8) + "\"");
+        
+        return (int)(negative ? -value : value);
+    }
+    
+    /**
+     * Returns the index of the next token (on any line) in the specified symbols, or -1 if it is none of them.
+     * The token is compared in place, so no string is created for it.
+     */
+    public int nextSymbol(String[] symbols) throws IOException
+    {
+        readToken();
+        
+        for (int s = 0; s < symbols.length; s++)
+        {
+            String symbol = symbols[s];
+            if (symbol.length() != tokenLength)
+                continue;
+            
+            int i = 0;
+            while (i < tokenLength && symbol.charAt(i) == token[i])
+                i++;
+            if (i == tokenLength)
+                return s;
+        }
+        return -1;
+    }
+    
+    /**
+     * Reads the next token (on any line) and makes sure it is the specified text.
+     */
+    public void expect(String text) throws IOException
+    {
+        String found = next();
+        if (!found.equals(text))
+            throw error(tokenLine, tokenColumn, "expected \"" + text + "\" but found \"" + found + "\"");
+    }
+    
+    /**
+     * Moves past the key at the start of the next line that is not blank, up to and including its ":" or "=".
+     */
+    public void skipKey() throws IOException
+    {
+        if (skipSpace(true) == -1)
+            throw error(line, column, "expected a \"Key: Value\" line, but the file ended");
+        
+        int keyLine = line, keyColumn = column;
+        for (int b = peek(); b != ':' && b != '='; b = peek())
+        {
+            if (b == -1 || b == '\n')
+                throw error(keyLine, keyColumn, "expected a \"Key: Value\" line");
+            advance();
+        }
+        advance();
+    }
+    
+    /**
+     * Returns the rest of the current line, without the whitespace around it, and moves to the next line.
+     */
+    public String restOfLine() throws IOException
+    {
+        skipSpace(false);
+        tokenLength = 0;
+        int spaceAfter = 0; // the length of the whitespace at the end of the text so far
+        for (int b = peek(); b != -1 && b != '\n'; b = peek())
+        {
+            append(b);
+            spaceAfter = isSpace(b) ? spaceAfter + 1 : 0;
+            advance();
+        }
+        return new String(token, 0, tokenLength - spaceAfter, UTF8);
+    }
+    
+    /**
+     * Makes sure there is nothing else on the current line.
+     */
+    public void endLine() throws IOException
+    {
+        if (hasNextOnLine())
+            throw error(line, column, "expected the end of the line but found \"" + next() + "\"");
+    }
+    
+    /**
+     * Returns the value of the next "Key: Value" line.
+     */
+    public String nextValue() throws IOException
+    {
+        skipKey();
+        return restOfLine();
+    }
+    
+    /**
+     * Returns the value of the next "Key: Value" line as a whole number.
+     */
+    public int nextIntValue() throws IOException
+    {
+        skipKey();
+        int value = nextIntOnLine();
+        endLine();
+        return value;
+    }
+    
+    /**
+     * Returns the next token on the current line as a whole number.
+     */
+    public int nextIntOnLine() throws IOException
+    {
+        if (!hasNextOnLine())
+            throw error(line, column, "expected a whole number before the end of the line");
+        return nextInt();
+    }
+    
+    /**
+     * Returns an exception describing the specified mistake at the specified position in the file.
+     */
+    private IOException error(int atLine, int atColumn, String message)
+    {
+        return new IOException(file + ":" + atLine + ":" + atColumn + ": " + message);
+    }
+
+} // END CLASS
@@ -0,0 +1,89 @@
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Holds the definition of every kind of weapon and item that has been used so far.
+ * Each definition file is read the first time its kind is asked for, and the definition
+ * is shared from then on by every unit in every battle, on any thread.
+ */
+public class Definitions
+{
+    private static final String WEAPON_FILE_HEADING = "Weapons/"; // the directory in which the weapon files can be found
+    private static final String ITEM_FILE_HEADING = "Items/"; // the directory in which the item files can be found
+    private static final String EXTENSION = ".dat"; // file type
+    
+    private static ConcurrentHashMap<String, WeaponDef> weapons = new ConcurrentHashMap<String, WeaponDef>(); // weapon definitions by name
+    private static ConcurrentHashMap<String, ItemDef> items = new ConcurrentHashMap<String, ItemDef>(); // item definitions by name
+    
+    private static AtomicInteger filesRead = new AtomicInteger(); // the number of definition files read so far
+    
+    /**
+     * Returns the definition of the weapon with the specified name, reading its file if it has not been read yet.
+     */
+    public static WeaponDef getWeapon(String name)
+    {
+        WeaponDef def = weapons.get(name);
+        if (def == null)
+            def = loadWeapon(name);
+        return def;
+    }
+    
+    /**
+     * Returns the definition of the item with the specified name, reading its file if it has not been read yet.
+     */
+    public static ItemDef getItem(String name)
+    {
+        ItemDef def = items.get(name);
+        if (def == null)
+            def = loadItem(name);
+        return def;
+    }
+    
+    /**
+     * Reads the definition of the weapon with the specified name unless another thread got there first.
+     */
+    private static synchronized WeaponDef loadWeapon(String name)
+    {
+        WeaponDef def = weapons.get(name);
+        if (def == null)
+        {
+            def = new WeaponDef(name, new File(WEAPON_FILE_HEADING + name + EXTENSION));
+            filesRead.incrementAndGet();
+            weapons.put(name, def);
+        }
+        return def;
+    }
+    
+    /**
+     * Reads the definition of the item with the specified name unless another thread got there first.
+     */
+    private static synchronized ItemDef loadItem(String name)
+    {
+        ItemDef def = items.get(name);
+        if (def == null)
+        {
+            def = new ItemDef(new File(ITEM_FILE_HEADING + name + EXTENSION));
+            filesRead.incrementAndGet();
+            items.put(name, def);
+        }
+        return def;
+    }
+    
+    /**
+     * Returns the number of definition files that have been read.
+     */
+    public static int getFilesRead()
+    {
+        return filesRead.get();
+    }
+    
+    /**
+     * Returns the number of weapon and item definitions held.
+     */
+    public static int size()
+    {
+        return weapons.size() + items.size();
+    }
+
+} // END CLASS
@@ -0,0 +1,345 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ * Writes a group of files in the background, so saving never holds up the game.
+ * The contents of every file are taken when it is added (a snapshot), then once started the files are written
+ * by a single writer thread, in the order saves were started.
+ * Each file is written whole to a temporary file beside it and then renamed over it,
+ * so a crash part way through a save leaves every file either as it was or as it was saved, never cut short.
+ * If a file cannot be written or renamed, the files already replaced are put back, so a failed save changes nothing.
+ * The temporary files are forced to the disk before being renamed, unless turned off with setSync.
+ */
+public class FileSaver
+{
+    private static final String TEMP_TYPE = ".tmp"; // added to the name of a file while it is written
+    private static final String BACKUP_TYPE = ".bak"; // added to the name of a link to a file's old contents while it is replaced
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long EXIT_WAIT = 5000; // the longest the game waits for unfinished saves when closing, in milliseconds
+    
+    private static ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "Save");
+                t.setDaemon(true); // never keeps the game open (unfinished saves are waited for on exit instead)
+                return t;
+            }
+        }); // writes every save, one at a time
+    
+    static
+    {
+        Runtime.getRuntime().addShutdownHook(new Thread("Save on exit")
+        {
+            public void run()
+            {
+                waitForSaves(EXIT_WAIT);
+            }
+        });
+    }
+    
+    private static AtomicLong filesWritten = new AtomicLong(); // the number of files written by every save so far
+    private static AtomicLong bytesWritten = new AtomicLong(); // the number of bytes written by every save so far
+    
+    private ArrayList<File> files = new ArrayList<File>(); // the files to write
+    private ArrayList<byte[]> contents = new ArrayList<byte[]>(); // the bytes to write to each file
+    private HashMap<File, Integer> indexOf = new HashMap<File, Integer>(); // the index of each file in the save
+    private boolean sync = true; // if each file is forced to the disk before it replaces the old one
+    private boolean started; // if the save has been handed to the writer
+    private volatile boolean done; // if the save has finished, written or not
+    private volatile IOException error; // the exception that stopped the save (null = none)
+    
+    /**
+     * Adds the specified file, to be written with the specified text.
+     * If the file is already in the save, the text replaces the text it had.
+     */
+    public void add(File file, String text)
+    {
+        add(file, text.getBytes(UTF8));
+    }
+    
+    /**
+     * Adds the specified file, to be written with the specified bytes (which must not be changed afterwards).
+     * If the file is already in the save, the bytes replace the ones it had.
+     */
+    public void add(File file, byte[] bytes)
+    {
+        if (started)
+            throw new IllegalStateException("save already started");
+        
+        Integer index = indexOf.get(file);
+        if (index != null)
+        {
+            contents.set(index, bytes);
+            return;
+        }
+        
+        indexOf.put(file, files.size());
+        files.add(file);
+        contents.add(bytes);
+    }
+    
+    /**
+     * Sets whether or not each file is forced to the disk before it replaces the old one.
+     * Turning it off makes saves much faster, but a power cut soon after one may lose it.
+     */
+    public void setSync(boolean isSync)
+    {
+        sync = isSync;
+    }
+    
+    /**
+     * Returns the number of files in the save.
+     */
+    public int getFileCount()
+    {
+        return files.size();
+    }
+    
+    /**
+     * Returns the number of bytes in the save.
+     */
+    public long getByteCount()
+    {
+        long bytes = 0;
+        for (int i = 0; i < contents.size(); i++)
+            bytes += contents.get(i).length;
+        return bytes;
+    }
+    
+    /**
+     * Returns whether or not the save has finished, whether or not every file was written.
+     */
+    public boolean isDone()
+    {
+        return done;
+    }
+    
+    /**
+     * Returns the exception that stopped the save, or null if it has not failed (so far).
+     */
+    public IOException getError()
+    {
+        return error;
+    }
+    
+    /**
+     * Hands the save to the writer and returns straight away.
+     * Once every file is written (or the save failed), the specified listener (if any) is told, on the writer thread.
+     * Returns a future that can be waited on for the save to finish.
+     */
+    public Future<?> start(final Listener whenDone)
+    {
+        if (started)
+            throw new IllegalStateException("save already started");
+        started = true;
+        
+        return writer.submit(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    write();
+                }
+                catch (IOException e)
+                {
+                    error = e;
+                }
+                done = true;
+                
+                if (whenDone != null)
+                    whenDone.saved(FileSaver.this, error);
+            }
+        });
+    }
+    
+    /**
+     * Writes every file to its temporary file, then renames each over the file it replaces.
+     * If any file cannot be written, no file is replaced; if any cannot be renamed, the ones already replaced are put back.
+     */
+    private void write() throws IOException
+    {
+        File[] temps = new File[files.size()];
+        File[] backups = new File[files.size()]; // the old contents of each file replaced so far (null = none)
+        int replaced = 0; // the number of files replaced so far
+        try
+        {
+            for (int i = 0; i < files.size(); i++)
+            {
+                File file = files.get(i);
+                if (file.getParentFile() != null)
+                    file.getParentFile().mkdirs();
+                
+                temps[i] = new File(file.getPath() + TEMP_TYPE);
+                writeFile(temps[i], contents.get(i));
+            }
+            
+            for (int i = 0; i < files.size(); i++)
+            {
+                backups[i] = backUp(files.get(i));
+                replace(temps[i], files.get(i));
+                temps[i] = null;
+                replaced++;
+            }
+            filesWritten.addAndGet(files.size());
+            bytesWritten.addAndGet(getByteCount());
+        }
+        catch (IOException e)
+        {
+            for (int i = replaced - 1; i >= 0; i--) // put back every file replaced, newest first
+            {
+                try
+                {
+                    if (backups[i] == null) // the file did not exist before
+                        files.get(i).delete();
+                    else
+                        replace(backups[i], files.get(i));
+                }
+                catch (IOException restoreError)
+                {
+                    System.out.println("Could not put back " + files.get(i) + " (its old contents are left in " + backups[i] + "): " + restoreError);
+                }
+                backups[i] = null; // put back, or left for the player
+            }
+            throw e;
+        }
+        finally
+        {
+            for (int i = 0; i < temps.length; i++) // left over from a failed save
+                if (temps[i] != null)
+                    temps[i].delete();
+            for (int i = 0; i < backups.length; i++) // no longer needed once the save is done, or put back
+                if (backups[i] != null)
+                    backups[i].delete();
+        }
+    }
+    
+    /**
+     * Keeps the old contents of the specified file beside it, so it can be put back if the save fails.
+     * The backup is a hard link where the file system allows, so nothing is copied, otherwise a copy.
+     * Returns the backup, or null if the file does not exist yet.
+     */
+    private static File backUp(File file) throws IOException
+    {
+        if (!file.exists())
+            return null;
+        
+        File backup = new File(file.getPath() + BACKUP_TYPE);
+        Files.deleteIfExists(backup.toPath()); // left over from a crash
+        try
+        {
+            Files.createLink(backup.toPath(), file.toPath());
+        }
+        catch (UnsupportedOperationException e)
+        {
+            Files.copy(file.toPath(), backup.toPath());
+        }
+        catch (IOException e) // e.g. the file system has no hard links
+        {
+            Files.copy(file.toPath(), backup.toPath());
+        }
+        return backup;
+    }
+    
+    /**
+     * Writes the specified bytes to the specified file through its channel, forcing them to the disk if syncing.
+     */
+    private void writeFile(File file, byte[] bytes) throws IOException
+    {
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            if (sync)
+                channel.force(true);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+    
+    /**
+     * Renames the specified temporary file over the specified file, atomically if the file system can.
+     */
+    private static void replace(File temp, File file) throws IOException
+    {
+        try
+        {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Waits up to the specified number of milliseconds for every save started so far to finish.
+     * Returns whether or not they all did.
+     */
+    public static boolean waitForSaves(long millis)
+    {
+        try
+        {
+            writer.submit(new Runnable()
+            {
+                public void run()
+                {
+                }
+            }).get(millis, TimeUnit.MILLISECONDS); // runs after every earlier save
+            return true;
+        }
+        catch (Exception e)
+        {
+            return false;
+        }
+    }
+    
+    /**
+     * Returns the number of files written by every save so far.
+     */
+    public static long getFilesWritten()
+    {
+        return filesWritten.get();
+    }
+    
+    /**
+     * Returns the number of bytes written by every save so far.
+     */
+    public static long getBytesWritten()
+    {
+        return bytesWritten.get();
+    }
+    
+    /**
+     * Resets the counts of files and bytes written to zero.
+     */
+    public static void resetStats()
+    {
+        filesWritten.set(0);
+        bytesWritten.set(0);
+    }
+    
+    /**
+     * Told when a save has finished.
+     */
+    public interface Listener
+    {
+        /**
+         * Called on the writer thread once the specified save has finished,
+         * with the exception that stopped it (null if every file was written).
+         */
+        public void saved(FileSaver save, IOException error);
+    }
+
+} // END CLASS
@@ -0,0 +1,169 @@
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import javax.imageio.*;
+import javax.swing.*;
+
+/**
+ * Decodes every image the game draws once and keeps it, along with copies scaled to the sizes it is drawn at.
+ * Scaled copies are made in the screen's own format (so they can be drawn without conversion)
+ * and never need to be scaled again while painting.
+ * File names are matched without regard to case, since the directories and extensions on disk
+ * do not always match the case used in the code (e.g. "images/units/Drake.gif" is Images/Units/Drake.GIF).
+ * Animated GIFs are kept as the toolkit loads them instead (see getAnimated), since ImageIO decodes only their first frame.
+ */
+public class ImageCache
+{
+    private static HashMap<String, BufferedImage> decoded = new HashMap<String, BufferedImage>(); // images by path, as read
+    private static HashMap<String, BufferedImage> scaled = new HashMap<String, BufferedImage>(); // images by path and size, scaled
+    private static HashMap<String, Image> animated = new HashMap<String, Image>(); // animated images by path, as the toolkit loaded them
+    
+    private static int decodeCount; // the number of image files decoded so far
+    
+    /**
+     * Returns the image at the specified path, decoding it the first time it is asked for.
+     * Returns an empty image if the file cannot be read.
+     */
+    public static synchronized BufferedImage get(String path)
+    {
+        BufferedImage image = decoded.get(path);
+        if (image == null)
+        {
+            image = read(path);
+            decoded.put(path, image);
+        }
+        return image;
+    }
+    
+    /**
+     * Returns the animated image at the specified path, loading it the first time it is asked for.
+     * The toolkit plays every frame, telling the observer it is drawn with as each one is ready.
+     * Returns an empty image if the file cannot be read.
+     */
+    public static synchronized Image getAnimated(String path)
+    {
+        Image image = animated.get(path);
+        if (image == null)
+        {
+            File file = find(path);
+            if (file != null)
+            {
+                image = new ImageIcon(file.getPath()).getImage(); // waits until the first frame is loaded, so its size is known
+                decodeCount++;
+            }
+            if (image == null || image.getWidth(null) < 0) // could not be read
+                image = createImage(1, 1);
+            animated.put(path, image);
+        }
+        return image;
+    }
+    
+    /**
+     * Returns the image at the specified path scaled to the specified width and height.
+     */
+    public static synchronized BufferedImage getScaled(String path, int width, int height)
+    {
+        String key = path + "@" + width + "x" + height;
+        BufferedImage image = scaled.get(key);
+        if (image == null)
+        {
+            image = createImage(width, height);
+            Graphics2D g2 = image.createGraphics();
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.drawImage(get(path), 0, 0, width, height, null);
+            g2.dispose();
+            scaled.put(key, image);
+        }
+        return image;
+    }
+    
+    /**
+     * Returns a single image holding the images at the specified paths side by side,
+     * each scaled to a square of the specified size (image i starts at x = i*size).
+     */
+    public static synchronized BufferedImage getAtlas(String[] paths, int size)
+    {
+        BufferedImage atlas = createImage(paths.length*size, size);
+        Graphics2D g2 = atlas.createGraphics();
+        for (int i = 0; i < paths.length; i++)
+            g2.drawImage(getScaled(paths[i], size, size), i*size, 0, null);
+        g2.dispose();
+        return atlas;
+    }
+    
+    /**
+     * Returns the number of image files that have been decoded.
+     */
+    public static synchronized int getDecodeCount()
+    {
+        return decodeCount;
+    }
+    
+    /**
+     * Returns a blank image of the specified size in the format the screen draws fastest.
+     */
+    public static BufferedImage createImage(int width, int height)
+    {
+        width = Math.max(width, 1);
+        height = Math.max(height, 1);
+        
+        if (GraphicsEnvironment.isHeadless()) // no screen to match
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        
+        GraphicsConfiguration config = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+        return config.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+    }
+    
+    /**
+     * Decodes the image at the specified path.
+     * Returns an empty image if the file cannot be read.
+     */
+    private static BufferedImage read(String path)
+    {
+        try
+        {
+            File file = find(path);
+            if (file != null)
+            {
+                BufferedImage image = ImageIO.read(file);
+                decodeCount++;
+                if (image != null)
+                    return image;
+            }
+        }
+        catch (IOException e) { System.out.println(e); }
+        
+        return createImage(1, 1);
+    }
+    
+    /**
+     * Returns the file at the specified path, matching each part of the path without regard to case.
+     * Returns null if there is no such file.
+     */
+    private static File find(String path)
+    {
+        File file = new File(path);
+        if (file.exists())
+            return file;
+        
+        File dir = null; // the directory found so far (null = working directory)
+        String[] parts = path.split("/");
+        for (int i = 0; i < parts.length; i++)
+        {
+            String[] names = (dir == null) ? new File(".").list() : dir.list();
+            if (names == null)
+                return null;
+            
+            File next = null;
+            for (int j = 0; j < names.length && next == null; j++)
+                if (names[j].equalsIgnoreCase(parts[i]))
+                    next = (dir == null) ? new File(names[j]) : new File(dir, names[j]);
+            if (next == null)
+                return null;
+            dir = next;
+        }
+        return dir;
+    }
+
+} // END CLASS
@@ -1,16 +1,12 @@
 import java.util.*;
 import java.io.*;
-import javax.swing.*;
 import java.awt.*;
 
 /**
  * Stores properties of items (potions, stat-builders, etc.).
  */
-public class Item extends JComponent
+public class Item
 {
-    private static final String ITEM_FILE_HEADING = "items/"; // the directory in which the item files can be found
-    private static final String EXTENSION = ".dat"; // file type
-    
     public static final String HP_UP_TYPE = "HP"; // the types of items
     public static final String STR_UP_TYPE = "Strength";
     public static final String DEF_UP_TYPE = "Defense";
@@ -21,18 +17,10 @@ public class Item extends JComponent
     public static final String POTION = "Potion"; // healing items
     public static final String ELIXER = "Elixer";
     
-    private static final String DUMMY = "DUMMY"; // substitute for empty space
+    private ItemDef def; // the properties of the item's kind (shared, never changed)
     
     private int myUses; // how many times the item can be used
     
-    private File itemFile; // the file containing the item's properties
-    
-    private String myName; // the name of the item
-    private String myType; // the type of the item
-    private String myDescription; // the description of the item
-    
-    private int bonusVal; // the value added/subtracted from the stat
-    
     private boolean hidden; // if the weapon stats are hidden or not
     
     /**
@@ -41,8 +29,8 @@ public class Item extends JComponent
      */
     public Item(String url)
     {
-        itemFile = new File(ITEM_FILE_HEADING + url + EXTENSION);
-        readItemFile();
+        def = Definitions.getItem(url);
+        myUses = def.getUses();
         hidden = true;
     }
     
@@ -52,18 +40,28 @@ public class Item extends JComponent
      */
     public Item(String url, int usesLeft)
     {
-        itemFile = new File(ITEM_FILE_HEADING + url + EXTENSION);
-        readItemFile();
+        def = Definitions.getItem(url);
         myUses = usesLeft;
         hidden = true;
     }
     
+    /**
+     * Creates an item based on the specified item.
+     * Creates a copy, with its own number of uses left.
+     */
+    public Item(Item anItem)
+    {
+        def = anItem.def;
+        myUses = anItem.myUses;
+        hidden = anItem.hidden;
+    }
+    
     /**
      * Returns the name of the item.
      */
     public String getName()
     {
-        return myName;
+        return def.getName();
     }
     
     /**
@@ -71,7 +69,7 @@ public class Item extends JComponent
      */
     public String getAffectedStat()
     {
-        return myType;
+        return def.getAffectedStat();
     }
     
     /**
@@ -79,7 +77,7 @@ public class Item extends JComponent
      */
     public int getChangeValue()
     {
-        return bonusVal;
+        return def.getChangeValue();
     }
     
     /**
@@ -99,52 +97,11 @@ public class Item extends JComponent
     }
     
     /**
-     * Reads the weapon's stats from the file.
-     * Sets the name, type, uses, and bonusVal variables to those found in the file.
-     */
-    private void readItemFile()
-    {
-        try
-        {
-            Scanner in = new Scanner(new FileInputStream(itemFile));
-            
-            myName = nextItemInFile(in);
-            myType = nextItemInFile(in);
-            bonusVal = nextIntInFile(in);
-            myUses = nextIntInFile(in);
-            in.nextLine(); // for some reason...
-            myDescription = nextItemInFile(in);
-            
-            if (myName.equals(DUMMY)) // item is a substitute
-            {
-                myName = "";
-                myType = "";
-                myUses = 0;
-            }
-        }
-        catch (FileNotFoundException e) {}
-    }
-    
-    /**
-     * Returns the next integer in the file with the specified scanner.
-     */
-    private int nextIntInFile(Scanner in)
-    {
-        while (!in.hasNextInt())
-        {
-            in.next();
-        }
-        return in.nextInt();
-    }
-    
-    /**
-     * Returns the next item/weapon in the file with the specified scanner.
+     * Sets the number of uses remaining on the item.
      */
-    private String nextItemInFile(Scanner in)
+    public void setUsesLeft(int newVal)
     {
-        String s = in.nextLine();
-        String[] sArray = s.split(":");
-        return sArray[1].trim();
+        myUses = newVal;
     }
     
     /**
@@ -184,7 +141,7 @@ public class Item extends JComponent
             final Font FONT = new Font("", Font.PLAIN, FONT_SIZE);
             
             Graphics2D g2 = (Graphics2D) g;
-            String[] s = {"Uses: " + myUses, myDescription};
+            String[] s = {"Uses: " + myUses, def.getDescription()};
             
             g2.setColor(Color.red);
             g2.fillRoundRect(x, y, WIDTH, (s.length)*(FONT_SIZE + GAP), GAP, GAP);
@@ -0,0 +1,111 @@
+import java.util.*;
+import java.io.*;
+
+/**
+ * The properties of a kind of item, as read from its file (stat affected, bonus, etc.).
+ * Never changes once read, so one definition is shared by every item of the kind
+ * in every battle (see Definitions); the uses left belong to the Item.
+ */
+public class ItemDef
+{
+    private static final String DUMMY = "DUMMY"; // substitute for empty space
+    
+    private File itemFile; // the file containing the item's properties
+    
+    private String myName; // the name of the item
+    private String myType; // the type of the item
+    private String myDescription; // the description of the item
+    
+    private int bonusVal; // the value added/subtracted from the stat
+    private int myUses; // how many times a new item can be used
+    
+    /**
+     * Creates the definition of an item, read from the specified file.
+     */
+    public ItemDef(File aFile)
+    {
+        itemFile = aFile;
+        readItemFile();
+    }
+    
+    /**
+     * Returns the name of the item.
+     */
+    public String getName()
+    {
+        return myName;
+    }
+    
+    /**
+     * Returns what stat is affected by the item.
+     */
+    public String getAffectedStat()
+    {
+        return myType;
+    }
+    
+    /**
+     * Returns the value by which the affected stat is increased.
+     */
+    public int getChangeValue()
+    {
+        return bonusVal;
+    }
+    
+    /**
+     * Returns the number of times a new item can be used.
+     */
+    public int getUses()
+    {
+        return myUses;
+    }
+    
+    /**
+     * Returns the description of the item.
+     */
+    public String getDescription()
+    {
+        return myDescription;
+    }
+    
+    /**
+     * Returns the file the item is based on.
+     */
+    public File getFile()
+    {
+        return itemFile;
+    }
+    
+    /**
+     * Reads the weapon's stats from the file.
+     * Sets the name, type, uses, and bonusVal variables to those found in the file.
+     */
+    private void readItemFile()
+    {
+        try
+        {
+            DataFileReader in = new DataFileReader(itemFile);
+            try
+            {
+                myName = in.nextValue();
+                myType = in.nextValue();
+                bonusVal = in.nextIntValue();
+                myUses = in.nextIntValue();
+                myDescription = in.nextValue();
+            }
+            finally
+            {
+                in.close();
+            }
+            
+            if (myName.equals(DUMMY)) // item is a substitute
+            {
+                myName = "";
+                myType = "";
+                myUses = 0;
+            }
+        }
+        catch (IOException e) { System.out.println(e); }
+    }
+
+} // END CLASS
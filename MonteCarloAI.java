@@ -0,0 +1,426 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Plans a whole side's turn by Monte Carlo tree search, as an optional stronger AI (see BattleEngine.setPlanner).
+ * Each level of the tree is the choice of target for the next live unit of the side, in the order the units act:
+ * leaving it to the greedy AI, or one of the enemies it can reach this turn.
+ * Each playout carries out the choices down the tree (the greedy AI acts for every unit below it),
+ * then lets the greedy AI play every side once more (PLAYOUT_ROUNDS) with its own rolls, so counter attacks and the enemy's reply count.
+ * Each searching thread copies the battle once, then undoes every playout on its copy (see BattleEngine.unmakeTo),
+ * which costs only as much as the playout changed.
+ * Searches for a set amount of wall-clock time per turn, on every core.
+ */
+public class MonteCarloAI
+{
+    public static final int GREEDY = -1; // a choice leaving the unit's target to the greedy AI
+    public static final long DEFAULT_BUDGET = 200; // the default time spent planning a turn, in milliseconds
+    
+    private static final int MAX_CHOICES = 8; // the most choices considered for a unit (the greedy AI's included)
+    private static final int PLAYOUT_ROUNDS = 1; // the number of times every side plays on after the planned turn in a playout
+    private static final double EXPLORATION = Math.sqrt(2); // how much the search favours rarely tried choices
+    
+    private static ExecutorService searchers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "Search");
+                t.setDaemon(true); // never keeps the game open
+                return t;
+            }
+        }); // runs the playouts of every search, besides the thread that asked for the plan
+    
+    private long budget; // the time spent planning a turn, in milliseconds
+    
+    private AtomicLong playouts = new AtomicLong(); // the number of playouts so far (shared by every battle using this AI at once)
+    private AtomicLong searchTime = new AtomicLong(); // the time spent searching so far, in nanoseconds
+    
+    /**
+     * Creates an AI that spends the specified number of milliseconds planning each turn.
+     */
+    public MonteCarloAI(long aBudget)
+    {
+        budget = aBudget;
+    }
+    
+    /**
+     * Creates an AI that spends the default time planning each turn.
+     */
+    public MonteCarloAI()
+    {
+        this(DEFAULT_BUDGET);
+    }
+    
+    /**
+     * Returns the time spent planning a turn, in milliseconds.
+     */
+    public long getBudget()
+    {
+        return budget;
+    }
+    
+    /**
+     * Sets the time spent planning a turn, in milliseconds.
+     */
+    public void setBudget(long newVal)
+    {
+        budget = newVal;
+    }
+    
+    /**
+     * Returns the number of playouts so far.
+     */
+    public long getPlayouts()
+    {
+        return playouts.get();
+    }
+    
+    /**
+     * Returns the number of playouts done per second of searching so far.
+     */
+    public double getPlayoutsPerSecond()
+    {
+        return playouts.get()/Math.max(searchTime.get()/1e9, 1e-9);
+    }
+    
+    /**
+     * Sets the number of playouts and the time spent searching back to zero.
+     */
+    public void resetStats()
+    {
+        playouts.set(0);
+        searchTime.set(0);
+    }
+    
+    /**
+     * Plans the turn of the side at the specified index of the specified battle.
+     * Returns the target chosen for each unit of the side, as an index into AI.allEnemies (GREEDY = left to the greedy AI),
+     * or null if there is nothing worth searching.
+     * The battle itself is only read, besides drawing the seeds of the playouts from its random numbers,
+     * so a battle rolled from a seed searches from the same seeds every time.
+     */
+    public int[] planTurn(BattleEngine engine, int index)
+    {
+        ArrayList<Unit> theSide = engine.getSide(index);
+        ArrayList<ArrayList<Unit>> enemySides = new ArrayList<ArrayList<Unit>>();
+        for (int i = 0; i < engine.getSideCount(); i++)
+            if (i != index)
+                enemySides.add(engine.getSide(i));
+        ArrayList<Unit> myEnemy = AI.allEnemies(enemySides);
+        
+        // the units that act, and what each could do
+        ArrayList<Integer> units = new ArrayList<Integer>();
+        ArrayList<int[]> choices = new ArrayList<int[]>();
+        boolean anyChoice = false;
+        for (int j = 0; j < theSide.size(); j++)
+        {
+            if (!theSide.get(j).isAlive())
+                continue;
+            
+            int[] unitChoices = choicesOf(theSide.get(j), myEnemy, engine.getThreatMap());
+            units.add(j);
+            choices.add(unitChoices);
+            if (unitChoices.length > 1)
+                anyChoice = true;
+        }
+        if (!anyChoice || budget <= 0)
+            return null;
+        
+        Search search = new Search(engine, index, units, choices);
+        long start = System.nanoTime();
+        search.runUntil(start + budget*1000000);
+        long elapsed = System.nanoTime() - start;
+        
+        playouts.addAndGet(search.getPlayouts());
+        searchTime.addAndGet(elapsed);
+        
+        return search.getBestChoices(theSide.size());
+    }
+    
+    /**
+     * Returns the choices of target for the specified unit: the greedy AI's, then each live enemy it can attack this turn
+     * (as indices into the specified enemies), up to MAX_CHOICES in all.
+     */
+    private static int[] choicesOf(Unit aiUnit, ArrayList<Unit> myEnemy, ThreatMap threats)
+    {
+        boolean[] reachable = threats.threatensEach(aiUnit, myEnemy);
+        int[] found = new int[MAX_CHOICES];
+        int size = 0;
+        found[size++] = GREEDY;
+        for (int i = 0; i < myEnemy.size() && size < MAX_CHOICES; i++)
+            if (reachable[i] && myEnemy.get(i).isAlive())
+                found[size++] = i;
+        return Arrays.copyOf(found, size);
+    }
+    
+    /**
+     * Returns how well the specified battle is going for the specified side, from 0 (lost) to 1 (won).
+     * Undecided battles score by the share of hp each side has left.
+     */
+    private static double evaluate(BattleEngine battle, int index)
+    {
+        int victor = battle.getVictorSide();
+        if (victor != -1)
+            return (victor == index) ? 1 : 0;
+        
+        int ownHP = 0, ownMax = 0, enemyHP = 0, enemyMax = 0;
+        for (int i = 0; i < battle.getSideCount(); i++)
+        {
+            ArrayList<Unit> theSide = battle.getSide(i);
+            for (int j = 0; j < theSide.size(); j++)
+            {
+                if (i == index)
+                {
+                    ownHP += theSide.get(j).getHP();
+                    ownMax += theSide.get(j).getMaxHP();
+                }
+                else
+                {
+                    enemyHP += theSide.get(j).getHP();
+                    enemyMax += theSide.get(j).getMaxHP();
+                }
+            }
+        }
+        return 0.5 + 0.5*((double)ownHP/Math.max(ownMax, 1) - (double)enemyHP/Math.max(enemyMax, 1));
+    }
+    
+    /**
+     * The search of a single turn: the tree, and the playouts that grow it.
+     * Playouts run on several threads at once; only choosing where to play out and recording the result are locked.
+     */
+    private static class Search
+    {
+        private BattleEngine engine; // the battle as the turn starts (only read, besides drawing the seeds of the playouts)
+        private int index; // the side being planned
+        private ArrayList<Integer> units; // the index in the side of each unit that acts, in order
+        private ArrayList<int[]> choices; // the choices of each unit that acts
+        
+        private Node root; // the choice of the first unit that acts
+        private int playouts; // the number of playouts finished
+        
+        /**
+         * Creates a search of the specified side's turn, made of the specified units with the specified choices.
+         */
+        public Search(BattleEngine anEngine, int anIndex, ArrayList<Integer> theUnits, ArrayList<int[]> theChoices)
+        {
+            engine = anEngine;
+            index = anIndex;
+            units = theUnits;
+            choices = theChoices;
+            root = new Node(choices.get(0).length);
+        }
+        
+        /**
+         * Plays out until the specified time (from System.nanoTime), on every core.
+         * The calling thread plays out too, so the search goes on even if every other thread is busy.
+         */
+        public void runUntil(final long deadline)
+        {
+            final RandomSource seeds = engine.getRandom().split();
+            ArrayList<Future<?>> helpers = new ArrayList<Future<?>>();
+            for (int i = 1; i < Runtime.getRuntime().availableProcessors(); i++)
+            {
+                final RandomSource rand = seeds.split();
+                helpers.add(searchers.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        playOutUntil(deadline, rand);
+                    }
+                }));
+            }
+            playOutUntil(deadline, seeds.split());
+            
+            try
+            {
+                for (int i = 0; i < helpers.size(); i++)
+                    helpers.get(i).get();
+            }
+            catch (InterruptedException e) { System.out.println(e); }
+            catch (ExecutionException e) { e.getCause().printStackTrace(); }
+        }
+        
+        /**
+         * Plays out one path after another until the specified time, rolling with the specified random numbers.
+         * Does nothing if the time has already passed (such as when every searcher was busy with other battles).
+         */
+        private void playOutUntil(long deadline, RandomSource rand)
+        {
+            if (System.nanoTime() >= deadline)
+                return;
+            
+            BattleEngine copy = new BattleEngine(engine, 0);
+            copy.setPlanner(null); // the rest of each playout is greedy
+            copy.setUndoable(true);
+            
+            while (System.nanoTime() < deadline)
+            {
+                ArrayList<Node> path = new ArrayList<Node>();
+                int[] picked = select(path);
+                double reward = playOut(copy, picked, rand.nextLong());
+                record(path, picked, reward);
+            }
+        }
+        
+        /**
+         * Walks down the tree from the root, picking the most promising choice at each level,
+         * until it picks a choice never tried before (or reaches the last unit).
+         * Fills in the nodes passed and returns the index of the choice picked at each of them (-1 below the walk).
+         * Each choice picked counts the playout at once, so other threads are steered elsewhere until its result is recorded.
+         */
+        private synchronized int[] select(ArrayList<Node> path)
+        {
+            int[] picked = new int[units.size()];
+            Arrays.fill(picked, -1);
+            
+            Node node = root;
+            for (int depth = 0; ; depth++)
+            {
+                int child = node.untried();
+                boolean added = child != -1;
+                if (!added)
+                    child = node.mostPromising();
+                
+                node.visits++;
+                node.tried[child]++;
+                path.add(node);
+                picked[depth] = child;
+                if (added || depth + 1 == units.size())
+                    return picked;
+                
+                if (node.children[child] == null)
+                    node.children[child] = new Node(choices.get(depth + 1).length);
+                node = node.children[child];
+            }
+        }
+        
+        /**
+         * Adds the specified reward to the choices picked at every node of the specified path.
+         */
+        private synchronized void record(ArrayList<Node> path, int[] picked, double reward)
+        {
+            for (int i = 0; i < path.size(); i++)
+                path.get(i).rewards[picked[i]] += reward;
+            playouts++;
+        }
+        
+        /**
+         * Plays the specified choices (by index at each level) on the specified copy of the battle, rolled from the specified seed,
+         * then lets the greedy AI play on, and returns how well it went for the side.
+         * The copy is put back as it was afterwards.
+         */
+        private double playOut(BattleEngine copy, int[] picked, long seed)
+        {
+            int mark = copy.getUndoMark();
+            copy.getRandom().setState(seed);
+            
+            int[] targets = new int[engine.getSide(index).size()];
+            Arrays.fill(targets, GREEDY);
+            for (int d = 0; d < picked.length && picked[d] != -1; d++)
+                targets[units.get(d)] = choices.get(d)[picked[d]];
+            
+            copy.executeAI(index, null, targets);
+            copy.endTurn();
+            for (int t = 0; t < PLAYOUT_ROUNDS*copy.getSideCount() && copy.getVictorSide() == -1; t++)
+                copy.playAITurn();
+            
+            double reward = evaluate(copy, index);
+            copy.unmakeTo(mark);
+            return reward;
+        }
+        
+        /**
+         * Returns the number of playouts finished.
+         */
+        public synchronized int getPlayouts()
+        {
+            return playouts;
+        }
+        
+        /**
+         * Returns the target of each unit of a side of the specified size, following the most visited choices down the tree
+         * (GREEDY for units the search did not reach and fallen units).
+         */
+        public synchronized int[] getBestChoices(int sideSize)
+        {
+            int[] best = new int[sideSize];
+            Arrays.fill(best, GREEDY);
+            
+            Node node = root;
+            for (int depth = 0; depth < units.size() && node != null; depth++)
+            {
+                int child = node.mostVisited();
+                if (child == -1)
+                    break;
+                best[units.get(depth)] = choices.get(depth)[child];
+                node = node.children[child];
+            }
+            return best;
+        }
+    }
+    
+    /**
+     * A point in the search: the choice of one unit, after the choices of the units before it.
+     */
+    private static class Node
+    {
+        private int visits; // the number of playouts through the node
+        private Node[] children; // the node after each choice (null = not tried yet)
+        private int[] tried; // the number of playouts through each choice
+        private double[] rewards; // the total reward of the playouts through each choice
+        
+        /**
+         * Creates a node with the specified number of choices, none tried yet.
+         */
+        public Node(int choiceCount)
+        {
+            children = new Node[choiceCount];
+            tried = new int[choiceCount];
+            rewards = new double[choiceCount];
+        }
+        
+        /**
+         * Returns the first choice never tried, or -1 if all have been.
+         */
+        public int untried()
+        {
+            for (int i = 0; i < tried.length; i++)
+                if (tried[i] == 0)
+                    return i;
+            return -1;
+        }
+        
+        /**
+         * Returns the choice with the highest upper confidence bound (UCB1).
+         */
+        public int mostPromising()
+        {
+            int best = 0;
+            double bestBound = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < tried.length; i++)
+            {
+                double bound = rewards[i]/tried[i] + EXPLORATION*Math.sqrt(Math.log(visits)/tried[i]);
+                if (bound > bestBound)
+                {
+                    best = i;
+                    bestBound = bound;
+                }
+            }
+            return best;
+        }
+        
+        /**
+         * Returns the choice tried most often, or -1 if none has been tried.
+         */
+        public int mostVisited()
+        {
+            int best = -1;
+            for (int i = 0; i < tried.length; i++)
+                if (tried[i] > 0 && (best == -1 || tried[i] > tried[best]))
+                    best = i;
+            return best;
+        }
+    }
+
+} // END CLASS
@@ -0,0 +1,211 @@
+/**
+ * Stores every grid a unit can reach in a single move and the cheapest cost of getting there.
+ * Built with a bucket queue (Dijkstra's algorithm for small integer costs),
+ * so each grid is settled once no matter how many paths lead to it.
+ */
+public class MoveRange
+{
+    private static final int UNREACHABLE = -1; // cost of a grid that cannot be reached
+    
+    private Location origin; // the grid coordinates the range was built from
+    
+    private int maxCost; // the movement range the range was built with
+    private int left, top; // the grid coordinates of the upper left corner of the window
+    private int span; // the width and height of the window (every reachable grid lies inside it)
+    
+    private int[] cost; // the cheapest cost to each grid in the window (-1 = unreachable)
+    private int[] cells; // the window index of each reachable grid, in order of increasing cost
+    private int size; // the number of reachable grids
+    
+    /**
+     * Builds the movement range of a unit of the specified side with the specified movement range
+     * starting from the specified location on the specified battlefield.
+     */
+    public MoveRange(BattleField field, Location start, int rng, int side)
+    {
+        origin = start;
+        maxCost = Math.max(rng, 0);
+        
+        // every step costs at least one, so nothing farther than rng grids away can be reached
+        left = start.x() - maxCost;
+        top = start.y() - maxCost;
+        span = 2*maxCost + 1;
+        
+        cost = new int[span*span];
+        for (int i = 0; i < cost.length; i++)
+            cost[i] = UNREACHABLE;
+        cells = new int[Math.min(cost.length, 16)];
+        size = 0;
+        
+        search(field, side);
+    }
+    
+    /**
+     * Settles the grids in order of increasing cost.
+     * Bucket c holds the grids first reached with a total cost of c; stale entries are skipped.
+     */
+    private void search(BattleField field, int side)
+    {
+        int[][] bucket = new int[maxCost + 1][];
+        int[] bucketSize = new int[maxCost + 1];
+        
+        int start = indexOf(origin.x(), origin.y());
+        cost[start] = 0;
+        push(bucket, bucketSize, 0, start);
+        
+        int[] dx = {1, 0, -1, 0}; // right, below, left, above
+        int[] dy = {0, 1, 0, -1};
+        
+        byte[] delay = field.getCostGrid(side); // padded with an impassable border, so no bounds checks
+        int stride = field.getCostStride();
+        int[] step = {1, stride, -1, -stride}; // offsets of the same neighbours in the cost grid
+        
+        for (int c = 0; c <= maxCost; c++)
+        {
+            for (int k = 0; k < bucketSize[c]; k++)
+            {
+                int index = bucket[c][k];
+                if (cost[index] != c) // already settled with a cheaper cost
+                    continue;
+                add(index);
+                
+                int x = left + index % span;
+                int y = top + index / span;
+                int here = field.costIndexOf(x, y);
+                for (int d = 0; d < dx.length; d++)
+                {
+                    int nextDelay = delay[here + step[d]];
+                    if (nextDelay >= Terrain.IMPASSABLE) // never entered, whatever the range; the border stops the search
+                        continue;
+                    int nextCost = c + nextDelay;
+                    if (nextCost > maxCost)
+                        continue;
+                    
+                    int next = indexOf(x + dx[d], y + dy[d]);
+                    if (cost[next] == UNREACHABLE || nextCost < cost[next])
+                    {
+                        cost[next] = nextCost;
+                        push(bucket, bucketSize, nextCost, next);
+                    }
+                }
+            }
+            bucket[c] = null; // bucket is finished
+        }
+    }
+    
+    /**
+     * Adds the specified window index to the specified bucket.
+     */
+    private void push(int[][] bucket, int[] bucketSize, int c, int index)
+    {
+        if (bucket[c] == null)
+            bucket[c] = new int[8];
+        else if (bucketSize[c] == bucket[c].length)
+        {
+            int[] bigger = new int[2*bucket[c].length];
+            System.arraycopy(bucket[c], 0, bigger, 0, bucketSize[c]);
+            bucket[c] = bigger;
+        }
+        bucket[c][bucketSize[c]++] = index;
+    }
+    
+    /**
+     * Adds the specified window index to the list of reachable grids.
+     */
+    private void add(int index)
+    {
+        if (size == cells.length)
+        {
+            int[] bigger = new int[2*cells.length];
+            System.arraycopy(cells, 0, bigger, 0, size);
+            cells = bigger;
+        }
+        cells[size++] = index;
+    }
+    
+    /**
+     * Returns the window index of the specified grid coordinates.
+     */
+    private int indexOf(int x, int y)
+    {
+        return (y - top)*span + (x - left);
+    }
+    
+    /**
+     * Returns if the specified grid coordinates lie inside the window.
+     */
+    private boolean inWindow(int x, int y)
+    {
+        return (left <= x) && (x < left + span) && (top <= y) && (y < top + span);
+    }
+    
+    /**
+     * Returns whether or not the specified grid coordinates can be reached.
+     */
+    public boolean contains(int x, int y)
+    {
+        return inWindow(x, y) && cost[indexOf(x, y)] != UNREACHABLE;
+    }
+    
+    /**
+     * Returns whether or not the specified location can be reached.
+     */
+    public boolean contains(Location loc)
+    {
+        return contains(loc.x(), loc.y());
+    }
+    
+    /**
+     * Returns the cheapest cost of reaching the specified grid coordinates.
+     * Returns -1 if they cannot be reached.
+     */
+    public int costTo(int x, int y)
+    {
+        if (!inWindow(x, y))
+            return UNREACHABLE;
+        return cost[indexOf(x, y)];
+    }
+    
+    /**
+     * Returns the number of reachable grids (including the starting one).
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Returns the grid x coordinate of the reachable grid at the specified index.
+     * Grids are ordered by increasing cost.
+     */
+    public int getX(int i)
+    {
+        return left + cells[i] % span;
+    }
+    
+    /**
+     * Returns the grid y coordinate of the reachable grid at the specified index.
+     * Grids are ordered by increasing cost.
+     */
+    public int getY(int i)
+    {
+        return top + cells[i] / span;
+    }
+    
+    /**
+     * Returns the location the range was built from.
+     */
+    public Location getOrigin()
+    {
+        return origin;
+    }
+    
+    /**
+     * Returns the movement range the range was built with.
+     */
+    public int getMaxCost()
+    {
+        return maxCost;
+    }
+
+} // END CLASS
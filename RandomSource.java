@@ -0,0 +1,83 @@
+/**
+ * A seedable stream of random numbers for combat rolls, level ups and AI choices.
+ * Uses the SplitMix64 generator: each number is a scrambled step of a single long,
+ * so a stream is cheap to create, can be saved and restored exactly, and can be split
+ * into an independent stream for another battle or thread.
+ * Not safe to share between threads; give each thread its own split.
+ */
+public class RandomSource
+{
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L; // the step added to the state for each number
+    
+    private long state; // the position in the stream
+    
+    /**
+     * Creates a stream starting from the specified seed.
+     * Streams created from the same seed produce the same numbers.
+     */
+    public RandomSource(long seed)
+    {
+        state = seed;
+    }
+    
+    /**
+     * Creates a stream with an arbitrary seed.
+     */
+    public RandomSource()
+    {
+        this(mix(System.nanoTime()));
+    }
+    
+    /**
+     * Returns the next random long.
+     */
+    public long nextLong()
+    {
+        state += GOLDEN_GAMMA;
+        return mix(state);
+    }
+    
+    /**
+     * Returns a random int from 0 (inclusive) to the specified bound (exclusive).
+     */
+    public int nextInt(int bound)
+    {
+        return (int)(((nextLong() >>> 32)*bound) >>> 32);
+    }
+    
+    /**
+     * Returns a new stream whose numbers are independent of this one's.
+     * Advances this stream by one number.
+     */
+    public RandomSource split()
+    {
+        return new RandomSource(nextLong());
+    }
+    
+    /**
+     * Returns the position in the stream, so it can be restored later.
+     */
+    public long getState()
+    {
+        return state;
+    }
+    
+    /**
+     * Moves the stream to the specified position, as returned by getState.
+     */
+    public void setState(long newVal)
+    {
+        state = newVal;
+    }
+    
+    /**
+     * Scrambles the bits of the specified value (the SplitMix64 finalizer).
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30))*0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27))*0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+} // END CLASS
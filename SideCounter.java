@@ -0,0 +1,67 @@
+/**
+ * Keeps count of the live units and the units that can still act this turn on each side of a battle,
+ * so whether the battle or a side's turn is over is known without looking at any unit.
+ * Each unit reports to the counter itself when it falls or is healed and when it is enabled or disabled
+ * (see Unit.setCounter).
+ */
+public class SideCounter
+{
+    private int[] alive; // the number of live units on each side
+    private int[] ready; // the number of live, enabled units on each side
+    private int liveSides; // the number of sides with at least one live unit
+    
+    /**
+     * Creates a counter with no units on any side.
+     */
+    public SideCounter()
+    {
+        alive = new int[BattleField.MAX_SIDES];
+        ready = new int[BattleField.MAX_SIDES];
+        liveSides = 0;
+    }
+    
+    /**
+     * Adds the specified changes to the number of live units and live, enabled units on the specified side.
+     */
+    public void change(int side, int aliveChange, int readyChange)
+    {
+        boolean wasLive = alive[side] > 0;
+        alive[side] += aliveChange;
+        ready[side] += readyChange;
+        
+        if (wasLive != alive[side] > 0) // the side was wiped out or came back
+            liveSides += wasLive ? -1 : 1;
+    }
+    
+    /**
+     * Returns the number of live units on the specified side.
+     */
+    public int getAlive(int side)
+    {
+        return alive[side];
+    }
+    
+    /**
+     * Returns the number of live units on the specified side that can still act this turn.
+     */
+    public int getReady(int side)
+    {
+        return ready[side];
+    }
+    
+    /**
+     * Returns the only side with live units left.
+     * Returns -1 if more than one side (or none) has live units.
+     */
+    public int getVictorSide()
+    {
+        if (liveSides != 1)
+            return -1;
+        
+        for (int i = 0; i < alive.length; i++)
+            if (alive[i] > 0)
+                return i;
+        return -1;
+    }
+
+} // END CLASS
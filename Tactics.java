@@ -9,7 +9,7 @@ import java.io.*;
  */
 public class Tactics extends JPanel
 {
-    private BattleField field; // where the battles are fought
+    private BattleFieldView field; // paints the field where the battles are fought
     private Battle battle; // the current battle
     
     /**
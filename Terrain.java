@@ -0,0 +1,121 @@
+/**
+ * The kinds of terrain a grid on the battlefield can have.
+ * Each kind knows its symbol in the battlefield files, the movement cost of entering it,
+ * the hit chance it takes away from attacks against a unit standing on it, and its image.
+ */
+public enum Terrain
+{
+    GRASS(BattleField.PLAIN_SYMBOL, 1, 0, "grass.gif"),
+    FOREST(BattleField.FOREST_SYMBOL, 2, 15, "forest.gif"),
+    FORT(BattleField.FORT_SYMBOL, 1, 0, "fortress.gif"),
+    OCEAN(BattleField.OCEAN_SYMBOL, 100, 0, "ocean.gif"), // basically, impassable
+    HOUSE(BattleField.HOUSE_SYMBOL, 1, 0, "house.gif"),
+    MOUNTAIN(BattleField.MOUNTAIN_SYMBOL, 3, 0, "mountain.gif"),
+    PEAK(BattleField.PEAK_SYMBOL, 4, 0, "peak.gif"),
+    THRONE(BattleField.CHAIR_SYMBOL, 1, 0, "throne.gif");
+    
+    public static final int IMPASSABLE = 100; // the movement cost of grids that cannot be entered
+    
+    private static final Terrain[] ALL = values(); // every kind, indexed by terrain code
+    private static final String[] SYMBOLS = new String[ALL.length]; // the symbol of every kind, indexed by terrain code
+    
+    static
+    {
+        for (int i = 0; i < ALL.length; i++)
+            SYMBOLS[i] = ALL[i].symbol;
+    }
+    
+    private String symbol; // the symbol representing the terrain in battlefield files
+    private int moveCost; // the movement delay of entering the terrain
+    private int avoid; // the hit chance taken away from attacks against a unit on the terrain
+    private String imageName; // the file name of the terrain's image
+    
+    /**
+     * Creates a kind of terrain with the specified properties.
+     */
+    private Terrain(String aSymbol, int aMoveCost, int anAvoid, String anImageName)
+    {
+        symbol = aSymbol;
+        moveCost = aMoveCost;
+        avoid = anAvoid;
+        imageName = anImageName;
+    }
+    
+    /**
+     * Returns the symbol representing the terrain in battlefield files.
+     */
+    public String getSymbol()
+    {
+        return symbol;
+    }
+    
+    /**
+     * Returns the movement delay of entering the terrain.
+     */
+    public int getMoveCost()
+    {
+        return moveCost;
+    }
+    
+    /**
+     * Returns the hit chance taken away from attacks against a unit standing on the terrain.
+     */
+    public int getAvoid()
+    {
+        return avoid;
+    }
+    
+    /**
+     * Returns the file name of the terrain's image, without any directories.
+     */
+    public String getImageName()
+    {
+        return imageName;
+    }
+    
+    /**
+     * Returns the code stored in the battlefield for the terrain.
+     */
+    public byte getCode()
+    {
+        return (byte)ordinal();
+    }
+    
+    /**
+     * Returns the terrain with the specified code.
+     */
+    public static Terrain fromCode(int code)
+    {
+        return ALL[code];
+    }
+    
+    /**
+     * Returns whether or not the specified number is the code of a terrain.
+     */
+    public static boolean isCode(int code)
+    {
+        return code >= 0 && code < ALL.length;
+    }
+    
+    /**
+     * Returns the symbol of every kind of terrain, indexed by terrain code (see DataFileReader.nextSymbol).
+     * The array is shared, so must not be changed.
+     */
+    public static String[] getSymbols()
+    {
+        return SYMBOLS;
+    }
+    
+    /**
+     * Returns the terrain represented by the specified symbol.
+     * Unknown symbols are read as grass.
+     */
+    public static Terrain fromSymbol(String aSymbol)
+    {
+        for (int i = 0; i < ALL.length; i++)
+            if (ALL[i].symbol.equals(aSymbol))
+                return ALL[i];
+        return GRASS;
+    }
+
+} // END CLASS
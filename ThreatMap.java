@@ -0,0 +1,286 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Records the grids each unit could attack this turn (moving first, then striking with any of its weapons)
+ * and which of its weapons could strike each of them, and for each side how many enemy units could attack each grid.
+ * A unit's grids are worked out once and kept until its movement range, weapons or life changes,
+ * so the AI and the danger zone overlay share the work, which is normally done once per unit per turn.
+ * Different units may be asked about on different threads at once (see AIPlan);
+ * the counts are only brought up to date by update, on one thread.
+ */
+public class ThreatMap
+{
+    public static final int PRIMARY = 1; // the weapon mask of a unit's primary weapon alone (see Unit.isInThreatRange)
+    public static final int ALL_WEAPONS = (1 << Unit.WPN_SLOTS) - 1; // the weapon mask of every weapon slot
+    
+    private BattleField field; // the battlefield the units are on
+    private ArrayList<ArrayList<Unit>> sides; // each side's units (the battle's own lists)
+    
+    private ConcurrentHashMap<Unit, Threat> threats; // the grids each unit threatens
+    private HashMap<Unit, Threat> counted; // the threat of each unit included in the counts
+    private int[][] count; // for each side, the number of enemy units threatening each grid (index y*width + x)
+    
+    /**
+     * Creates a threat map for the units of the specified sides on the specified battlefield.
+     * Nothing is worked out until it is asked for.
+     */
+    public ThreatMap(BattleField aField, ArrayList<ArrayList<Unit>> theSides)
+    {
+        field = aField;
+        sides = theSides;
+        threats = new ConcurrentHashMap<Unit, Threat>();
+        counted = new HashMap<Unit, Threat>();
+        count = new int[BattleField.MAX_SIDES][field.getTotalWidth()*field.getTotalHeight()];
+    }
+    
+    /**
+     * Returns whether or not the specified unit can attack the specified grid coordinates this turn with any weapon.
+     */
+    public boolean threatens(Unit unit, int x, int y)
+    {
+        return threatOf(unit).weaponsAt(x, y) != 0;
+    }
+    
+    /**
+     * Returns whether or not the specified unit can attack the specified location this turn.
+     */
+    public boolean threatens(Unit unit, Location loc)
+    {
+        return threatens(unit, loc.x(), loc.y());
+    }
+    
+    /**
+     * Returns the weapons the specified unit could attack the specified grid coordinates with this turn,
+     * as a mask with bit i set for the weapon in slot i (0 = it cannot attack them).
+     */
+    public int getWeaponsAt(Unit unit, int x, int y)
+    {
+        return threatOf(unit).weaponsAt(x, y);
+    }
+    
+    /**
+     * Returns, for each of the specified units, whether or not the specified unit can attack where it stands this turn
+     * with any weapon.
+     */
+    public boolean[] threatensEach(Unit unit, ArrayList<Unit> targets)
+    {
+        return threatensEach(unit, targets, ALL_WEAPONS);
+    }
+    
+    /**
+     * Returns, for each of the specified units, whether or not the specified unit can attack where it stands this turn
+     * with one of the weapons in the specified mask (e.g. PRIMARY, to match Unit.isInThreatRange).
+     */
+    public boolean[] threatensEach(Unit unit, ArrayList<Unit> targets, int wpnMask)
+    {
+        Threat threat = threatOf(unit);
+        boolean[] threatened = new boolean[targets.size()];
+        for (int i = 0; i < targets.size(); i++)
+            threatened[i] = (threat.weaponsAt(targets.get(i).getX(), targets.get(i).getY()) & wpnMask) != 0;
+        return threatened;
+    }
+    
+    /**
+     * Returns the number of units not on the specified side that can attack the specified grid coordinates this turn
+     * with any weapon, as of the last update.
+     */
+    public int getThreatCount(int side, int x, int y)
+    {
+        if (!field.inBounds(x, y))
+            return 0;
+        
+        return count[side][y*field.getTotalWidth() + x];
+    }
+    
+    /**
+     * Brings the threat of every unit up to date, so that the threat counts are current.
+     */
+    public void update()
+    {
+        for (int i = 0; i < sides.size(); i++)
+        {
+            for (int j = 0; j < sides.get(i).size(); j++)
+            {
+                Unit unit = sides.get(i).get(j);
+                Threat threat = threatOf(unit);
+                Threat old = counted.get(unit);
+                if (old != threat)
+                {
+                    if (old != null)
+                        addCounts(unit, old, -1);
+                    addCounts(unit, threat, 1);
+                    counted.put(unit, threat);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the grids the specified unit threatens, working them out again if the unit has changed.
+     */
+    private Threat threatOf(Unit unit)
+    {
+        Threat threat = threats.get(unit);
+        MoveRange range = unit.isAlive() ? unit.getMoveRange() : null; // fallen units threaten nothing
+        
+        if (threat == null || !threat.isFor(unit, range))
+        {
+            threat = new Threat(unit, range);
+            threats.put(unit, threat);
+        }
+        return threat;
+    }
+    
+    /**
+     * Adds the specified change to the count of every grid the threat covers, for every side but the unit's.
+     */
+    private void addCounts(Unit unit, Threat threat, int change)
+    {
+        int width = field.getTotalWidth();
+        for (int i = 0; i < threat.size(); i++)
+        {
+            int x = threat.getX(i);
+            int y = threat.getY(i);
+            if (field.inBounds(x, y))
+                for (int s = 0; s < count.length; s++)
+                    if (s != unit.getSide())
+                        count[s][y*width + x] += change;
+        }
+    }
+    
+    /**
+     * The grids a single unit threatens: every grid at one of its weapons' distances from a grid it can move to,
+     * with a mask of the weapons that reach it. Stored in a square window around the unit, like its movement range.
+     */
+    private static class Threat
+    {
+        private MoveRange range; // the movement range the threat was worked out from (null = none)
+        private NumberSet[] atkRngs; // the attack range of each weapon slot it was worked out from
+        
+        private int left, top; // the grid coordinates of the upper left corner of the window
+        private int span; // the width and height of the window
+        private byte[] weapons; // the mask of weapons that can strike each grid in the window (0 = not threatened)
+        private int[] cells; // the window index of each threatened grid
+        private int size; // the number of threatened grids
+        
+        /**
+         * Works out the grids the specified unit threatens from the specified movement range with each of its weapons.
+         * The ranges of all the weapons are marked in one pass over the grids the unit can move to.
+         */
+        public Threat(Unit unit, MoveRange aRange)
+        {
+            range = aRange;
+            atkRngs = new NumberSet[Unit.WPN_SLOTS];
+            int farthest = -1; // the longest distance any weapon strikes from
+            for (int w = 0; w < atkRngs.length; w++)
+            {
+                atkRngs[w] = unit.getWpnAt(w).getAtkRng();
+                if (atkRngs[w].size() > 0)
+                    farthest = Math.max(farthest, atkRngs[w].max());
+            }
+            cells = new int[16];
+            if (range == null || farthest < 0)
+                return;
+            
+            int reach = range.getMaxCost() + farthest;
+            left = range.getOrigin().x() - reach;
+            top = range.getOrigin().y() - reach;
+            span = 2*reach + 1;
+            weapons = new byte[span*span];
+            
+            for (int i = 0; i < range.size(); i++) // every grid the unit can move to
+                for (int w = 0; w < atkRngs.length; w++) // every weapon
+                    for (int a = 0; a < atkRngs[w].size(); a++) // every distance it can strike from there
+                        markRing(range.getX(i), range.getY(i), atkRngs[w].get(a), 1 << w);
+        }
+        
+        /**
+         * Returns whether or not the threat was worked out from the specified movement range and the unit's weapons as they are now.
+         */
+        public boolean isFor(Unit unit, MoveRange aRange)
+        {
+            if (range != aRange)
+                return false;
+            for (int w = 0; w < atkRngs.length; w++)
+                if (atkRngs[w] != unit.getWpnAt(w).getAtkRng())
+                    return false;
+            return true;
+        }
+        
+        /**
+         * Marks every grid exactly the specified distance from the specified grid coordinates
+         * as threatened by the specified weapon bit.
+         */
+        private void markRing(int x, int y, int dist, int bit)
+        {
+            if (dist <= 0) // empty slots hold a DUMMY weapon with a range of 0, which strikes nothing
+                return;
+            
+            for (int dx = -dist; dx <= dist; dx++)
+            {
+                int dy = dist - Math.abs(dx);
+                mark(x + dx, y + dy, bit);
+                if (dy != 0)
+                    mark(x + dx, y - dy, bit);
+            }
+        }
+        
+        /**
+         * Marks the specified grid coordinates as threatened by the specified weapon bit.
+         */
+        private void mark(int x, int y, int bit)
+        {
+            int index = (y - top)*span + (x - left);
+            if (weapons[index] != 0) // already threatened; only the weapon is new, if anything
+            {
+                weapons[index] |= bit;
+                return;
+            }
+            
+            weapons[index] = (byte)bit;
+            if (size == cells.length)
+            {
+                int[] bigger = new int[2*cells.length];
+                System.arraycopy(cells, 0, bigger, 0, size);
+                cells = bigger;
+            }
+            cells[size++] = index;
+        }
+        
+        /**
+         * Returns the mask of weapons that can strike the specified grid coordinates (0 = not threatened).
+         */
+        public int weaponsAt(int x, int y)
+        {
+            if (weapons == null || x < left || x >= left + span || y < top || y >= top + span)
+                return 0;
+            return weapons[(y - top)*span + (x - left)];
+        }
+        
+        /**
+         * Returns the number of threatened grids.
+         */
+        public int size()
+        {
+            return size;
+        }
+        
+        /**
+         * Returns the grid x coordinate of the threatened grid at the specified index.
+         */
+        public int getX(int i)
+        {
+            return left + cells[i] % span;
+        }
+        
+        /**
+         * Returns the grid y coordinate of the threatened grid at the specified index.
+         */
+        public int getY(int i)
+        {
+            return top + cells[i] / span;
+        }
+    }
+
+} // END CLASS
@@ -1,6 +1,7 @@
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
-import javax.swing.*;
+import java.nio.*;
 import java.awt.*;
 import java.awt.image.*;
 import java.awt.geom.*;
@@ -11,7 +12,7 @@ import java.awt.geom.*;
  * Contains methods dictating movement.
  * Superclass of all other unit classes.
  */
-public class Unit extends JComponent
+public class Unit
 {
     private static final String NEWLINE = "\n";
     
@@ -19,6 +20,30 @@ public class Unit extends JComponent
     public static final int ITEM_SLOTS = 4; // the maximum number of items a unit can hold
     private static final int MAX_EXP = 100; // 100 points per level
     
+    public static final int HP_CHANGED = 1; // the kinds of changes tracked between saves (see getChanges)
+    public static final int STATS_CHANGED = 2; // strength, defense, skill, speed, movement range or max hp
+    public static final int LEVEL_CHANGED = 4; // level or exp
+    public static final int WEAPONS_CHANGED = 8; // weapons held or wieldable
+    public static final int ITEMS_CHANGED = 16;
+    public static final int LOC_CHANGED = 32;
+    private static final int FILE_CHANGES = HP_CHANGED | STATS_CHANGED | LEVEL_CHANGED | WEAPONS_CHANGED | ITEMS_CHANGED; // the changes kept in the unit file
+    
+    public static final int X_VALUE = 0; // the numbers about a unit that commands change (see getValues and restoreValue)
+    public static final int Y_VALUE = 1;
+    public static final int OLD_X_VALUE = 2; // where the unit was before it last moved (-1 = never moved)
+    public static final int OLD_Y_VALUE = 3;
+    public static final int LEVEL_VALUE = 4;
+    public static final int MAX_HP_VALUE = 5;
+    public static final int HP_VALUE = 6;
+    public static final int STR_VALUE = 7;
+    public static final int DEF_VALUE = 8;
+    public static final int SKL_VALUE = 9;
+    public static final int SPD_VALUE = 10;
+    public static final int MOVE_RNG_VALUE = 11;
+    public static final int EXP_VALUE = 12;
+    public static final int ENABLED_VALUE = 13; // 1 = enabled, 0 = done for the turn
+    public static final int VALUE_COUNT = 14;
+    
     private static final Color[] SIDE_COLOR = {Color.blue, Color.red, Color.green, Color.yellow};
     
     private static final String UNIT_FILE_HEADING = "units/"; // the directory in which the unit files can be found
@@ -47,15 +72,25 @@ public class Unit extends JComponent
     
     private File unitFile; // the file the unit is based on
     private String fileName; // the name of the file, without any directories
+    private File savedFile; // the file holding the unit as it was when last saved or read (null = none)
+    private int changes; // the kinds of changes made since the unit was last saved or read
     
     private boolean promoted; // if the unit is promoted
     private boolean rngVisible; // if the unit's movement range is visible on the map
     private boolean atkRngVisible; // if the unit's weapon range is visible on the map
     private boolean enabled; // if the unit can be moved during the turn or not
     
-    private Image unitImage; // the image of the unit displayed on the map
+    private Image unitImage; // the image of the unit displayed on the map, scaled to fit a grid (loaded when first painted)
+    private int unitImageSize; // the grid size the image was scaled for
     
     private BattleField field; // the battlefield the unit is on
+    private RandomSource rand; // rolls stat increases on level up (given by the battle the unit is in)
+    private SideCounter counter; // counts the live and enabled units of each side (given by the battle the unit is in, null = none)
+    
+    private MoveRange moveRange; // the cached movement range (null = must be rebuilt)
+    
+    private static AtomicLong rangeHits = new AtomicLong(); // the number of times a cached movement range was reused (shared by every battle running at once)
+    private static AtomicLong rangeMisses = new AtomicLong(); // the number of times a movement range had to be rebuilt
     
     /**
      * PRIMARY CONSTRUCTOR.
@@ -68,7 +103,6 @@ public class Unit extends JComponent
         
         String[] directories = aFileName.split("/");
         fileName = directories[directories.length - 1];
-        unitImage = Toolkit.getDefaultToolkit().getImage(UNIT_IMAGE_HEADING + this.getName() + IMAGE_FORMAT);
         
         field = aField;
         
@@ -80,6 +114,101 @@ public class Unit extends JComponent
         
         rngVisible = false;
         enabled = true;
+        
+        field.register(this);
+    }
+    
+    /**
+     * Creates a unit on the specified side of the specified battlefield from the snapshot at the position of the specified buffer
+     * (see writeSnapshot), without reading its unit file.
+     * Since the unit file may not hold the unit as it is in the snapshot, every kind of change is marked as unsaved.
+     */
+    public Unit(ByteBuffer in, int aSide, BattleField aField)
+    {
+        side = aSide;
+        field = aField;
+        
+        String aFileName = CompiledAsset.readString(in);
+        String[] directories = aFileName.split("/");
+        fileName = directories[directories.length - 1];
+        unitFile = new File(UNIT_FILE_HEADING + aFileName + FILE_FORMAT);
+        
+        loc = new Location(in.getInt(), in.getInt());
+        lvl = in.getInt();
+        hpMax = in.getInt();
+        hp = in.getInt();
+        str = in.getInt();
+        def = in.getInt();
+        skl = in.getInt();
+        spd = in.getInt();
+        rng = in.getInt();
+        exp = in.getInt();
+        
+        byte flags = in.get();
+        enabled = (flags & 1) != 0;
+        promoted = (flags & 2) != 0;
+        weakness = CompiledAsset.readString(in);
+        if (weakness.equals("")) // none
+            weakness = null;
+        
+        wpns = new Weapon[WPN_SLOTS];
+        for (int i = 0; i < WPN_SLOTS; i++)
+            wpns[i] = new Weapon(CompiledAsset.readString(in));
+        items = new Item[ITEM_SLOTS];
+        for (int i = 0; i < ITEM_SLOTS; i++)
+            items[i] = new Item(CompiledAsset.readString(in), in.getInt());
+        validWpns = new ArrayList<String>();
+        for (int i = in.getShort(); i > 0; i--)
+            validWpns.add(CompiledAsset.readString(in));
+        
+        changes = FILE_CHANGES | LOC_CHANGED;
+        rngVisible = false;
+        
+        field.register(this);
+    }
+    
+    /**
+     * Creates a copy of the specified unit standing on the specified battlefield.
+     * Weapons and items are copied, so using them does not affect the original unit.
+     */
+    public Unit(Unit aUnit, BattleField aField)
+    {
+        loc = aUnit.loc;
+        oldLoc = aUnit.oldLoc;
+        side = aUnit.side;
+        fileName = aUnit.fileName;
+        unitFile = aUnit.unitFile;
+        savedFile = aUnit.savedFile;
+        changes = aUnit.changes;
+        
+        field = aField;
+        
+        validWpns = new ArrayList<String>(aUnit.validWpns);
+        weakness = aUnit.weakness;
+        className = aUnit.className;
+        
+        lvl = aUnit.lvl;
+        hpMax = aUnit.hpMax;
+        hp = aUnit.hp;
+        str = aUnit.str;
+        def = aUnit.def;
+        skl = aUnit.skl;
+        spd = aUnit.spd;
+        rng = aUnit.rng;
+        exp = aUnit.exp;
+        promoted = aUnit.promoted;
+        
+        wpns = new Weapon[WPN_SLOTS];
+        for (int i = 0; i < WPN_SLOTS; i++)
+            wpns[i] = new Weapon(aUnit.wpns[i]);
+        items = new Item[ITEM_SLOTS];
+        for (int i = 0; i < ITEM_SLOTS; i++)
+            items[i] = new Item(aUnit.items[i]);
+        
+        rngVisible = false;
+        enabled = aUnit.enabled;
+        
+        field.register(this);
     }
     
     /**
@@ -147,6 +276,14 @@ public class Unit extends JComponent
         return hp;
     }
     
+    /**
+     * Returns the max hp of the unit.
+     */
+    public int getMaxHP()
+    {
+        return hpMax;
+    }
+    
     /**
      * Returns the strength of the unit.
      */
@@ -293,12 +430,37 @@ public class Unit extends JComponent
         return items[index];
     }
     
+    /**
+     * Sets the source of the unit's level up rolls.
+     */
+    public void setRandom(RandomSource aRand)
+    {
+        rand = aRand;
+    }
+    
+    /**
+     * Sets the counter the unit reports to when it falls or is enabled or disabled, and counts the unit in it.
+     * The unit is taken out of the counter it reported to before, if any.
+     */
+    public void setCounter(SideCounter aCounter)
+    {
+        if (counter != null)
+            counter.change(side, isAlive() ? -1 : 0, isReady() ? -1 : 0);
+        
+        counter = aCounter;
+        if (counter != null)
+            counter.change(side, isAlive() ? 1 : 0, isReady() ? 1 : 0);
+    }
+    
     /**
      * Sets the unit's "enabled" to the specified value.
      */
     public void setEnabled(boolean newVal)
     {
+        boolean wasAlive = isAlive();
+        boolean wasReady = isReady();
         enabled = newVal;
+        countChange(wasAlive, wasReady);
     }
     
     /**
@@ -308,6 +470,8 @@ public class Unit extends JComponent
     {
         oldLoc = new Location(loc);
         loc = new Location(newVal, loc.y());
+        moveRange = null;
+        changes |= LOC_CHANGED;
     }
     
     /**
@@ -317,6 +481,8 @@ public class Unit extends JComponent
     {
         oldLoc = new Location(loc);
         loc = new Location(loc.x(), newVal);
+        moveRange = null;
+        changes |= LOC_CHANGED;
     }
     
     /**
@@ -326,6 +492,8 @@ public class Unit extends JComponent
     {
         oldLoc = new Location(loc);
         loc = aLoc;
+        moveRange = null;
+        changes |= LOC_CHANGED;
     }
     
     /**
@@ -338,7 +506,20 @@ public class Unit extends JComponent
         else if (newVal > hpMax)
             newVal = hpMax;
         
+        boolean wasAlive = isAlive();
+        boolean wasReady = isReady();
         hp = newVal;
+        changes |= HP_CHANGED;
+        countChange(wasAlive, wasReady);
+    }
+    
+    /**
+     * Tells the counter how the unit changed, given whether it was alive and ready before.
+     */
+    private void countChange(boolean wasAlive, boolean wasReady)
+    {
+        if (counter != null)
+            counter.change(side, (isAlive() ? 1 : 0) - (wasAlive ? 1 : 0), (isReady() ? 1 : 0) - (wasReady ? 1 : 0));
     }
     
     /**
@@ -347,6 +528,7 @@ public class Unit extends JComponent
     public void setStr(int newVal)
     {
         str = newVal;
+        changes |= STATS_CHANGED;
     }
     
     /**
@@ -355,6 +537,7 @@ public class Unit extends JComponent
     public void setDef(int newVal)
     {
         def = newVal;
+        changes |= STATS_CHANGED;
     }
     
     /**
@@ -363,6 +546,7 @@ public class Unit extends JComponent
     public void setSkl(int newVal)
     {
         skl = newVal;
+        changes |= STATS_CHANGED;
     }
     
     /**
@@ -371,6 +555,7 @@ public class Unit extends JComponent
     public void setSpd(int newVal)
     {
         spd = newVal;
+        changes |= STATS_CHANGED;
     }
     
     /**
@@ -379,6 +564,8 @@ public class Unit extends JComponent
     public void setMoveRng(int newVal)
     {
         rng = newVal;
+        moveRange = null;
+        changes |= STATS_CHANGED;
     }
     
     /**
@@ -387,6 +574,7 @@ public class Unit extends JComponent
     public void setWpnAt(int index, Weapon newWpn)
     {
         wpns[index] = newWpn;
+        changes |= WEAPONS_CHANGED;
     }
     
     /**
@@ -403,6 +591,7 @@ public class Unit extends JComponent
     public void setWieldable(ArrayList<String> newVal)
     {
         validWpns = newVal;
+        changes |= WEAPONS_CHANGED;
     }
     
     /**
@@ -411,6 +600,7 @@ public class Unit extends JComponent
     public void setExp(int newVal)
     {
         exp = newVal;
+        changes |= LEVEL_CHANGED;
         if (exp >= MAX_EXP)
         {
             levelUp();
@@ -440,6 +630,9 @@ public class Unit extends JComponent
                 wpns[j] = tempWpns.get(j);
             else
                 break;
+        
+        if (index != 0) // the order changed
+            changes |= WEAPONS_CHANGED;
     }
     /**
      * Returns whether or not the specified weapon is a weapon that the unit can wield.
@@ -466,18 +659,20 @@ public class Unit extends JComponent
         return hp > 0;
     }
     
+    /**
+     * Returns whether or not the unit is alive and can still act this turn.
+     */
+    public boolean isReady()
+    {
+        return enabled && isAlive();
+    }
+    
     /**
      * Returns whether or not the specified grid coordinates are in the unit's movement range.
      */
     public boolean isInMoveRange(int x2, int y2)
     {
-        boolean inRange = false;
-        ArrayList<Rectangle2D.Double> grids = createMovementRange(loc.x(), loc.y(), 0);
-        for (Rectangle2D.Double r : grids)
-            if (x2*BattleField.GRID_SIZE == r.getX() && y2*BattleField.GRID_SIZE == r.getY())
-                inRange = true;
-                
-        return inRange;
+        return getMoveRange().contains(x2, y2);
     }
     
     /**
@@ -524,16 +719,11 @@ public class Unit extends JComponent
      */
     public boolean isInThreatRange(int x2, int y2)
     {
-        boolean inRange = false;
-        ArrayList<Rectangle2D.Double> grids = createMovementRange(loc.x(), loc.y(), 0);
-        for (Rectangle2D.Double r : grids)
-        {
-            int tempX = Math.round((float)(r.getX()/BattleField.GRID_SIZE)); // get grid coordinates at possible movement location
-            int tempY = Math.round((float)(r.getY()/BattleField.GRID_SIZE));
-            if (isInAtkRange(tempX, tempY, x2, y2))
-                inRange = true;
-        }
-        return inRange;
+        MoveRange grids = getMoveRange();
+        for (int i = 0; i < grids.size(); i++) // for each possible movement location
+            if (isInAtkRange(grids.getX(i), grids.getY(i), x2, y2))
+                return true;
+        return false;
     }
     
     /**
@@ -544,6 +734,24 @@ public class Unit extends JComponent
         return isInThreatRange(loc2.x(), loc2.y());
     }
     
+    /**
+     * Returns the enemy units standing in the unit's threat range (see isInThreatRange), nearest first.
+     * Only the enemies close enough to possibly be reached are checked.
+     */
+    public ArrayList<Unit> getEnemiesInThreatRange()
+    {
+        ArrayList<Unit> enemies = new ArrayList<Unit>();
+        NumberSet wpnRng = wpns[0].getAtkRng();
+        if (wpnRng.size() == 0) // nothing can be attacked
+            return enemies;
+        
+        ArrayList<Unit> near = field.getEnemiesWithin(loc, getMoveRange().getMaxCost() + wpnRng.max(), side);
+        for (int i = 0; i < near.size(); i++)
+            if (isInThreatRange(near.get(i).getLoc()))
+                enemies.add(near.get(i));
+        return enemies;
+    }
+    
     /**
      * Uses the selected item.
      */
@@ -568,9 +776,13 @@ public class Unit extends JComponent
             else if (affected.equals(Item.SPD_UP_TYPE))
                 spd += items[index].getChangeValue();
             else if (affected.equals(Item.RNG_UP_TYPE))
+            {
                 rng += items[index].getChangeValue();
+                moveRange = null;
+            }
 
             items[index].useOnce();
+            changes |= ITEMS_CHANGED | HP_CHANGED | STATS_CHANGED;
             
             if (items[index].getUsesLeft() <= 0) // remove item is completely used up
             {
@@ -599,7 +811,8 @@ public class Unit extends JComponent
      */
     public void levelUp()
     {
-        Random rand = new Random();
+        if (rand == null) // not in a battle
+            rand = new RandomSource();
         
         int last = rand.nextInt(100);
         if (last == 0) // 1/5 chance of increasing the stat
@@ -621,6 +834,7 @@ public class Unit extends JComponent
             spd++;
         
         lvl++;
+        changes |= LEVEL_CHANGED | STATS_CHANGED | HP_CHANGED;
     }
     
     /**
@@ -677,263 +891,376 @@ public class Unit extends JComponent
      */
     private void readUnitFile()
     {
+        validWpns = new ArrayList<String>();
         try
         {
-            Scanner in = new Scanner(unitFile);
-            
-            validWpns = new ArrayList<String>();
-            
-            lvl = nextIntInFile(in);
-            exp = nextIntInFile(in);
-            hp = nextIntInFile(in);
-            hpMax = hp;
-            str = nextIntInFile(in);
-            def = nextIntInFile(in);
-            skl = nextIntInFile(in);
-            spd = nextIntInFile(in);
-            rng = nextIntInFile(in);
-            for (int i = 0; i < WPN_SLOTS; i++) // read weapon(s)
+            DataFileReader in = new DataFileReader(unitFile);
+            try
             {
-                wpns[i] = new Weapon(nextItemInFile(in));
+                lvl = in.nextIntValue();
+                exp = in.nextIntValue();
+                hp = in.nextIntValue();
+                hpMax = hp;
+                str = in.nextIntValue();
+                def = in.nextIntValue();
+                skl = in.nextIntValue();
+                spd = in.nextIntValue();
+                rng = in.nextIntValue();
+                for (int i = 0; i < WPN_SLOTS; i++) // read weapon(s)
+                {
+                    wpns[i] = new Weapon(in.nextValue());
+                }
+                for (int i = 0; i < ITEM_SLOTS; i++) // read item(s)
+                {
+                    items[i] = new Item(in.nextValue(), in.nextIntValue());
+                }
+                in.skipKey(); // the weapon kinds that can be wielded
+                while (in.hasNextOnLine())
+                    validWpns.add(in.next());
+                
+                savedFile = unitFile;
             }
-            for (int i = 0; i < ITEM_SLOTS; i++) // read item(s)
+            finally
             {
-                items[i] = new Item(nextItemInFile(in), nextIntInFile(in));
+                in.close();
             }
-            String[] allValidWpn = nextItemInFile(in).split(" ");
-            for (int i = 0; i < allValidWpn.length; i++)
-                validWpns.add(allValidWpn[i]);
         }
         catch (IOException e) { System.out.println(e);}
     }
     
     /**
-     * Returns the next integer in the file with the specified scanner.
+     * Returns the kinds of changes made since the unit was last saved or read (a combination of the _CHANGED flags).
      */
-    private int nextIntInFile(Scanner in)
+    public int getChanges()
     {
-        while (!in.hasNextInt())
-        {
-            in.next();
-        }
-        return in.nextInt();
+        return changes;
+    }
+    
+    /**
+     * Returns whether or not the specified file already holds the unit as it is now,
+     * so saving the unit there can be skipped.
+     */
+    public boolean isSavedIn(File file)
+    {
+        return (changes & FILE_CHANGES) == 0 && file.equals(savedFile);
     }
     
     /**
-     * Returns the next item/weapon in the file with the specified scanner.
+     * Forgets the specified kinds of changes, once they are being saved.
+     * Returns the kinds of changes forgotten, so they can be given back with restoreChanges if the save fails.
      */
-    private String nextItemInFile(Scanner in)
+    public int forgetChanges(int kinds)
     {
-        String s;
-        do
+        int forgotten = changes & kinds;
+        changes &= ~kinds;
+        return forgotten;
+    }
+    
+    /**
+     * Sets the file holding the unit as it is now, once it is being saved there.
+     */
+    public void setSavedFile(File file)
+    {
+        savedFile = file;
+    }
+    
+    /**
+     * Gives back the specified kinds of changes after a save that covered them failed, and forgets where the unit was saved.
+     */
+    public void restoreChanges(int kinds)
+    {
+        changes |= kinds;
+        savedFile = null;
+    }
+    
+    /**
+     * Copies every number about the unit that commands change into the specified array, starting at the specified index,
+     * in the order of the _VALUE constants (VALUE_COUNT numbers in all).
+     */
+    public void getValues(int[] values, int start)
+    {
+        values[start + X_VALUE] = loc.x();
+        values[start + Y_VALUE] = loc.y();
+        values[start + OLD_X_VALUE] = (oldLoc == null) ? -1 : oldLoc.x();
+        values[start + OLD_Y_VALUE] = (oldLoc == null) ? -1 : oldLoc.y();
+        values[start + LEVEL_VALUE] = lvl;
+        values[start + MAX_HP_VALUE] = hpMax;
+        values[start + HP_VALUE] = hp;
+        values[start + STR_VALUE] = str;
+        values[start + DEF_VALUE] = def;
+        values[start + SKL_VALUE] = skl;
+        values[start + SPD_VALUE] = spd;
+        values[start + MOVE_RNG_VALUE] = rng;
+        values[start + EXP_VALUE] = exp;
+        values[start + ENABLED_VALUE] = enabled ? 1 : 0;
+    }
+    
+    /**
+     * Puts back the specified number (one of the _VALUE constants) as it was given by getValues, to undo or redo a command.
+     * The unit counts as changed since it was saved, and its movement range is worked out again if it could differ.
+     * The battlefield is not told if the unit moves, falls or comes back (see BattleDelta).
+     */
+    public void restoreValue(int which, int value)
+    {
+        boolean wasAlive = isAlive();
+        boolean wasReady = isReady();
+        
+        if (which == X_VALUE)
+            loc = new Location(value, loc.y());
+        else if (which == Y_VALUE)
+            loc = new Location(loc.x(), value);
+        else if (which == OLD_X_VALUE)
+            oldLoc = (value == -1) ? null : new Location(value, (oldLoc == null) ? 0 : oldLoc.y());
+        else if (which == OLD_Y_VALUE)
+            oldLoc = (value == -1) ? null : new Location((oldLoc == null) ? 0 : oldLoc.x(), value);
+        else if (which == LEVEL_VALUE)
+            lvl = value;
+        else if (which == MAX_HP_VALUE)
+            hpMax = value;
+        else if (which == HP_VALUE)
+            hp = value;
+        else if (which == STR_VALUE)
+            str = value;
+        else if (which == DEF_VALUE)
+            def = value;
+        else if (which == SKL_VALUE)
+            skl = value;
+        else if (which == SPD_VALUE)
+            spd = value;
+        else if (which == MOVE_RNG_VALUE)
+            rng = value;
+        else if (which == EXP_VALUE)
+            exp = value;
+        else if (which == ENABLED_VALUE)
+            enabled = value != 0;
+        
+        if (which == X_VALUE || which == Y_VALUE || which == MOVE_RNG_VALUE)
+            moveRange = null;
+        if (which == X_VALUE || which == Y_VALUE)
+            changes |= LOC_CHANGED;
+        else if (which == HP_VALUE)
+            changes |= HP_CHANGED;
+        else if (which == LEVEL_VALUE || which == EXP_VALUE)
+            changes |= LEVEL_CHANGED;
+        else if (which != OLD_X_VALUE && which != OLD_Y_VALUE && which != ENABLED_VALUE)
+            changes |= STATS_CHANGED;
+        countChange(wasAlive, wasReady);
+    }
+    
+    /**
+     * Puts back the specified weapons, in order, to undo or redo a command.
+     */
+    public void restoreWpns(Weapon[] held)
+    {
+        System.arraycopy(held, 0, wpns, 0, WPN_SLOTS);
+        changes |= WEAPONS_CHANGED;
+    }
+    
+    /**
+     * Puts back the specified items, in order, each with the specified number of uses left, to undo or redo a command.
+     */
+    public void restoreItems(Item[] held, int[] usesLeft)
+    {
+        for (int i = 0; i < ITEM_SLOTS; i++)
         {
-            s = in.nextLine();
+            items[i] = held[i];
+            if (items[i] != null)
+                items[i].setUsesLeft(usesLeft[i]);
         }
-        while (s.equals(""));
-
-        String[] sArray = s.split(":");
-        return sArray[1].trim();
+        changes |= ITEMS_CHANGED;
     }
     
     /**
-     * Saves the unit's properties into a data file.
+     * Writes everything that can change about the unit during a battle to the specified stream,
+     * in the form read by the snapshot constructor: the name of its unit file, its location, stats and exp,
+     * whether it is enabled and promoted, its weakness, and its weapons (in order), items (with uses left) and wieldable kinds.
      */
-    public void saveUnitFile(File file)
+    public void writeSnapshot(DataOutputStream out) throws IOException
     {
-        try
+        String path = unitFile.getPath().replace(File.separatorChar, '/');
+        CompiledAsset.writeString(out, path.substring(UNIT_FILE_HEADING.length(), path.length() - FILE_FORMAT.length()));
+        
+        out.writeInt(loc.x());
+        out.writeInt(loc.y());
+        out.writeInt(lvl);
+        out.writeInt(hpMax);
+        out.writeInt(hp);
+        out.writeInt(str);
+        out.writeInt(def);
+        out.writeInt(skl);
+        out.writeInt(spd);
+        out.writeInt(rng);
+        out.writeInt(exp);
+        
+        out.writeByte((enabled ? 1 : 0) | (promoted ? 2 : 0));
+        CompiledAsset.writeString(out, (weakness == null) ? "" : weakness);
+        
+        for (int i = 0; i < WPN_SLOTS; i++)
+            CompiledAsset.writeString(out, (wpns[i] == null || wpns[i].getName().equals("")) ? "DUMMY" : wpns[i].getName());
+        for (int i = 0; i < ITEM_SLOTS; i++)
         {
-            PrintStream out = new PrintStream(new FileOutputStream(file));
-            
-            String[] wpnString = new String[WPN_SLOTS];
-            String[] itmString = new String[ITEM_SLOTS];
-            
-            for (int i = 0; i < wpnString.length; i++) 
-                if (wpns[i].getName().equals("") || wpns[i] == null)
-                    wpnString[i] = "DUMMY";
-                else
-                    wpnString[i] = wpns[i].getName();
-            for (int i = 0; i < itmString.length; i++) 
-                if (items[i].getName().equals("") || items[i] == null)
-                    itmString[i] = "DUMMY";
-                else
-                    itmString[i] = items[i].getName();
-                    
-            out.print(
-            "Level: " + lvl + NEWLINE +
-            "Exp: " + exp + NEWLINE +
-            "HP: " + hp + NEWLINE +
-            "Strength: " + str + NEWLINE +
-            "Defense: " + def + NEWLINE +
-            "Skill: " + skl + NEWLINE +
-            "Speed: " + spd + NEWLINE +
-            "Movement Range: " + rng + NEWLINE +
-            "Weapon1: " + wpnString[0] + NEWLINE +
-            "Weapon2: " + wpnString[1] + NEWLINE +
-            "Weapon3: " + wpnString[2] + NEWLINE +
-            "Weapon4: " + wpnString[3] + NEWLINE +
-            "Item1: " + itmString[0] + NEWLINE +
-            "Item2: " + itmString[1] + NEWLINE +
-            "Item3: " + itmString[2] + NEWLINE +
-            "Item4: " + itmString[3] + NEWLINE +
-            "Wieldable: ");
-            
-            for (int i = 0; i < validWpns.size(); i++)
-                out.print(validWpns.get(i));
+            CompiledAsset.writeString(out, (items[i] == null || items[i].getName().equals("")) ? "DUMMY" : items[i].getName());
+            out.writeInt((items[i] == null) ? 0 : items[i].getUsesLeft());
         }
-        catch (IOException e) {}
+        out.writeShort(validWpns.size());
+        for (int i = 0; i < validWpns.size(); i++)
+            CompiledAsset.writeString(out, validWpns.get(i));
     }
     
     /**
-     * Saves the unit's properties into a data file.
+     * Returns the text of the unit's data file, in the form read by readUnitFile.
+     * Taken as a snapshot of the unit when saving, so the file can be written in the background (see FileSaver).
      */
-    public void saveUnitFile()
+    public String getUnitFileText()
     {
-        try
+        StringBuilder text = new StringBuilder();
+        text.append(
+        "Level: " + lvl + NEWLINE +
+        "Exp: " + exp + NEWLINE +
+        "HP: " + hp + NEWLINE +
+        "Strength: " + str + NEWLINE +
+        "Defense: " + def + NEWLINE +
+        "Skill: " + skl + NEWLINE +
+        "Speed: " + spd + NEWLINE +
+        "Movement Range: " + rng + NEWLINE);
+        
+        for (int i = 0; i < WPN_SLOTS; i++)
         {
-            PrintStream out = new PrintStream(new FileOutputStream(unitFile));
-            
-            String[] wpnString = new String[WPN_SLOTS];
-            String[] itmString = new String[ITEM_SLOTS];
-            
-            for (int i = 0; i < wpnString.length; i++) 
-                if (wpns[i].getName().equals("") || wpns[i] == null)
-                    wpnString[i] = "DUMMY";
-                else
-                    wpnString[i] = wpns[i].getName();
-            for (int i = 0; i < itmString.length; i++) 
-                if (items[i].getName().equals("") || items[i] == null)
-                    itmString[i] = "DUMMY";
-                else
-                    itmString[i] = items[i].getName();
-                    
-            out.print(
-            "Level: " + lvl + NEWLINE +
-            "Exp: " + exp + NEWLINE +
-            "HP: " + hp + NEWLINE +
-            "Strength: " + str + NEWLINE +
-            "Defense: " + def + NEWLINE +
-            "Skill: " + skl + NEWLINE +
-            "Speed: " + spd + NEWLINE +
-            "Movement Range: " + rng + NEWLINE +
-            "Weapon1: " + wpnString[0] + NEWLINE +
-            "Weapon2: " + wpnString[1] + NEWLINE +
-            "Weapon3: " + wpnString[2] + NEWLINE +
-            "Weapon4: " + wpnString[3] + NEWLINE +
-            "Item1: " + itmString[0] + NEWLINE +
-            "Item2: " + itmString[1] + NEWLINE +
-            "Item3: " + itmString[2] + NEWLINE +
-            "Item4: " + itmString[3] + NEWLINE +
-            "Wieldable: ");
-            
-            for (int i = 0; i < validWpns.size(); i++)
-                out.print(validWpns.get(i));
+            String wpnName = (wpns[i] == null || wpns[i].getName().equals("")) ? "DUMMY" : wpns[i].getName();
+            text.append("Weapon" + (i + 1) + ": " + wpnName + NEWLINE);
+        }
+        for (int i = 0; i < ITEM_SLOTS; i++)
+        {
+            String itmName = (items[i] == null || items[i].getName().equals("")) ? "DUMMY" : items[i].getName();
+            int uses = (items[i] == null) ? 0 : items[i].getUsesLeft();
+            text.append("Item" + (i + 1) + ": " + itmName + NEWLINE + "\tUses Left: " + uses + NEWLINE);
         }
-        catch (IOException e) {}
+        
+        text.append("Wieldable:");
+        for (int i = 0; i < validWpns.size(); i++)
+            text.append(" " + validWpns.get(i));
+        
+        return text.toString();
     }
     
     /**
      * Paints the unit onto the canvas.
      */
     public void paintComponent(Graphics g)
+    {
+        paintComponent(g, null);
+    }
+    
+    /**
+     * Paints the parts of the unit and its ranges that lie inside the specified rectangle of grids
+     * (null = paint everything).
+     */
+    public void paintComponent(Graphics g, Rectangle visible)
     {
         if (hp > 0) // paints if unit has hp left
         {
             Graphics2D g2 = (Graphics2D) g;
             
-            double canvasX = BattleField.getXOf(loc);
-            double canvasY = BattleField.getYOf(loc);
-            
-            g2.drawImage(unitImage, Math.round((float)canvasX) + 1, Math.round((float)canvasY) + 1, BattleField.GRID_SIZE - 2, BattleField.GRID_SIZE - 2, this);
-            
-            Rectangle2D.Double r = new Rectangle2D.Double(Math.round((float)canvasX) + 1, Math.round((float)canvasY) + 1, BattleField.GRID_SIZE - 2, BattleField.GRID_SIZE - 2);
-            if (enabled)
-                g2.setColor(SIDE_COLOR[side]);
-            else
-                g2.setColor(Color.gray);
-            g2.draw(r);
-            
-            r = new Rectangle2D.Double(Math.round((float)canvasX) + 2, Math.round((float)canvasY) + 2, BattleField.GRID_SIZE - 4, BattleField.GRID_SIZE - 4);
-            g2.draw(r);
+            if (visible == null || visible.contains(loc.x(), loc.y()))
+                paintUnit(g2);
             
             if (rngVisible)
             {
                 g2.setColor(Color.white);
-                ArrayList<Rectangle2D.Double> grids = createMovementRange(loc.x(), loc.y(), 0); // step count is initially zero
-                for (Rectangle2D.Double rect : grids)
-                    g2.draw(rect);
+                MoveRange grids = getMoveRange();
+                for (int i = 0; i < grids.size(); i++)
+                    if (visible == null || visible.contains(grids.getX(i), grids.getY(i)))
+                        g2.drawRect(grids.getX(i)*BattleField.GRID_SIZE, grids.getY(i)*BattleField.GRID_SIZE, BattleField.GRID_SIZE, BattleField.GRID_SIZE);
             }
             if (atkRngVisible)
-                paintAttackRange(g);
+            {
+                int reach = wpns[0].getAtkRng().max(); // the attack range lies within this many grids of the unit
+                if (visible == null || visible.intersects(loc.x() - reach, loc.y() - reach, 2*reach + 1, 2*reach + 1))
+                    paintAttackRange(g);
+            }
         }
     }
     
     /**
-     * Creates and returns the unit's movement range in the form of rectangles.
+     * Paints the unit's image and border.
      */
-    private ArrayList<Rectangle2D.Double> createMovementRange(int lastX, int lastY, int count)
+    private void paintUnit(Graphics2D g2)
     {
-        ArrayList<Rectangle2D.Double> grids = new ArrayList<Rectangle2D.Double>();
-        
-        // right of old coordinate
-        double xCoord = BattleField.getXOf(lastX + 1, lastY);
-        double yCoord = BattleField.getYOf(lastX + 1, lastY);
-        Rectangle2D.Double r = new Rectangle2D.Double(xCoord, yCoord, BattleField.GRID_SIZE, BattleField.GRID_SIZE);
+        double canvasX = BattleField.getXOf(loc);
+        double canvasY = BattleField.getYOf(loc);
         
-        if (count + field.delayAt(lastX + 1, lastY, side) <= rng)
+        if (unitImage == null || unitImageSize != BattleField.GRID_SIZE) // not needed until the unit is displayed
         {
-            grids.add(r);
-            ArrayList<Rectangle2D.Double> temp = createMovementRange(lastX + 1, lastY, count + field.delayAt(lastX + 1, lastY, side));
-        
-            for (int i = 0; i < temp.size(); i++)
-                if (!grids.contains(temp.get(i))) // to avoid redundancy
-                    grids.add(temp.get(i));
+            unitImage = ImageCache.getScaled(UNIT_IMAGE_HEADING + this.getName() + IMAGE_FORMAT, BattleField.GRID_SIZE - 2, BattleField.GRID_SIZE - 2);
+            unitImageSize = BattleField.GRID_SIZE;
         }
-            
-        // below old coordinate
-        xCoord = BattleField.getXOf(lastX, lastY + 1);
-        yCoord = BattleField.getYOf(lastX, lastY + 1);
-        r = new Rectangle2D.Double(xCoord, yCoord, BattleField.GRID_SIZE, BattleField.GRID_SIZE);
-
-        if (count + field.delayAt(lastX, lastY + 1, side) <= rng)
-        {
-            grids.add(r);
-            ArrayList<Rectangle2D.Double> temp = createMovementRange(lastX, lastY + 1, count + field.delayAt(lastX, lastY + 1, side));
+        g2.drawImage(unitImage, Math.round((float)canvasX) + 1, Math.round((float)canvasY) + 1, null);
         
-            for (int i = 0; i < temp.size(); i++)
-                if (!grids.contains(temp.get(i))) // to avoid redundancy
-                    grids.add(temp.get(i));
-        }
+        Rectangle2D.Double r = new Rectangle2D.Double(Math.round((float)canvasX) + 1, Math.round((float)canvasY) + 1, BattleField.GRID_SIZE - 2, BattleField.GRID_SIZE - 2);
+        if (enabled)
+            g2.setColor(SIDE_COLOR[side]);
+        else
+            g2.setColor(Color.gray);
+        g2.draw(r);
         
-        // left of old coordinate
-        xCoord = BattleField.getXOf(lastX - 1, lastY);
-        yCoord = BattleField.getYOf(lastX - 1, lastY);
-        r = new Rectangle2D.Double(xCoord, yCoord, BattleField.GRID_SIZE, BattleField.GRID_SIZE);
-
-        if (count + field.delayAt(lastX - 1, lastY, side) <= rng)
+        r = new Rectangle2D.Double(Math.round((float)canvasX) + 2, Math.round((float)canvasY) + 2, BattleField.GRID_SIZE - 4, BattleField.GRID_SIZE - 4);
+        g2.draw(r);
+    }
+    
+    /**
+     * Returns the grids the unit can reach this turn from its current location.
+     * The range is cached until the unit moves, its movement range changes,
+     * or an enemy enters or leaves a grid within its reach.
+     */
+    public MoveRange getMoveRange()
+    {
+        if (moveRange == null)
         {
-            grids.add(r);
-            ArrayList<Rectangle2D.Double> temp = createMovementRange(lastX - 1, lastY, count + field.delayAt(lastX - 1, lastY, side));
-        
-            for (int i = 0; i < temp.size(); i++)
-                if (!grids.contains(temp.get(i))) // to avoid redundancy
-                    grids.add(temp.get(i));
+            moveRange = new MoveRange(field, loc, rng, side);
+            rangeMisses.incrementAndGet();
         }
-        
-        // above old coordinate
-        xCoord = BattleField.getXOf(lastX, lastY - 1);
-        yCoord = BattleField.getYOf(lastX, lastY - 1);
-        r = new Rectangle2D.Double(xCoord, yCoord, BattleField.GRID_SIZE, BattleField.GRID_SIZE);
-
-        if (count + field.delayAt(lastX, lastY - 1, side) <= rng)
+        else
+            rangeHits.incrementAndGet();
+        return moveRange;
+    }
+    
+    /**
+     * Called by the battlefield when the specified grid coordinates are filled or emptied by a unit on the specified side.
+     * Throws away the cached movement range if the change could affect it.
+     */
+    public void occupancyChanged(int x, int y, int aSide)
+    {
+        if (moveRange != null && aSide != side) // only enemies block movement
         {
-            grids.add(r);
-            ArrayList<Rectangle2D.Double> temp = createMovementRange(lastX, lastY - 1, count + field.delayAt(lastX, lastY - 1, side));
-        
-            for (int i = 0; i < temp.size(); i++)
-                if (!grids.contains(temp.get(i))) // to avoid redundancy
-                    grids.add(temp.get(i));
+            Location origin = moveRange.getOrigin();
+            if (BattleField.distanceBetween(origin.x(), origin.y(), x, y) <= moveRange.getMaxCost()) // within reach
+                moveRange = null;
         }
-        return grids;
+    }
+    
+    /**
+     * Returns the number of times a cached movement range has been reused.
+     */
+    public static long getRangeCacheHits()
+    {
+        return rangeHits.get();
+    }
+    
+    /**
+     * Returns the number of times a movement range has had to be rebuilt.
+     */
+    public static long getRangeCacheMisses()
+    {
+        return rangeMisses.get();
+    }
+    
+    /**
+     * Resets the movement range cache counters to zero.
+     */
+    public static void resetRangeCacheStats()
+    {
+        rangeHits.set(0);
+        rangeMisses.set(0);
     }
     
     /**
@@ -1,17 +1,13 @@
 import java.io.*;
 import java.util.*;
-import javax.swing.*;
 import java.awt.*;
 import java.text.*;
 
 /**
  * Stores the weapon properties (mt, wt, strengths, weaknesses, etc.).
  */
-public class Weapon extends JComponent
+public class Weapon
 {
-    private static final String WEAPON_FILE_HEADING = "weapons/"; // the directory in which the weapon files can be found
-    private static final String EXTENSION = ".dat"; // file type
-    
     public static final String SWORD = "Sword"; // kind of weapon
     public static final String LANCE = "Lance";
     public static final String AXE = "Axe";
@@ -34,17 +30,7 @@ public class Weapon extends JComponent
     public static final String ELTHUNDER = "Elthunder";
     public static final String REXBOLT = "Rexbolt";
     
-    private static final String DUMMY = "DUMMY"; // a substitute for an empty space 
-    
-    private File wpnFile; // the data file storing the weapon parameters
-    
-    private String level; // how "advanced" the weapon is (iron, steel, silver, etc).
-    private String kind; // the kind of weapon (sword, lance, etc)
-    private String name; // the entire name that is displayed
-    
-    private int mt; // the might (strength) of the weapon
-    private int wt; // the weight of the weapon
-    private NumberSet rng; // the range of the weapon
+    private WeaponDef def; // the properties of the weapon's kind (shared, never changed)
     
     private boolean hidden; // if the weapon stats are hidden or not
     
@@ -54,9 +40,7 @@ public class Weapon extends JComponent
      */
     public Weapon(String url)
     {
-        name = url;
-        wpnFile = new File(WEAPON_FILE_HEADING + url + EXTENSION);
-        readWeaponFile();
+        def = Definitions.getWeapon(url);
         hidden = true;
     }
     
@@ -66,12 +50,8 @@ public class Weapon extends JComponent
      */
     public Weapon(Weapon wpn)
     {
-        mt = wpn.getMt();
-        wt = wpn.getWt();
-        rng = wpn.getAtkRng();
-        level = wpn.getLevel();
-        kind = wpn.getKind();
-        wpnFile = wpn.getFile();
+        def = wpn.def;
+        hidden = wpn.isHidden();
     }
     
     /**
@@ -79,7 +59,7 @@ public class Weapon extends JComponent
      */
     public int getMt()
     {
-        return mt;
+        return def.getMt();
     }
     
     /**
@@ -87,7 +67,7 @@ public class Weapon extends JComponent
      */
     public int getWt()
     {
-        return wt;
+        return def.getWt();
     }
     
     /**
@@ -95,7 +75,7 @@ public class Weapon extends JComponent
      */
     public NumberSet getAtkRng()
     {
-        return rng;
+        return def.getAtkRng();
     }
     
     /**
@@ -103,7 +83,7 @@ public class Weapon extends JComponent
      */
     public String getLevel()
     {
-        return level;
+        return def.getLevel();
     }
     
     /**
@@ -111,7 +91,7 @@ public class Weapon extends JComponent
      */
     public String getKind()
     {
-        return kind;
+        return def.getKind();
     }
     
     /**
@@ -119,7 +99,7 @@ public class Weapon extends JComponent
      */
     public String getName()
     {
-        return name;
+        return def.getName();
     }
         
     /**
@@ -127,57 +107,7 @@ public class Weapon extends JComponent
      */
     public File getFile()
     {
-        return wpnFile;
-    }
-    
-    /**
-     * Reads the weapon's stats from the file.
-     * Sets the mt, wt, and rng variables to those found in the file.
-     */
-    private void readWeaponFile()
-    {
-        try
-        {
-            Scanner in = new Scanner(new FileInputStream(wpnFile));
-            
-            level = nextItemInFile(in);
-            kind = nextItemInFile(in);
-            mt = nextIntInFile(in);
-            wt = nextIntInFile(in);
-            rng = new NumberSet();
-            while (in.hasNextLine())
-                rng.add(nextIntInFile(in));
-                
-            if (level.equalsIgnoreCase(DUMMY)) // weapon file as a substitute
-            {
-                level = "";
-                kind = "";
-                name = "";
-            }            
-        }
-        catch (FileNotFoundException e) {}
-    }
-    
-    /**
-     * Returns the next integer in the file with the specified scanner.
-     */
-    private int nextIntInFile(Scanner in)
-    {
-        while (!in.hasNextInt())
-        {
-            in.next();
-        }
-        return in.nextInt();
-    }
-    
-    /**
-     * Returns the next item/weapon in the file with the specified scanner.
-     */
-    private String nextItemInFile(Scanner in)
-    {
-        String s = in.nextLine();
-        String[] sArray = s.split(":");
-        return sArray[1].trim();
+        return def.getFile();
     }
     
     /**
@@ -210,6 +140,7 @@ public class Weapon extends JComponent
     public String getAdvantage()
     {
         String s = "";
+        String kind = def.getKind();
         if (kind.equals(SWORD))
             s = AXE;
         else if (kind.equals(LANCE))
@@ -225,6 +156,7 @@ public class Weapon extends JComponent
     public String getWeakness()
     {
         String s = "";
+        String kind = def.getKind();
         if (kind.equals(SWORD))
             s = LANCE;
         else if (kind.equals(LANCE))
@@ -247,7 +179,8 @@ public class Weapon extends JComponent
             final Font FONT = new Font("", Font.PLAIN, FONT_SIZE);
             
             Graphics2D g2 = (Graphics2D) g;
-            String[] s = {"Mt: " + mt, "Wt: " + wt, "Rng:"};
+            NumberSet rng = def.getAtkRng();
+            String[] s = {"Mt: " + def.getMt(), "Wt: " + def.getWt(), "Rng:"};
             for (int h = 0; h < rng.size(); h++)
             {
                 s[2] = s[2] + " " + rng.get(h);
@@ -0,0 +1,128 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * The properties of a kind of weapon, as read from its file (mt, wt, range, etc.).
+ * Never changes once read, so one definition is shared by every weapon of the kind
+ * in every battle (see Definitions); anything that can change belongs to the Weapon.
+ */
+public class WeaponDef
+{
+    private static final String DUMMY = "DUMMY"; // a substitute for an empty space
+    
+    private File wpnFile; // the data file storing the weapon parameters
+    
+    private String level; // how "advanced" the weapon is (iron, steel, silver, etc).
+    private String kind; // the kind of weapon (sword, lance, etc)
+    private String name; // the entire name that is displayed
+    
+    private int mt; // the might (strength) of the weapon
+    private int wt; // the weight of the weapon
+    private NumberSet rng; // the range of the weapon
+    
+    /**
+     * Creates the definition of the weapon with the specified name, read from the specified file.
+     */
+    public WeaponDef(String aName, File aFile)
+    {
+        name = aName;
+        wpnFile = aFile;
+        readWeaponFile();
+    }
+    
+    /**
+     * Returns the might of the weapon.
+     */
+    public int getMt()
+    {
+        return mt;
+    }
+    
+    /**
+     * Returns the weight of the weapon.
+     */
+    public int getWt()
+    {
+        return wt;
+    }
+    
+    /**
+     * Returns the attack range of the weapon. The set must not be changed.
+     */
+    public NumberSet getAtkRng()
+    {
+        return rng;
+    }
+    
+    /**
+     * Returns the weapon level.
+     */
+    public String getLevel()
+    {
+        return level;
+    }
+    
+    /**
+     * Returns the weapon kind.
+     */
+    public String getKind()
+    {
+        return kind;
+    }
+    
+    /**
+     * Returns the name of the weapon.
+     */
+    public String getName()
+    {
+        return name;
+    }
+    
+    /**
+     * Returns the file the weapon is based on.
+     */
+    public File getFile()
+    {
+        return wpnFile;
+    }
+    
+    /**
+     * Reads the weapon's stats from the file.
+     * Sets the mt, wt, and rng variables to those found in the file.
+     */
+    private void readWeaponFile()
+    {
+        try
+        {
+            DataFileReader in = new DataFileReader(wpnFile);
+            try
+            {
+                level = in.nextValue();
+                kind = in.nextValue();
+                mt = in.nextIntValue();
+                wt = in.nextIntValue();
+                rng = new NumberSet();
+                in.skipKey(); // the ranges, such as "1" or "1 - 2"
+                rng.add(in.nextIntOnLine());
+                while (in.hasNextOnLine())
+                {
+                    in.expect("-");
+                    rng.add(in.nextIntOnLine());
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            
+            if (level.equalsIgnoreCase(DUMMY)) // weapon file as a substitute
+            {
+                level = "";
+                kind = "";
+                name = "";
+            }            
+        }
+        catch (IOException e) { System.out.println(e); }
+    }
+
+} // END CLASS